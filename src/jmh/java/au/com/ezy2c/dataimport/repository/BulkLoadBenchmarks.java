@@ -0,0 +1,99 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Writing the same NoGo polygons of 50 points to fleet_locations with LocationWriter's batches and with LOAD DATA,
+ * against MySQL, see MysqlBenchmarkDatabase. The server must have local_infile=ON.
+ * Each invocation writes them all to an empty fleet and commits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class BulkLoadBenchmarks {
+	static final int VERTICES = 50;
+
+	@Param({"2000", "20000"})
+	int locations;
+
+	private List<Location> polygons;
+	private ImportSettings settings;
+	private Connection connection;
+
+	@Setup
+	public void setUp() throws SQLException {
+		Random random = new Random(locations);
+		polygons = new ArrayList<>(locations);
+		for (int n = 0; n < locations; n++)
+			polygons.add(new SyntheticPolygon(random, VERTICES).toLocation(n + 1, AreaType.NoGo, "Benchmark "+n));
+		settings = new ImportSettings();
+		connection = DriverManager.getConnection(MysqlBenchmarkDatabase.url("rewriteBatchedStatements=true&allowLoadLocalInfile=true"));
+		connection.setAutoCommit(false);
+	}
+	@Setup(Level.Iteration)
+	public void deleteFleet() throws SQLException {
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate("DELETE FROM fleet_locations WHERE fleet = "+MysqlBenchmarkDatabase.FLEET_ID);
+		}
+		connection.commit();
+	}
+	@TearDown
+	public void tearDown() throws SQLException {
+		try {
+			deleteFleet();
+		} finally {
+			connection.close();
+		}
+	}
+	@Benchmark
+	public void batches() throws SQLException {
+		long fleetId = MysqlBenchmarkDatabase.FLEET_ID;
+		LocationWriter writer = new LocationWriter(connection, fleetId, AreaType.NoGo, settings, ImportMetrics.unregistered(fleetId, AreaType.NoGo));
+		try {
+			for (Location location : polygons)
+				writer.insert(location);
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+	}
+	@Benchmark
+	public void loadData() throws SQLException, IOException {
+		long fleetId = MysqlBenchmarkDatabase.FLEET_ID;
+		LocationBulkWriter writer = new LocationBulkWriter(connection, fleetId, AreaType.NoGo, settings, ImportMetrics.unregistered(fleetId, AreaType.NoGo));
+		try {
+			for (Location location : polygons)
+				writer.add(location);
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+	}
+}
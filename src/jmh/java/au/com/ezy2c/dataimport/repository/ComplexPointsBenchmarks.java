@@ -0,0 +1,65 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Encoding and decoding complexpoints in the text and polyline formats.
+ * Each invocation decodes one of 256 polygons of the given number of vertices, so the branch predictor can't
+ * learn a single string.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ComplexPointsBenchmarks {
+	static final int POLYGONS = 256;
+
+	@Param({"10", "300", "10000"})
+	int vertices;
+
+	@Param({ComplexPoints.FORMAT_TEXT, ComplexPoints.FORMAT_POLYLINE})
+	String format;
+
+	private Location location;
+	private String[] encoded = new String[POLYGONS];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(vertices);
+		boolean polyline = ComplexPoints.FORMAT_POLYLINE.equals(format);
+		for (int i = 0; i < POLYGONS; i++) {
+			Location polygon = new SyntheticPolygon(random, vertices).toLocation(i, AreaType.NoGo, "Benchmark");
+			encoded[i] = polyline ? ComplexPoints.encodePolyline(polygon) : polygon.getComplexPoints();
+			if (i == 0)
+				location = polygon;
+		}
+	}
+	@Benchmark
+	public String encode() {
+		return ComplexPoints.FORMAT_POLYLINE.equals(format) ? ComplexPoints.encodePolyline(location) : location.getComplexPoints();
+	}
+	@Benchmark
+	public ComplexPoints decode() {
+		ComplexPoints points = ComplexPoints.parse(encoded[next]);
+		next = (next + 1) % POLYGONS;
+		return points;
+	}
+}
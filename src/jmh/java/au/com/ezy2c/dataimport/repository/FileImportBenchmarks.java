@@ -0,0 +1,70 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Importing a CSV file of generated location names of every AreaType the way it is imported now, by loading it into
+ * LocationsImport and importing from there, and straight from the file with storeLocationsFromFile, against MySQL,
+ * see MysqlBenchmarkDatabase. Each invocation imports the whole file again.
+ * LocationFileSourceTests checks that both write the same rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class FileImportBenchmarks {
+	@Param({"1000", "10000", "100000"})
+	int locations;
+
+	private Path file;
+	private HikariDataSource dataSource;
+	private LocationRepositoryImpl repository;
+
+	@Setup
+	public void setUp() throws Exception {
+		file = Files.createTempFile("locations-"+locations+"-", ".csv");
+		LocationFileSourceTests.writeCsv(file, new LocationsImportGenerator().locations(locations));
+		dataSource = MysqlBenchmarkDatabase.dataSource();
+		repository = new LocationRepositoryImpl(dataSource, new ImportSettings());
+	}
+	@TearDown
+	public void tearDown() throws SQLException, IOException {
+		try {
+			MysqlBenchmarkDatabase.deleteFleet(dataSource);
+		} finally {
+			dataSource.close();
+			Files.deleteIfExists(file);
+		}
+	}
+	@Benchmark
+	public void throughLocationsImport() throws Exception {
+		MysqlBenchmarkDatabase.execute(dataSource, "DELETE FROM LocationsImport");
+		LocationFileSourceTests.loadLocationsImport(dataSource, file);
+		repository.storeAllLocations(MysqlBenchmarkDatabase.FLEET_ID);
+	}
+	@Benchmark
+	public void fromFile() throws Exception {
+		repository.storeLocationsFromFile(MysqlBenchmarkDatabase.FLEET_ID, null, file);
+	}
+}
@@ -0,0 +1,116 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ezy2c.common.DBConnectException;
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Finding the locations that contain a position, by the geohash cover and by the bounding boxes,
+ * against an in-memory H2 database in MySQL mode.
+ * 20,000 NoGo polygons of the given number of vertices are imported with a cover of precision 7, then each invocation
+ * looks up one of a fixed set of positions, half of them inside a polygon and half anywhere in Australia.
+ * Setup checks that both ways find the same locations.
+ * H2 is not MySQL, so the scores are only for comparing the two ways and one commit with another.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class GeofenceLookupBenchmarks {
+	static final int LOCATIONS = 20000;
+	static final int POSITIONS = 1024;
+	static final long FLEET_ID = 1;
+	
+	@Param({"10", "100", "1000"})
+	int vertices;
+	
+	private H2LocationDatabase database;
+	private Connection connection;
+	private GeofenceLookup lookup;
+	private double[] latitudes = new double[POSITIONS];
+	private double[] longitudes = new double[POSITIONS];
+	private int next;
+	
+	@Setup
+	public void setUp() throws SQLException, DBConnectException, LocationRepositoryException {
+		database = H2LocationDatabase.inMemory("geofenceLookup"+vertices);
+		Random random = new Random(vertices);
+		BigDecimal speedLimit = new BigDecimal("60.00");
+		List<SyntheticPolygon> polygons = new ArrayList<>();
+		try (H2LocationDatabase.LocationsImportInserter inserter = database.inserter()) {
+			for (int n = 0; n < LOCATIONS; n++) {
+				SyntheticPolygon polygon = new SyntheticPolygon(random, vertices);
+				polygons.add(polygon);
+				inserter.add(AreaType.NoGo, String.format("Location %09d", n), speedLimit, false, polygon);
+			}
+		}
+		ImportSettings settings = H2LocationDatabase.settings();
+		settings.coverPrecision = 7;
+		new LocationRepositoryImpl(database.getDataSource(), settings).storeLocations(FLEET_ID, AreaType.NoGo);
+		for (int i = 0; i < POSITIONS; i++) {
+			if (i % 2 == 0) {
+				// The centre of a polygon, which is inside it
+				SyntheticPolygon polygon = polygons.get(random.nextInt(LOCATIONS));
+				double latitude = 0, longitude = 0;
+				for (int k = 0; k < polygon.size(); k++) {
+					latitude += polygon.latitudes[k].doubleValue();
+					longitude += polygon.longitudes[k].doubleValue();
+				}
+				latitudes[i] = latitude / polygon.size();
+				longitudes[i] = longitude / polygon.size();
+			} else {
+				latitudes[i] = -38 + random.nextDouble() * 26;
+				longitudes[i] = 114 + random.nextDouble() * 39;
+			}
+		}
+		connection = database.getDataSource().getConnection();
+		lookup = new GeofenceLookup(connection);
+		for (int i = 0; i < POSITIONS; i++) {
+			List<String> byCells = lookup.findByCells(FLEET_ID, latitudes[i], longitudes[i]);
+			List<String> byBoundingBox = lookup.findByBoundingBox(FLEET_ID, latitudes[i], longitudes[i]);
+			Collections.sort(byCells);
+			Collections.sort(byBoundingBox);
+			if (!byCells.equals(byBoundingBox))
+				throw new IllegalStateException("At "+latitudes[i]+","+longitudes[i]+" the cells found "+byCells+" and the bounding boxes "+byBoundingBox);
+		}
+	}
+	@TearDown
+	public void tearDown() throws SQLException {
+		lookup.close();
+		connection.close();
+		database.drop();
+	}
+	@Benchmark
+	public List<String> findByCells() throws SQLException {
+		int i = next++ & (POSITIONS - 1);
+		return lookup.findByCells(FLEET_ID, latitudes[i], longitudes[i]);
+	}
+	@Benchmark
+	public List<String> findByBoundingBox() throws SQLException {
+		int i = next++ & (POSITIONS - 1);
+		return lookup.findByBoundingBox(FLEET_ID, latitudes[i], longitudes[i]);
+	}
+}
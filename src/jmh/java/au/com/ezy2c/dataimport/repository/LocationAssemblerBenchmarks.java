@@ -0,0 +1,66 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * The loop that groups the LocationsImport rows into Locations, without the database.
+ * Every run groups 100,000 rows, split into polygons of the given number of vertices,
+ * so the scores of the different sizes are for the same amount of data.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LocationAssemblerBenchmarks {
+	static final int ROWS = 100000;
+	
+	@Param({"10", "100", "1000", "10000", "100000"})
+	int vertices;
+	
+	private String[] names;
+	private SyntheticPolygon[] polygons;
+	private final BigDecimal speedLimit = new BigDecimal("60.00");
+	
+	@Setup
+	public void setUp() {
+		Random random = new Random(vertices);
+		int locations = ROWS / vertices;
+		names = new String[locations];
+		polygons = new SyntheticPolygon[locations];
+		for (int n = 0; n < locations; n++) {
+			names[n] = String.format("Location %09d", n);
+			polygons[n] = new SyntheticPolygon(random, vertices);
+		}
+	}
+	@Benchmark
+	public long assemble(Blackhole blackhole) throws LocationRepositoryException {
+		LocationAssembler assembler = new LocationAssembler(AreaType.NoGo, blackhole::consume);
+		long id = 0;
+		for (int n = 0; n < polygons.length; n++) {
+			SyntheticPolygon polygon = polygons[n];
+			for (int i = 0; i < polygon.size(); i++)
+				assembler.add(AreaType.NoGo, ++id, names[n], speedLimit, false, i + 1, polygon.latitudes[i], polygon.longitudes[i]);
+		}
+		assembler.finish();
+		return assembler.getLocationsAssembled();
+	}
+}
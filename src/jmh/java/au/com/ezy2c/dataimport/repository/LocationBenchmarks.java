@@ -0,0 +1,60 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Building a Location a point at a time and the work done on it before it is written
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LocationBenchmarks {
+	@Param({"10", "100", "1000", "10000", "100000"})
+	int vertices;
+	
+	private SyntheticPolygon polygon;
+	private Location location;
+	
+	@Setup
+	public void setUp() {
+		polygon = new SyntheticPolygon(new Random(vertices), vertices);
+		location = polygon.toLocation(1, AreaType.NoGo, "Benchmark");
+	}
+	@Benchmark
+	public Location add() {
+		BigDecimal[] latitudes = polygon.latitudes;
+		BigDecimal[] longitudes = polygon.longitudes;
+		Location built = new Location(1, AreaType.NoGo, "Benchmark", 1, null, false, latitudes[0], longitudes[0]);
+		for (int i = 1; i < latitudes.length; i++)
+			built.add(i + 1, latitudes[i], longitudes[i]);
+		return built;
+	}
+	@Benchmark
+	public List<LatLong> findCornersAndCentre() {
+		return location.findCornersAndCentre();
+	}
+	@Benchmark
+	public String getComplexPoints() {
+		return location.getComplexPoints();
+	}
+}
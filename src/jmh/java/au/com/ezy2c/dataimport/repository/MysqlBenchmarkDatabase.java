@@ -0,0 +1,47 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * The MySQL schema of the benchmarks that have to be run against MySQL, the ones that compare ways of writing that H2
+ * doesn't have or would time differently. -DlocationImport.benchmarkUrl gives its JDBC url, see the benchmark profile
+ * in pom.xml, without it their setup fails and JMH leaves them out of the results.
+ * The schema is made for them: its LocationsImport is emptied and filled with generated rows, and the locations are
+ * written to fleet -1 and deleted afterwards.
+ */
+class MysqlBenchmarkDatabase {
+	static final String URL_PROPERTY = "locationImport.benchmarkUrl";
+	static final long FLEET_ID = -1;
+
+	/**
+	 * The url with the given connection attributes added
+	 */
+	static String url(String attributes) {
+		String url = System.getProperty(URL_PROPERTY);
+		if (url == null || url.isEmpty())
+			throw new IllegalStateException(URL_PROPERTY+" is not set, the MySQL benchmarks need the JDBC url of a schema made for them");
+		return url + (url.contains("?") ? "&" : "?") + attributes;
+	}
+	static HikariDataSource dataSource() {
+		HikariDataSource dataSource = new HikariDataSource();
+		dataSource.setJdbcUrl(url("rewriteBatchedStatements=true"));
+		return dataSource;
+	}
+	static void execute(DataSource dataSource, String sql) throws SQLException {
+		try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement()) {
+			st.executeUpdate(sql);
+		}
+	}
+	/**
+	 * Deletes the benchmark fleet's locations
+	 */
+	static void deleteFleet(DataSource dataSource) throws SQLException {
+		execute(dataSource, "DELETE FROM fleet_locations WHERE fleet = "+FLEET_ID);
+	}
+}
@@ -0,0 +1,76 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import au.com.ezy2c.common.DBConnectException;
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * storeAllLocations with the java engine and the sql engine, against MySQL, see MysqlBenchmarkDatabase.
+ * LocationsImport holds the given number of generated location names of every AreaType, see LocationsImportGenerator.
+ * Each invocation deletes and imports them all again. SqlImportTests checks that both engines write the same rows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+public class SqlEngineBenchmarks {
+	@Param({"1000", "10000", "100000"})
+	int locations;
+
+	@Param({ImportSettings.ENGINE_JAVA, ImportSettings.ENGINE_SQL})
+	String engine;
+
+	private HikariDataSource dataSource;
+	private LocationRepositoryImpl repository;
+
+	@Setup
+	public void setUp() throws Exception {
+		dataSource = MysqlBenchmarkDatabase.dataSource();
+		MysqlBenchmarkDatabase.execute(dataSource, "DELETE FROM LocationsImport");
+		try (H2LocationDatabase.LocationsImportInserter inserter = new H2LocationDatabase.LocationsImportInserter(dataSource.getConnection())) {
+			new LocationsImportGenerator().locations(locations).generate(inserter);
+		}
+		ImportSettings settings = new ImportSettings();
+		settings.engine = engine;
+		repository = new LocationRepositoryImpl(dataSource, settings);
+	}
+	/**
+	 * Each import marks the bad records in LocationsImport, every one starts from the rows as they were generated
+	 */
+	@Setup(Level.Iteration)
+	public void clearBadRecords() throws SQLException {
+		MysqlBenchmarkDatabase.execute(dataSource, "UPDATE LocationsImport SET badRecord = 'N', badRecordReason = NULL");
+	}
+	@TearDown
+	public void tearDown() throws SQLException {
+		try {
+			MysqlBenchmarkDatabase.deleteFleet(dataSource);
+		} finally {
+			dataSource.close();
+		}
+	}
+	@Benchmark
+	public void storeAllLocations() throws DBConnectException, LocationRepositoryException {
+		repository.storeAllLocations(MysqlBenchmarkDatabase.FLEET_ID);
+	}
+}
@@ -0,0 +1,65 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.com.ezy2c.common.DBConnectException;
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * storeLocations from end to end against an in-memory H2 database in MySQL mode.
+ * LocationsImport holds 100,000 rows of NoGo polygons of the given number of vertices.
+ * Each invocation deletes and imports them all again, as a nightly import does.
+ * H2 is not MySQL, so the scores are only for comparing one commit with another.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StoreLocationsBenchmarks {
+	static final int ROWS = 100000;
+	static final long FLEET_ID = 1;
+	
+	@Param({"10", "100", "1000"})
+	int vertices;
+	
+	private H2LocationDatabase database;
+	private LocationRepositoryImpl repository;
+	
+	@Setup
+	public void setUp() throws SQLException {
+		database = H2LocationDatabase.inMemory("storeLocations"+vertices);
+		Random random = new Random(vertices);
+		BigDecimal speedLimit = new BigDecimal("60.00");
+		try (H2LocationDatabase.LocationsImportInserter inserter = database.inserter()) {
+			for (int n = 0; n < ROWS / vertices; n++)
+				inserter.add(AreaType.NoGo, String.format("Location %09d", n), speedLimit, false, new SyntheticPolygon(random, vertices));
+		}
+		repository = new LocationRepositoryImpl(database.getDataSource(), H2LocationDatabase.settings());
+	}
+	@TearDown
+	public void tearDown() throws SQLException {
+		database.drop();
+	}
+	@Benchmark
+	public void storeLocations() throws DBConnectException, LocationRepositoryException {
+		repository.storeLocations(FLEET_ID, AreaType.NoGo);
+	}
+}
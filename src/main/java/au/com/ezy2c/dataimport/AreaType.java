@@ -11,4 +11,20 @@ public enum AreaType {
 	private AreaType(String name) {
 		this.name = name;
 	}
+	/**
+	 * The bit for this type in a mask of the area types a location belongs to
+	 */
+	public int mask() {
+		return 1 << ordinal();
+	}
+	/**
+	 * Returns the AreaType with the given LocationsImport name, ignoring case like MySQL does, or null if there isn't one
+	 */
+	public static AreaType fromName(String name) {
+		for (AreaType areaType : values()) {
+			if (areaType.name.equalsIgnoreCase(name))
+				return areaType;
+		}
+		return null;
+	}
 }
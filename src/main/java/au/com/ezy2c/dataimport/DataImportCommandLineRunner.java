@@ -1,4 +1,12 @@
 package au.com.ezy2c.dataimport;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -8,19 +16,30 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
 import au.com.ezy2c.common.logging.RollingLogger;
+import au.com.ezy2c.dataimport.repository.ImportSettings;
 import au.com.ezy2c.dataimport.repository.LocationRepository;
+import au.com.ezy2c.dataimport.repository.LocationRepositoryException;
 
 @Component
 public class DataImportCommandLineRunner implements CommandLineRunner {
 	static final Logger logger = Logger.getLogger(DataImportCommandLineRunner.class.getSimpleName());
 	@Autowired
 	LocationRepository locationRepository;
+	@Autowired
+	ImportSettings importSettings;
+	@Autowired
+	DataImportService dataImportService;
 	
 	@Value("${logFileNumber}")
 	int logFileNumber;
 	@Value("${logFileSize}")
 	int logFileSize;
+	// Number of fleets imported at the same time when more than one is given
+	@Value("${locationImport.fleetConcurrency:4}")
+	int fleetConcurrency;
 	
+	// The argument that runs the import as a resident service, see DataImportService
+	static final String SERVICE = "service";
 	
 	@Override
 	public void run(String... args) throws Exception {
@@ -28,8 +47,10 @@ public class DataImportCommandLineRunner implements CommandLineRunner {
 		RollingLogger.init(logFile, logFileSize, logFileNumber);
 		logger.log(Level.INFO,"run: Started");
 		logger.log(Level.INFO,"args.length "+args.length);
-		if (args.length < 2) {
-			String msg = "Not enough arguments provided. Please provide fleetId and areaType where areaType is one of {";
+		if (args.length == 1 && SERVICE.equals(args[0])) {
+			dataImportService.run();
+		} else if (args.length < 2) {
+			String msg = "Not enough arguments provided. Please provide fleetIds and areaType where fleetIds is a fleetId or a list of them and ranges like 12,15,20-30 and areaType is one of {";
 			boolean commaRequired = false;
 			for (AreaType areaType : AreaType.values()) {
 				if (commaRequired) 
@@ -39,12 +60,118 @@ public class DataImportCommandLineRunner implements CommandLineRunner {
 				}
 				msg+=areaType;
 			}
-			logger.severe(msg+"}");
+			logger.severe(msg+"} or "+LocationRepository.ALL_AREA_TYPES+" to import every areaType in one pass, optionally followed by a .csv, .geojson or .kml file to import instead of LocationsImport,"
+					+" or "+SERVICE+" to run the jobs queued in fleet_location_import_jobs");
 		} else {
-			logger.log(Level.INFO,"Using fleetId {0} areaType {1}",new Object[] {args[0], args[1]});
-			long fleetId = Long.parseLong(args[0]);
-			locationRepository.storeLocations(fleetId, AreaType.valueOf(args[1]));
+			Path file = args.length > 2 ? Paths.get(args[2]) : null;
+			logger.log(Level.INFO,"Using fleetIds {0} areaType {1} file {2}",new Object[] {args[0], args[1], file});
+			List<Long> fleetIds = parseFleetIds(args[0]);
+			AreaType areaType = LocationRepository.ALL_AREA_TYPES.equals(args[1]) ? null : AreaType.valueOf(args[1]);
+			importFleets(fleetIds, areaType, file);
 		}
 		logger.log(Level.INFO,"run: Finished");
 	}
+	/**
+	 * Parses a fleetId, or a comma separated list of fleetIds and ranges of them like 12,15,20-30
+	 */
+	static List<Long> parseFleetIds(String arg) {
+		List<Long> fleetIds = new ArrayList<>();
+		for (String part : arg.split(",")) {
+			part = part.trim();
+			if (part.isEmpty())
+				continue;
+			int dash = part.indexOf('-', 1);
+			if (dash > 0) {
+				long first = Long.parseLong(part.substring(0, dash).trim());
+				long last = Long.parseLong(part.substring(dash + 1).trim());
+				if (last < first)
+					throw new IllegalArgumentException("The fleetId range "+part+" is backwards");
+				for (long fleetId = first; fleetId <= last; fleetId++)
+					fleetIds.add(fleetId);
+			} else {
+				fleetIds.add(Long.parseLong(part));
+			}
+		}
+		return fleetIds;
+	}
+	/**
+	 * Imports each fleet on a thread of its own, fleetConcurrency at a time, sharing the repository's connection pool.
+	 * A fleet that fails doesn't stop the others. Once they have all finished a summary is logged and,
+	 * if any of them failed, the first failure is thrown.
+	 * areaType is null to import every area type, file is null to import from LocationsImport
+	 */
+	private void importFleets(List<Long> fleetIds, AreaType areaType, Path file) throws LocationRepositoryException {
+		int threads = Math.max(1, Math.min(fleetConcurrency, fleetIds.size()));
+		if (threads > importSettings.fleetsSupportedByPool()) {
+			logger.log(Level.WARNING,"The connection pool only has room for "+importSettings.fleetsSupportedByPool()+" fleets at a time, importing that many instead of "+threads);
+			threads = importSettings.fleetsSupportedByPool();
+		}
+		logger.log(Level.INFO,"Importing "+fleetIds.size()+" fleets, "+threads+" at a time");
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<FleetResult>> futures = new ArrayList<>();
+		List<FleetResult> results = new ArrayList<>();
+		try {
+			for (Long fleetId : fleetIds)
+				futures.add(executor.submit(() -> importFleet(fleetId, areaType, file)));
+			for (Future<FleetResult> future : futures)
+				results.add(future.get());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new LocationRepositoryException("Interrupted while importing fleets", ex);
+		} catch (ExecutionException ex) {
+			// importFleet catches every Exception so only an Error can get here
+			if (ex.getCause() instanceof Error)
+				throw (Error) ex.getCause();
+			throw new LocationRepositoryException("Unable to import fleets", ex);
+		} finally {
+			executor.shutdownNow();
+		}
+		FleetResult firstFailure = null;
+		int failures = 0;
+		long totalMillis = 0;
+		for (FleetResult result : results) {
+			totalMillis += result.millis;
+			if (result.failure == null) {
+				logger.log(Level.INFO,"Fleet "+result.fleetId+" imported in "+result.millis+"ms");
+			} else {
+				logger.log(Level.SEVERE,"Fleet "+result.fleetId+" FAILED after "+result.millis+"ms : "+result.failure.getMessage());
+				failures++;
+				if (firstFailure == null)
+					firstFailure = result;
+			}
+		}
+		logger.log(Level.INFO,"Imported "+(results.size()-failures)+" of "+results.size()+" fleets, "+totalMillis+"ms in total");
+		if (firstFailure != null)
+			throw new LocationRepositoryException(failures+" of "+results.size()+" fleets failed to import, the first was fleet "+firstFailure.fleetId, firstFailure.failure);
+	}
+	private FleetResult importFleet(long fleetId, AreaType areaType, Path file) {
+		String threadName = Thread.currentThread().getName();
+		Thread.currentThread().setName("fleet-"+fleetId);
+		long start = System.currentTimeMillis();
+		try {
+			if (file != null)
+				locationRepository.storeLocationsFromFile(fleetId, areaType, file);
+			else if (areaType == null)
+				locationRepository.storeAllLocations(fleetId);
+			else
+				locationRepository.storeLocations(fleetId, areaType);
+			return new FleetResult(fleetId, System.currentTimeMillis() - start, null);
+		} catch (Exception ex) {
+			logger.log(Level.SEVERE,"Unable to import fleet "+fleetId+" : "+ex.getMessage(),ex);
+			return new FleetResult(fleetId, System.currentTimeMillis() - start, ex);
+		} finally {
+			Thread.currentThread().setName(threadName);
+		}
+	}
+	private static class FleetResult {
+		final long fleetId;
+		final long millis;
+		final Exception failure;
+		
+		FleetResult(long fleetId, long millis, Exception failure) {
+			this.fleetId = fleetId;
+			this.millis = millis;
+			this.failure = failure;
+		}
+	}
 }
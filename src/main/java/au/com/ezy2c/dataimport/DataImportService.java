@@ -0,0 +1,190 @@
+package au.com.ezy2c.dataimport;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import au.com.ezy2c.dataimport.repository.FleetBusyException;
+import au.com.ezy2c.dataimport.repository.ImportJob;
+import au.com.ezy2c.dataimport.repository.ImportSettings;
+import au.com.ezy2c.dataimport.repository.LocationRepository;
+import au.com.ezy2c.dataimport.repository.LocationRepositoryException;
+
+/**
+ * The resident mode of the import, run with the argument service instead of fleetIds and an areaType.
+ * It stays up and runs the jobs inserted into fleet_location_import_jobs, so Spring, the config, the logger and the
+ * connection pool are set up once rather than for every import. With locationImport.poolMinimumIdle set the pool
+ * keeps connections open between jobs, and Connector/J keeps the import's statements prepared on them.
+ *
+ * Jobs run fleetConcurrency at a time, no more than the pool has room for, and never two of one fleet at once.
+ *
+ * Any number of services, on any number of nodes, can run against one database. Each claims only as many jobs as it
+ * has threads free, so the jobs spread over the services as they have room for them. A claimed job is leased to its
+ * service, which renews the lease every third of locationImport.leaseSeconds while the job runs. The job of a service
+ * that dies is claimed by another once its lease runs out, and run again from the start, or from its checkpoint.
+ * Leases keep the services from claiming each other's jobs, the FleetLock every import takes keeps two imports of a
+ * fleet from running at once whatever the leases say. A job whose fleet is locked by another importer is left for its
+ * lease to run out, then claimed again.
+ */
+@Component
+public class DataImportService {
+	static final Logger logger = Logger.getLogger(DataImportService.class.getSimpleName());
+	@Autowired
+	LocationRepository locationRepository;
+	@Autowired
+	ImportSettings importSettings;
+	
+	// Number of jobs run at the same time
+	@Value("${locationImport.fleetConcurrency:4}")
+	int fleetConcurrency;
+	// How long to wait before looking for queued jobs again when there are none or every thread is busy
+	@Value("${locationImport.servicePollMillis:250}")
+	long pollMillis = 250;
+	// How long a stop waits for the running jobs to finish
+	@Value("${locationImport.serviceStopSeconds:300}")
+	long stopSeconds = 300;
+	
+	private final Set<Long> runningFleets = ConcurrentHashMap.newKeySet();
+	// The running jobs by id, whose leases are renewed
+	private final Map<Long, ImportJob> runningJobs = new ConcurrentHashMap<>();
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	private volatile boolean stopping;
+	private volatile boolean started;
+	
+	/**
+	 * Runs the queued jobs until stop() is called, then waits for the running ones to finish
+	 */
+	public void run() throws LocationRepositoryException {
+		started = true;
+		try {
+			int threads = Math.max(1, Math.min(fleetConcurrency, importSettings.fleetsSupportedByPool()));
+			long renewMillis = TimeUnit.SECONDS.toMillis(importSettings.leaseSeconds()) / 3;
+			logger.log(Level.INFO,"Import service "+importSettings.instanceName()+" started, running "+threads+" jobs at a time");
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			ScheduledExecutorService leases = Executors.newSingleThreadScheduledExecutor();
+			leases.scheduleWithFixedDelay(this::renewLeases, renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+			try {
+				while (!stopping) {
+					int free = threads - runningFleets.size();
+					if (free > 0 && claimAndSubmit(executor, free) > 0)
+						continue;
+					try {
+						// Services started together drift apart rather than all claiming at the same moment
+						Thread.sleep(pollMillis / 2 + ThreadLocalRandom.current().nextLong(pollMillis + 1));
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						stopping = true;
+					}
+				}
+			} finally {
+				executor.shutdown();
+				try {
+					if (!executor.awaitTermination(stopSeconds, TimeUnit.SECONDS))
+						logger.log(Level.WARNING,"Import service stopped with the jobs of fleets "+runningFleets+" still running");
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				leases.shutdownNow();
+			}
+			logger.log(Level.INFO,"Import service stopped");
+		} finally {
+			stopped.countDown();
+		}
+	}
+	/**
+	 * Asks run() to stop claiming jobs and waits until the running ones have finished
+	 */
+	@PreDestroy
+	public void stop() {
+		stopping = true;
+		if (!started)
+			return;
+		try {
+			stopped.await(stopSeconds + 1, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * Claims up to free jobs and runs them, returns how many were claimed
+	 */
+	private int claimAndSubmit(ExecutorService executor, int free) {
+		List<ImportJob> jobs;
+		try {
+			jobs = locationRepository.claimImportJobs(free, runningFleets);
+		} catch (LocationRepositoryException ex) {
+			logger.log(Level.WARNING,"Unable to claim import jobs, trying again in "+pollMillis+"ms : "+ex.getMessage());
+			return 0;
+		}
+		for (ImportJob job : jobs) {
+			runningFleets.add(job.getFleetId());
+			runningJobs.put(job.getId(), job);
+			executor.submit(() -> runJob(job));
+		}
+		return jobs.size();
+	}
+	/**
+	 * Extends the leases of the running jobs. A job another service has taken over goes on running, its fleet's lock
+	 * keeps the two from importing it at once, but its end won't be recorded
+	 */
+	private void renewLeases() {
+		for (ImportJob job : runningJobs.values()) {
+			try {
+				if (!locationRepository.renewImportJobLease(job))
+					logger.log(Level.SEVERE,"Lost the lease of "+job+" to another service, it was not renewed in time");
+			} catch (Exception ex) {
+				logger.log(Level.WARNING,"Unable to renew the lease of "+job+", trying again in "+TimeUnit.SECONDS.toMillis(importSettings.leaseSeconds()) / 3+"ms : "+ex.getMessage());
+			}
+		}
+	}
+	private void runJob(ImportJob job) {
+		String threadName = Thread.currentThread().getName();
+		Thread.currentThread().setName("fleet-"+job.getFleetId());
+		try {
+			long start = System.currentTimeMillis();
+			Exception failure = null;
+			try {
+				logger.log(Level.INFO,"Starting "+job);
+				if (job.getAreaType() == null)
+					locationRepository.storeAllLocations(job.getFleetId());
+				else
+					locationRepository.storeLocations(job.getFleetId(), job.getAreaType());
+			} catch (FleetBusyException ex) {
+				logger.log(Level.INFO,"Leaving "+job+" to be claimed again once its lease runs out : "+ex.getMessage());
+				return;
+			} catch (Exception ex) {
+				logger.log(Level.SEVERE,"Unable to run "+job+" : "+ex.getMessage(),ex);
+				failure = ex;
+			}
+			long millis = System.currentTimeMillis() - start;
+			// The lease is no longer renewed once the end is recorded
+			runningJobs.remove(job.getId());
+			try {
+				if (locationRepository.finishImportJob(job, millis, failure))
+					logger.log(Level.INFO,(failure == null ? "Finished " : "FAILED ")+job+" in "+millis+"ms");
+				else
+					logger.log(Level.WARNING,(failure == null ? "Finished " : "FAILED ")+job+" in "+millis+"ms, but another service has taken it over and will record its end");
+			} catch (Exception ex) {
+				logger.log(Level.SEVERE,"Unable to record the end of "+job+" : "+ex.getMessage(),ex);
+			}
+		} finally {
+			runningJobs.remove(job.getId());
+			runningFleets.remove(job.getFleetId());
+			Thread.currentThread().setName(threadName);
+		}
+	}
+}
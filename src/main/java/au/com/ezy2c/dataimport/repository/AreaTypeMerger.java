@@ -0,0 +1,41 @@
+package au.com.ezy2c.dataimport.repository;
+
+/**
+ * Merges the Locations of consecutive area types that share a LocationName into one Location, so a location
+ * belonging to several area types is written once with all of its flags set.
+ * The first area type with a good record provides the points, the same as when each area type is imported on
+ * its own and the later ones only set their flag on the existing row.
+ * Bad records are passed on so each of them is reported against its own LocationsImport row, but never ahead of the
+ * location of an earlier name: the locations are handed on in LocationName order, which ImportCheckpoint numbers them by.
+ */
+class AreaTypeMerger implements LocationConsumer {
+	private final LocationConsumer consumer;
+	private Location pending;
+	
+	AreaTypeMerger(LocationConsumer consumer) {
+		this.consumer = consumer;
+	}
+	@Override
+	public void accept(Location location) throws LocationRepositoryException {
+		if (location.isBadRecord()) {
+			if (pending != null && !pending.isSameAs(location.getLocationName()))
+				finish();
+			consumer.accept(location);
+		} else if (pending != null && pending.isSameAs(location.getLocationName())) {
+			pending.addAreaType(location.getAreaType());
+		} else {
+			finish();
+			pending = location;
+		}
+	}
+	/**
+	 * Hands over the last location
+	 */
+	void finish() throws LocationRepositoryException {
+		if (pending != null) {
+			Location location = pending;
+			pending = null;
+			consumer.accept(location);
+		}
+	}
+}
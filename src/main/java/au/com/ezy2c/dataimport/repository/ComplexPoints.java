@@ -0,0 +1,205 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * The points of a fleet_locations complexpoints column, in either of the formats the import can write:
+ * 
+ * text - "lat,long;lat,long;..." with each value as BigDecimal.toString() gives it, what has always been written.
+ * polyline - POLYLINE_PREFIX followed by the points in the encoded polyline format used by Google Maps, but with
+ *   7 decimal places instead of 5 so nothing is lost from a DECIMAL(10,7). Each value is the difference from the
+ *   previous one, zigzag encoded and written 5 bits per character, which typically takes a quarter of the space of the text.
+ * 
+ * parse() recognises either format, so a consumer can read the column without knowing how it was written.
+ * The points are held as longs of 1e-7 degrees.
+ */
+public class ComplexPoints {
+	public static final String FORMAT_TEXT = "text";
+	public static final String FORMAT_POLYLINE = "polyline";
+	// Text always starts with a digit or a minus sign, so this can't be mistaken for it
+	public static final String POLYLINE_PREFIX = "p7:";
+	public static final int SCALE = 7;
+	
+	private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000, 10000000};
+	
+	private long[] latitudes;
+	private long[] longitudes;
+	private int size;
+	
+	private ComplexPoints(int capacity) {
+		latitudes = new long[Math.max(4, capacity)];
+		longitudes = new long[latitudes.length];
+	}
+	/**
+	 * Reads a complexpoints value in either format. An empty or null value has no points.
+	 */
+	public static ComplexPoints parse(String complexPoints) {
+		if (complexPoints == null || complexPoints.isEmpty())
+			return new ComplexPoints(0);
+		if (complexPoints.startsWith(POLYLINE_PREFIX))
+			return parsePolyline(complexPoints);
+		return parseText(complexPoints);
+	}
+	public int size() {
+		return size;
+	}
+	public double getLatitude(int i) {
+		return latitudes[i] / 1e7;
+	}
+	public double getLongitude(int i) {
+		return longitudes[i] / 1e7;
+	}
+	/**
+	 * The latitude in 1e-7 degrees
+	 */
+	public long getLatitudeE7(int i) {
+		return latitudes[i];
+	}
+	public long getLongitudeE7(int i) {
+		return longitudes[i];
+	}
+	/**
+	 * The points in the text format, each value with 7 decimal places
+	 */
+	public String toText() {
+		StringBuilder sb = new StringBuilder(size * 24);
+		for (int i = 0; i < size; i++) {
+			if (i > 0) 
+				sb.append(";");
+			Location.appendDecimal(sb, latitudes[i], SCALE);
+			sb.append(",");
+			Location.appendDecimal(sb, longitudes[i], SCALE);
+		}
+		return sb.toString();
+	}
+	public String toPolyline() {
+		return encodePolyline(latitudes, 0, longitudes, 0, size);
+	}
+	/**
+	 * Encodes the points of a location, or returns null if they have more than 7 decimal places
+	 * and so can't be written as a polyline without losing precision
+	 */
+	static String encodePolyline(Location location) {
+		if (location.latitudeScale > SCALE || location.longitudeScale > SCALE || location.latitudeScale < 0 || location.longitudeScale < 0)
+			return null;
+		return encodePolyline(location.latitudes, SCALE - location.latitudeScale, location.longitudes, SCALE - location.longitudeScale, location.getNumberOfPoints());
+	}
+	/**
+	 * The values are multiplied by 10^latitudeShift and 10^longitudeShift to make them 1e-7 degrees
+	 */
+	private static String encodePolyline(long[] latitudes, int latitudeShift, long[] longitudes, int longitudeShift, int size) {
+		StringBuilder sb = new StringBuilder(POLYLINE_PREFIX.length() + size * 10);
+		sb.append(POLYLINE_PREFIX);
+		long previousLatitude = 0;
+		long previousLongitude = 0;
+		for (int i = 0; i < size; i++) {
+			long latitude = latitudes[i] * POWERS_OF_TEN[latitudeShift];
+			long longitude = longitudes[i] * POWERS_OF_TEN[longitudeShift];
+			appendSigned(sb, latitude - previousLatitude);
+			appendSigned(sb, longitude - previousLongitude);
+			previousLatitude = latitude;
+			previousLongitude = longitude;
+		}
+		return sb.toString();
+	}
+	private static void appendSigned(StringBuilder sb, long value) {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while (zigzag >= 0x20) {
+			sb.append((char) ((0x20 | (zigzag & 0x1f)) + 63));
+			zigzag >>>= 5;
+		}
+		sb.append((char) (zigzag + 63));
+	}
+	private static ComplexPoints parsePolyline(String encoded) {
+		ComplexPoints points = new ComplexPoints(encoded.length() / 8);
+		int[] position = {POLYLINE_PREFIX.length()};
+		long latitude = 0;
+		long longitude = 0;
+		while (position[0] < encoded.length()) {
+			latitude += readSigned(encoded, position);
+			longitude += readSigned(encoded, position);
+			points.add(latitude, longitude);
+		}
+		return points;
+	}
+	private static long readSigned(String encoded, int[] position) {
+		long zigzag = 0;
+		int shift = 0;
+		int c;
+		do {
+			if (position[0] >= encoded.length())
+				throw new IllegalArgumentException("Encoded complexpoints end part way through a value");
+			c = encoded.charAt(position[0]++) - 63;
+			if (c < 0 || c > 63)
+				throw new IllegalArgumentException("Invalid character in encoded complexpoints at "+(position[0]-1));
+			zigzag |= (long) (c & 0x1f) << shift;
+			shift += 5;
+		} while (c >= 0x20);
+		return (zigzag >>> 1) ^ -(zigzag & 1);
+	}
+	private static ComplexPoints parseText(String text) {
+		ComplexPoints points = new ComplexPoints(text.length() / 24);
+		int start = 0;
+		while (start < text.length()) {
+			int comma = text.indexOf(',', start);
+			int semicolon = text.indexOf(';', start);
+			if (semicolon < 0)
+				semicolon = text.length();
+			if (comma < 0 || comma > semicolon)
+				throw new IllegalArgumentException("complexpoints has a point without a comma at "+start);
+			points.add(parseE7(text, start, comma), parseE7(text, comma + 1, semicolon));
+			start = semicolon + 1;
+		}
+		return points;
+	}
+	/**
+	 * Parses a decimal into 1e-7 units, rounding any further places half up.
+	 * Plain decimals are parsed directly, anything else (such as the 0E-7 BigDecimal writes for zero) goes through BigDecimal.
+	 */
+	private static long parseE7(String text, int start, int end) {
+		int i = start;
+		boolean negative = i < end && text.charAt(i) == '-';
+		if (negative)
+			i++;
+		long value = 0;
+		int places = -1;
+		boolean digits = false;
+		for (; i < end; i++) {
+			char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (places >= SCALE)
+					return parseBigDecimal(text, start, end);
+				value = value * 10 + (c - '0');
+				digits = true;
+				if (places >= 0)
+					places++;
+			} else if (c == '.' && places < 0) {
+				places = 0;
+			} else {
+				return parseBigDecimal(text, start, end);
+			}
+		}
+		if (!digits)
+			throw new IllegalArgumentException("complexpoints has an empty value at "+start);
+		value *= POWERS_OF_TEN[SCALE - Math.max(0, places)];
+		return negative ? -value : value;
+	}
+	private static long parseBigDecimal(String text, int start, int end) {
+		try {
+			return new BigDecimal(text.substring(start, end)).setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+		} catch (NumberFormatException | ArithmeticException ex) {
+			throw new IllegalArgumentException("complexpoints has an invalid value "+text.substring(start, end), ex);
+		}
+	}
+	private void add(long latitude, long longitude) {
+		if (size == latitudes.length) {
+			latitudes = Arrays.copyOf(latitudes, size * 2);
+			longitudes = Arrays.copyOf(longitudes, size * 2);
+		}
+		latitudes[size] = latitude;
+		longitudes[size] = longitude;
+		size++;
+	}
+}
@@ -0,0 +1,123 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * A CSV export of LocationsImport: a header row naming the columns, then a row for each point, with the rows of a
+ * location together and in SequenceNo order as SELECT ... ORDER BY LocationName, SequenceNo gives them.
+ * The columns are found by name, in any order and ignoring case: LocationName, SequenceNo, latitude and longitude,
+ * and optionally SpeedLimit, IsSafe and AreaType. Any others, like id, are ignored.
+ * The rows go through a LocationAssembler, so a gap in the sequence numbers makes a bad record just as it does in
+ * LocationsImport. A field may be quoted with ", with a " inside it doubled, but may not span lines.
+ */
+class CsvLocationFile extends LocationFileSource {
+
+	CsvLocationFile(Path file, AreaType areaType, ImportMetrics metrics) {
+		super(file, areaType, metrics, "line");
+	}
+	@Override
+	void parse(InputStream in, LocationConsumer consumer) throws IOException, LocationRepositoryException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+		String header = reader.readLine();
+		if (header == null)
+			return;
+		if (!header.isEmpty() && header.charAt(0) == '\uFEFF') // A byte order mark
+			header = header.substring(1);
+		List<String> columns = split(header, new ArrayList<>());
+		int nameColumn = column(columns, "LocationName", true);
+		int sequenceColumn = column(columns, "SequenceNo", true);
+		int latitudeColumn = column(columns, "latitude", true);
+		int longitudeColumn = column(columns, "longitude", true);
+		int speedLimitColumn = column(columns, "SpeedLimit", false);
+		int isSafeColumn = column(columns, "IsSafe", false);
+		int areaTypeColumn = column(columns, "AreaType", false);
+		if (areaTypeColumn < 0 && areaType == null)
+			throw new IOException("There is no AreaType column to import every area type by, the header is "+header);
+		LocationAssembler assembler = new LocationAssembler(areaType, consumer, metrics);
+		List<String> fields = new ArrayList<>();
+		long lineNumber = 1;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.isEmpty())
+				continue;
+			split(line, fields);
+			if (fields.size() < columns.size()) {
+				skip(lineNumber, "it has "+fields.size()+" of the "+columns.size()+" columns");
+				continue;
+			}
+			AreaType rowAreaType = featureAreaType(lineNumber, areaTypeColumn < 0 ? null : fields.get(areaTypeColumn));
+			if (rowAreaType == null)
+				continue;
+			int sequenceNo;
+			BigDecimal latitude;
+			BigDecimal longitude;
+			BigDecimal speedLimit;
+			try {
+				sequenceNo = Integer.parseInt(fields.get(sequenceColumn).trim());
+				latitude = coordinate(new BigDecimal(fields.get(latitudeColumn).trim()));
+				longitude = coordinate(new BigDecimal(fields.get(longitudeColumn).trim()));
+				speedLimit = speedLimitColumn < 0 ? null : parseDecimal(fields.get(speedLimitColumn));
+			} catch (NumberFormatException ex) {
+				// The next row of the location is then out of sequence and makes it a bad record
+				skip(lineNumber, "it has a field that isn't a number : "+line);
+				continue;
+			} catch (ArithmeticException ex) {
+				skip(lineNumber, "it has a coordinate that "+ex.getMessage()+" : "+line);
+				continue;
+			}
+			boolean isSafe = isSafeColumn >= 0 && parseFlag(fields.get(isSafeColumn));
+			assembler.add(rowAreaType, lineNumber, fields.get(nameColumn), speedLimit, isSafe, sequenceNo, latitude, longitude);
+		}
+		assembler.finish();
+	}
+	private static int column(List<String> columns, String name, boolean required) throws IOException {
+		for (int i = 0; i < columns.size(); i++) {
+			if (columns.get(i).trim().equalsIgnoreCase(name))
+				return i;
+		}
+		if (required)
+			throw new IOException("There is no "+name+" column, the columns are "+columns);
+		return -1;
+	}
+	/**
+	 * Splits the line into fields, unquoting the quoted ones, reusing the list
+	 */
+	static List<String> split(String line, List<String> fields) {
+		fields.clear();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c != '"') {
+					field.append(c);
+				} else if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else {
+					quoted = false;
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
@@ -0,0 +1,206 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * The imported fleet_locations rows of one fleet, keyed by location_name, so that save() can decide between
+ * insert and update without going back to the database for every location.
+ * It is an open addressing hash table held in parallel arrays (name, loc_id, flags, hash, seen) rather than a HashMap
+ * of boxed entries, which keeps it to a few dozen bytes per location plus the names themselves.
+ * Names are matched ignoring case and trailing spaces, the same way the default MySQL collation compares them.
+ * 
+ * Once loaded the table is only read, apart from markSeen which sets the seen flag of a single slot,
+ * so the writer threads of a pipeline can share it.
+ */
+class ExistingLocations {
+	static Logger logger = Logger.getLogger(ExistingLocations.class.getSimpleName());
+	
+	static final long NOT_FOUND = -1;
+	static final int NO_SLOT = -1;
+	
+	private String[] names;
+	private long[] ids;
+	private byte[] flags;
+	private long[] hashes;
+	private boolean[] seen;
+	private int size;
+	
+	ExistingLocations(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		names = new String[capacity];
+		ids = new long[capacity];
+		flags = new byte[capacity];
+		hashes = new long[capacity];
+		seen = new boolean[capacity];
+	}
+	/**
+	 * The SELECT that load() reads. Without contentHash vigilPlusHash isn't read, every hash is then 0
+	 */
+	static String selectSql(boolean contentHash) {
+		return "SELECT loc_id, location_name, vigilPlusLocation, vigilPlusSpeedArea, vigilPlusKeepIn, vigilPlusNoGo, vigilPlusAreaCollection, "
+				+ (contentHash ? "vigilPlusHash" : "0")
+				+ " FROM fleet_locations "
+				+ " WHERE fleet = ? AND vigilPlusImported = 'Y'";
+	}
+	/**
+	 * Reads the imported locations of the fleet into memory using ps, which must have been prepared from selectSql
+	 * and is closed before returning. Prepare it for streaming so the rows are not all buffered by the driver first.
+	 * Returns null if the fleet has more than maxLocations of them, the caller should then look each one up in the database.
+	 */
+	static ExistingLocations load(PreparedStatement ps, long fleetId, int maxLocations) throws SQLException {
+		ResultSet rs = null;
+		try {
+			ps.setLong(1, fleetId);
+			rs = ps.executeQuery();
+			ExistingLocations existing = new ExistingLocations(0);
+			while (rs.next()) {
+				if (existing.size() >= maxLocations) {
+					logger.log(Level.INFO,"Fleet "+fleetId+" has more than "+maxLocations+" imported locations, they will be looked up one at a time");
+					return null;
+				}
+				int i = 1;
+				long locId = rs.getLong(i++);
+				String locationName = rs.getString(i++);
+				int mask = 0;
+				if ("Y".equals(rs.getString(i++)))
+					mask |= AreaType.Location.mask();
+				if ("Y".equals(rs.getString(i++)))
+					mask |= AreaType.SpeedArea.mask();
+				if ("Y".equals(rs.getString(i++)))
+					mask |= AreaType.KeepIn.mask();
+				if ("Y".equals(rs.getString(i++)))
+					mask |= AreaType.NoGo.mask();
+				if ("Y".equals(rs.getString(i++)))
+					mask |= AreaType.AreaCollection.mask();
+				long hash = rs.getLong(i++); // 0 if the row was written before the hash was stored
+				existing.put(locationName, locId, mask, hash);
+			}
+			logger.log(Level.INFO,"Loaded "+existing.size()+" imported locations for fleet "+fleetId);
+			return existing;
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	int size() {
+		return size;
+	}
+	/**
+	 * Adds a location. If the name is already present the first one is kept, like the SELECT in save() used to do.
+	 */
+	void put(String locationName, long locId, int mask, long hash) {
+		if ((size + 1) * 2 > names.length)
+			resize(names.length * 2);
+		String key = key(locationName);
+		int slot = slot(key);
+		if (names[slot] != null)
+			return;
+		names[slot] = key;
+		ids[slot] = locId;
+		flags[slot] = (byte) mask;
+		hashes[slot] = hash;
+		size++;
+	}
+	/**
+	 * Returns the loc_id of the location or NOT_FOUND
+	 */
+	long findId(String locationName) {
+		String key = key(locationName);
+		int slot = slot(key);
+		return names[slot] == null ? NOT_FOUND : ids[slot];
+	}
+	/**
+	 * Returns the slot holding the location, or NO_SLOT if it is not found
+	 */
+	int find(String locationName) {
+		int slot = slot(key(locationName));
+		return names[slot] == null ? NO_SLOT : slot;
+	}
+	long id(int slot) {
+		return ids[slot];
+	}
+	int flags(int slot) {
+		return flags[slot];
+	}
+	long hash(int slot) {
+		return hashes[slot];
+	}
+	/**
+	 * Records that the location is still being imported, the ones never marked are removed at the end of a delta import
+	 */
+	void markSeen(int slot) {
+		seen[slot] = true;
+	}
+	boolean isSeen(int slot) {
+		return seen[slot];
+	}
+	/**
+	 * Slots run from 0 to capacity()-1, only those that are inUse hold a location
+	 */
+	int capacity() {
+		return names.length;
+	}
+	boolean inUse(int slot) {
+		return names[slot] != null;
+	}
+	// Linear probing, the table is never more than half full so there is always an empty slot to stop at
+	private int slot(String key) {
+		int mask = names.length - 1;
+		int slot = spread(key.hashCode()) & mask;
+		while (names[slot] != null && !names[slot].equals(key))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+	private void resize(int capacity) {
+		String[] oldNames = names;
+		long[] oldIds = ids;
+		byte[] oldFlags = flags;
+		long[] oldHashes = hashes;
+		boolean[] oldSeen = seen;
+		names = new String[capacity];
+		ids = new long[capacity];
+		flags = new byte[capacity];
+		hashes = new long[capacity];
+		seen = new boolean[capacity];
+		for (int i = 0; i < oldNames.length; i++) {
+			if (oldNames[i] != null) {
+				int slot = slot(oldNames[i]);
+				names[slot] = oldNames[i];
+				ids[slot] = oldIds[i];
+				flags[slot] = oldFlags[i];
+				hashes[slot] = oldHashes[i];
+				seen[slot] = oldSeen[i];
+			}
+		}
+	}
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+	private static String key(String locationName) {
+		int end = locationName.length();
+		while (end > 0 && locationName.charAt(end - 1) == ' ')
+			end--;
+		return locationName.substring(0, end).toLowerCase(Locale.ROOT);
+	}
+}
@@ -0,0 +1,12 @@
+package au.com.ezy2c.dataimport.repository;
+
+/**
+ * An import that didn't start because another importer holds the FleetLock of the fleet. Nothing was changed.
+ */
+public class FleetBusyException extends LocationRepositoryException {
+	private static final long serialVersionUID = 4417092735580938231L;
+
+	public FleetBusyException(String msg, Exception ex) {
+		super(msg,ex);
+	}
+}
@@ -0,0 +1,121 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A MySQL GET_LOCK named after a fleet and the schema, held by an import for as long as it runs so that no two
+ * importers, on this node or any other, import the same fleet at once. Their delete() and save() would otherwise
+ * undo each other's work.
+ *
+ * A named lock belongs to the session that took it, so the lock keeps a connection of its own for the length of the
+ * import, and the server releases it if the importer dies and its connection is closed. Handing the connection back
+ * to the pool doesn't end the session, the lock is released first.
+ * Lock names are shared by every schema on the server, the schema is part of the name so two databases of locations
+ * on one server don't hold each other up. Names are at most 64 characters, long schema names are cut short.
+ */
+class FleetLock {
+	static Logger logger = Logger.getLogger(FleetLock.class.getSimpleName());
+
+	static final String NAME_SQL = "CONCAT('fleetImport.', ?, '.', LEFT(DATABASE(), 30))";
+
+	private final long fleetId;
+	private Connection connection;
+
+	private FleetLock(long fleetId, Connection connection) {
+		this.fleetId = fleetId;
+		this.connection = connection;
+	}
+	/**
+	 * Takes the lock of the fleet on the connection, waiting up to waitSeconds for another importer to release it.
+	 * Returns null, closing the connection, if the lock is held elsewhere. The connection is closed by release().
+	 */
+	static FleetLock acquire(Connection connection, long fleetId, int waitSeconds) throws SQLException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		boolean locked = false;
+		try {
+			ps = connection.prepareStatement("SELECT GET_LOCK("+NAME_SQL+", ?)");
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			ps.setInt(i++,Math.max(0, waitSeconds));
+			rs = ps.executeQuery();
+			// 1 if it was taken, 0 if it is held by another session, NULL on an error
+			locked = rs.next() && rs.getInt(1) == 1;
+			if (locked)
+				logger.log(Level.INFO,"Locked fleet "+fleetId+" for the import");
+			return locked ? new FleetLock(fleetId, connection) : null;
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+			if (!locked) {
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+			}
+		}
+	}
+	/**
+	 * Releases the lock and closes its connection. A lock that was lost part way through, say because the server closed
+	 * the idle connection, is logged, another importer may have imported the fleet at the same time.
+	 */
+	void release() {
+		if (connection == null)
+			return;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = connection.prepareStatement("SELECT RELEASE_LOCK("+NAME_SQL+")");
+			ps.setLong(1,fleetId);
+			rs = ps.executeQuery();
+			if (rs.next() && rs.getInt(1) == 1)
+				logger.log(Level.INFO,"Unlocked fleet "+fleetId);
+			else
+				logger.log(Level.WARNING,"The lock of fleet "+fleetId+" was lost before the import finished, another importer may have imported it at the same time");
+		} catch (SQLException ex) {
+			logger.log(Level.WARNING,"Unable to release the lock of fleet "+fleetId+", aborting its connection instead : SQLException "+ex.getMessage(),ex);
+			// A pooled connection put back still holding the lock would hold it until the pool retired it
+			try {
+				connection.abort(Runnable::run);
+			} catch (Throwable th) {
+			}
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+			try {
+				connection.close();
+			} catch (Throwable th) {
+			}
+			connection = null;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * A GeoJSON FeatureCollection, or a plain array of Features. The file is read token by token and only the feature
+ * being read is held as a tree. The properties name (or LocationName), AreaType, SpeedLimit and IsSafe are looked for
+ * ignoring case. A Polygon is the points of its outer ring, its holes are left out as fleet_locations has no room for
+ * them, a LineString is its points and a Point is a location of one point. Any other geometry is left out.
+ * The coordinates are read as exact decimals, so complexpoints has the digits the file has, except that the points of a
+ * location are all written with the most decimal places any of them has, trailing zeros added, and a coordinate with
+ * more than LocationFileSource.MAX_COORDINATE_SCALE is rounded to it.
+ */
+class GeoJsonLocationFile extends LocationFileSource {
+	// Exact decimals keep their trailing zeros
+	private static final ObjectMapper MAPPER = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS)
+			.setNodeFactory(JsonNodeFactory.withExactBigDecimals(true));
+
+	GeoJsonLocationFile(Path file, AreaType areaType, ImportMetrics metrics) {
+		super(file, areaType, metrics, "feature");
+	}
+	@Override
+	void parse(InputStream in, LocationConsumer consumer) throws IOException, LocationRepositoryException {
+		try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+			JsonToken token = parser.nextToken();
+			if (token == JsonToken.START_ARRAY) {
+				readFeatures(parser, consumer);
+			} else if (token == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String field = parser.getCurrentName();
+					if (parser.nextToken() == JsonToken.START_ARRAY && "features".equals(field))
+						readFeatures(parser, consumer);
+					else
+						parser.skipChildren();
+				}
+			} else {
+				throw new IOException("It doesn't start with a FeatureCollection or an array of features");
+			}
+		}
+	}
+	private void readFeatures(JsonParser parser, LocationConsumer consumer) throws IOException, LocationRepositoryException {
+		long number = 0;
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			number++;
+			if (token == null)
+				throw new IOException("It ends part way through feature "+number);
+			if (token != JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				skip(number, "it isn't an object");
+				continue;
+			}
+			JsonNode feature = MAPPER.readTree(parser);
+			readFeature(consumer, number, feature);
+		}
+	}
+	private void readFeature(LocationConsumer consumer, long number, JsonNode feature) throws LocationRepositoryException {
+		JsonNode properties = feature.path("properties");
+		String name = property(properties, "name");
+		if (name == null)
+			name = property(properties, "LocationName");
+		JsonNode geometry = feature.path("geometry");
+		String type = geometry.path("type").asText();
+		JsonNode coordinates = geometry.path("coordinates");
+		List<BigDecimal> latitudes = new ArrayList<>();
+		List<BigDecimal> longitudes = new ArrayList<>();
+		switch (type) {
+		case "Polygon":
+			coordinates = coordinates.path(0);
+			// fall through
+		case "LineString":
+			for (JsonNode position : coordinates) {
+				if (!addPosition(position, latitudes, longitudes)) {
+					skip(number, "location "+name+" has the position "+position);
+					return;
+				}
+			}
+			break;
+		case "Point":
+			if (!addPosition(coordinates, latitudes, longitudes)) {
+				skip(number, "location "+name+" has the position "+coordinates);
+				return;
+			}
+			break;
+		default:
+			skip(number, "location "+name+" has the geometry "+(type.isEmpty() ? "null" : type)+", only a Polygon, LineString or Point can be imported");
+			return;
+		}
+		BigDecimal speedLimit;
+		try {
+			speedLimit = parseDecimal(property(properties, "SpeedLimit"));
+		} catch (NumberFormatException ex) {
+			skip(number, "location "+name+" has the SpeedLimit "+property(properties, "SpeedLimit"));
+			return;
+		}
+		feature(consumer, number, name, property(properties, "AreaType"), speedLimit, parseFlag(property(properties, "IsSafe")), latitudes, longitudes);
+	}
+	/**
+	 * Adds a [longitude, latitude] position, returns false if it isn't one
+	 */
+	private static boolean addPosition(JsonNode position, List<BigDecimal> latitudes, List<BigDecimal> longitudes) {
+		if (position.size() < 2 || !position.get(0).isNumber() || !position.get(1).isNumber())
+			return false;
+		longitudes.add(position.get(0).decimalValue());
+		latitudes.add(position.get(1).decimalValue());
+		return true;
+	}
+	/**
+	 * The text of the property, whatever the case of its name, null if there is no such property
+	 */
+	private static String property(JsonNode properties, String name) {
+		for (Iterator<String> it = properties.fieldNames(); it.hasNext();) {
+			String field = it.next();
+			if (field.equalsIgnoreCase(name)) {
+				JsonNode value = properties.get(field);
+				return value.isNull() ? null : value.asText();
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,134 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the imported locations of a fleet that contain a position.
+ * findByCells looks up the cells of the geohash cover holding the position, one equality per geohash length on the
+ * primary key of fleet_location_cells. Only the locations whose cell is partly outside them have their complexpoints
+ * read and tested. findByBoundingBox is the old way, a range scan of the bounding boxes testing every polygon it finds.
+ *
+ * The statements are prepared once and reused for every lookup on the connection.
+ * A cell only counts while its location_hash matches the vigilPlusHash of the row, so the cells of a location that
+ * has been replaced or deleted are never used even before the import that did it removes them.
+ */
+class GeofenceLookup {
+	static final String CELLS_SQL = "SELECT c.location_name, c.full_cell, CASE WHEN c.full_cell = 'Y' THEN NULL ELSE l.complexpoints END "
+			+ " FROM fleet_location_cells c "
+			+ " JOIN fleet_locations l ON l.fleet = c.fleet AND l.location_name = c.location_name AND l.vigilPlusHash = c.location_hash "
+			+ " WHERE c.fleet = ? AND c.cell IN ("+placeholders(GeohashCover.MAX_PRECISION)+")";
+	static final String BOUNDING_BOX_SQL = "SELECT location_name, complexpoints FROM fleet_locations "
+			+ " WHERE fleet = ? AND vigilPlusImported = 'Y' "
+			+ " AND bottomright_lat <= ? AND topleft_lat >= ? AND topleft_long <= ? AND bottomright_long >= ?";
+
+	private final Connection connection;
+	private PreparedStatement byCells;
+	private PreparedStatement byBoundingBox;
+
+	GeofenceLookup(Connection connection) {
+		this.connection = connection;
+	}
+	/**
+	 * The names of the locations containing the position, using the geohash cover
+	 */
+	List<String> findByCells(long fleetId, double latitude, double longitude) throws SQLException {
+		if (byCells == null)
+			byCells = connection.prepareStatement(CELLS_SQL);
+		int i = 1;
+		byCells.setLong(i++,fleetId);
+		for (String cell : GeohashCover.prefixes(latitude, longitude))
+			byCells.setString(i++,cell);
+		List<String> names = new ArrayList<>();
+		ResultSet rs = null;
+		try {
+			rs = byCells.executeQuery();
+			while (rs.next()) {
+				if ("Y".equals(rs.getString(2)) || contains(rs.getString(3), latitude, longitude))
+					names.add(rs.getString(1));
+			}
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+		}
+		return names;
+	}
+	/**
+	 * The names of the locations containing the position, using the bounding boxes
+	 */
+	List<String> findByBoundingBox(long fleetId, double latitude, double longitude) throws SQLException {
+		if (byBoundingBox == null)
+			byBoundingBox = connection.prepareStatement(BOUNDING_BOX_SQL);
+		int i = 1;
+		byBoundingBox.setLong(i++,fleetId);
+		byBoundingBox.setDouble(i++,latitude);
+		byBoundingBox.setDouble(i++,latitude);
+		byBoundingBox.setDouble(i++,longitude);
+		byBoundingBox.setDouble(i++,longitude);
+		List<String> names = new ArrayList<>();
+		ResultSet rs = null;
+		try {
+			rs = byBoundingBox.executeQuery();
+			while (rs.next()) {
+				if (contains(rs.getString(2), latitude, longitude))
+					names.add(rs.getString(1));
+			}
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+		}
+		return names;
+	}
+	void close() {
+		if (byCells != null) {
+			try {
+				byCells.close();
+			} catch (Throwable th) {
+			}
+			byCells = null;
+		}
+		if (byBoundingBox != null) {
+			try {
+				byBoundingBox.close();
+			} catch (Throwable th) {
+			}
+			byBoundingBox = null;
+		}
+	}
+	private static boolean contains(String complexPoints, double latitude, double longitude) {
+		ComplexPoints points = ComplexPoints.parse(complexPoints);
+		int n = points.size();
+		if (n == 1)
+			return points.getLatitude(0) == latitude && points.getLongitude(0) == longitude;
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lats[i] = points.getLatitude(i);
+			lons[i] = points.getLongitude(i);
+		}
+		return GeohashCover.contains(lats, lons, n, latitude, longitude);
+	}
+	private static String placeholders(int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append("?");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,265 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Covers a polygon with geohash cells, so that the locations containing a position can be found by looking up the
+ * cells containing it (one per geohash length) instead of a range scan of the bounding boxes.
+ *
+ * The cover is built top down from the smallest cell holding the bounding box. A cell that no edge crosses is either
+ * wholly inside the polygon, a full cell whose positions need no further test, or wholly outside and dropped.
+ * A cell that an edge crosses is split into its 32 children, down to precision characters, unless that would make
+ * more than maxCells cells, in which case the cover stops at the level it has reached.
+ * The cells are of mixed lengths and never overlap.
+ *
+ * A single point location is covered by the cell of length precision holding it.
+ * Polygons that cross the antimeridian are not handled, none of the fleets are anywhere near it.
+ */
+class GeohashCover {
+	static final int MAX_PRECISION = 12;
+	private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+	// Edges are tested against cells grown by this many degrees, about a centimetre, so rounding can't make a cell
+	// that an edge runs along look full
+	private static final double EPSILON = 1e-7;
+
+	/**
+	 * A cell of the cover, full if it is wholly inside the polygon
+	 */
+	static class Cell {
+		final String geohash;
+		final boolean full;
+
+		Cell(String geohash, boolean full) {
+			this.geohash = geohash;
+			this.full = full;
+		}
+		@Override
+		public String toString() {
+			return geohash+(full ? " full" : " partial");
+		}
+	}
+
+	private final int precision;
+	private final int maxCells;
+
+	GeohashCover(int precision, int maxCells) {
+		this.precision = Math.max(1, Math.min(MAX_PRECISION, precision));
+		this.maxCells = Math.max(1, maxCells);
+	}
+	int getPrecision() {
+		return precision;
+	}
+	List<Cell> cover(Location location) {
+		int n = location.getNumberOfPoints();
+		double[] lats = new double[n];
+		double[] lons = new double[n];
+		for (int i = 0; i < n; i++) {
+			lats[i] = location.getLatitude(i);
+			lons[i] = location.getLongitude(i);
+		}
+		return cover(lats, lons, n);
+	}
+	/**
+	 * The cover of the ring of n points, closed back to the first point
+	 */
+	List<Cell> cover(double[] lats, double[] lons, int n) {
+		double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE, minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+		for (int i = 0; i < n; i++) {
+			minLat = Math.min(minLat, lats[i]);
+			maxLat = Math.max(maxLat, lats[i]);
+			minLon = Math.min(minLon, lons[i]);
+			maxLon = Math.max(maxLon, lons[i]);
+		}
+		String bottomLeft = encode(minLat, minLon, precision);
+		String topRight = encode(maxLat, maxLon, precision);
+		int common = 0;
+		while (common < precision && bottomLeft.charAt(common) == topRight.charAt(common))
+			common++;
+		List<String> start = new ArrayList<>();
+		if (common == 0) {
+			for (char c : BASE32)
+				start.add(String.valueOf(c));
+		} else {
+			start.add(bottomLeft.substring(0, common));
+		}
+		int[] allEdges = new int[n];
+		for (int i = 0; i < n; i++)
+			allEdges[i] = i;
+		Ring ring = new Ring(lats, lons, n);
+		List<Cell> cells = new ArrayList<>();
+		List<Partial> partials = new ArrayList<>();
+		for (String geohash : start)
+			classify(ring, geohash, allEdges, cells, partials);
+		int level = start.get(0).length();
+		while (!partials.isEmpty() && level < precision) {
+			List<Cell> full = new ArrayList<>();
+			List<Partial> children = new ArrayList<>();
+			for (Partial partial : partials) {
+				for (char c : BASE32)
+					classify(ring, partial.geohash + c, partial.edges, full, children);
+			}
+			if (cells.size() + full.size() + children.size() > maxCells)
+				break;
+			cells.addAll(full);
+			partials = children;
+			level++;
+		}
+		for (Partial partial : partials)
+			cells.add(new Cell(partial.geohash, false));
+		return cells;
+	}
+	/**
+	 * Adds the cell to full if it is wholly inside the ring, to partial with the edges crossing it if any do,
+	 * and to neither if it is wholly outside
+	 */
+	private static void classify(Ring ring, String geohash, int[] edges, List<Cell> full, List<Partial> partial) {
+		double[] bounds = bounds(geohash);
+		double minLat = bounds[0] - EPSILON, minLon = bounds[1] - EPSILON, maxLat = bounds[2] + EPSILON, maxLon = bounds[3] + EPSILON;
+		int[] crossing = new int[edges.length];
+		int count = 0;
+		for (int edge : edges) {
+			if (ring.edgeTouches(edge, minLat, minLon, maxLat, maxLon))
+				crossing[count++] = edge;
+		}
+		if (count > 0) {
+			int[] crossingEdges = new int[count];
+			System.arraycopy(crossing, 0, crossingEdges, 0, count);
+			partial.add(new Partial(geohash, crossingEdges));
+		} else if (contains(ring.lats, ring.lons, ring.n, (bounds[0] + bounds[2]) / 2, (bounds[1] + bounds[3]) / 2)) {
+			full.add(new Cell(geohash, true));
+		}
+	}
+	/**
+	 * Whether the point is inside the ring of n points, by counting the edges that a line east from it crosses
+	 */
+	static boolean contains(double[] lats, double[] lons, int n, double lat, double lon) {
+		boolean inside = false;
+		for (int i = 0, j = n - 1; i < n; j = i++) {
+			if ((lats[i] > lat) != (lats[j] > lat)
+					&& lon < (lons[j] - lons[i]) * (lat - lats[i]) / (lats[j] - lats[i]) + lons[i])
+				inside = !inside;
+		}
+		return inside;
+	}
+	/**
+	 * The geohash of the point, precision characters long
+	 */
+	static String encode(double lat, double lon, int precision) {
+		double minLat = -90, maxLat = 90, minLon = -180, maxLon = 180;
+		char[] geohash = new char[precision];
+		boolean even = true; // The bits alternate longitude then latitude
+		for (int c = 0; c < precision; c++) {
+			int value = 0;
+			for (int bit = 0; bit < 5; bit++) {
+				value <<= 1;
+				if (even) {
+					double mid = (minLon + maxLon) / 2;
+					if (lon >= mid) {
+						value |= 1;
+						minLon = mid;
+					} else {
+						maxLon = mid;
+					}
+				} else {
+					double mid = (minLat + maxLat) / 2;
+					if (lat >= mid) {
+						value |= 1;
+						minLat = mid;
+					} else {
+						maxLat = mid;
+					}
+				}
+				even = !even;
+			}
+			geohash[c] = BASE32[value];
+		}
+		return new String(geohash);
+	}
+	/**
+	 * The geohashes of the cells holding the point, one of each length from 1 to MAX_PRECISION, shortest first
+	 */
+	static List<String> prefixes(double lat, double lon) {
+		String geohash = encode(lat, lon, MAX_PRECISION);
+		List<String> prefixes = new ArrayList<>(MAX_PRECISION);
+		for (int length = 1; length <= MAX_PRECISION; length++)
+			prefixes.add(geohash.substring(0, length));
+		return prefixes;
+	}
+	/**
+	 * minLat, minLon, maxLat, maxLon of the cell
+	 */
+	static double[] bounds(String geohash) {
+		double minLat = -90, maxLat = 90, minLon = -180, maxLon = 180;
+		boolean even = true;
+		for (int c = 0; c < geohash.length(); c++) {
+			int value = indexOf(geohash.charAt(c));
+			for (int bit = 4; bit >= 0; bit--) {
+				boolean set = ((value >> bit) & 1) != 0;
+				if (even) {
+					double mid = (minLon + maxLon) / 2;
+					if (set)
+						minLon = mid;
+					else
+						maxLon = mid;
+				} else {
+					double mid = (minLat + maxLat) / 2;
+					if (set)
+						minLat = mid;
+					else
+						maxLat = mid;
+				}
+				even = !even;
+			}
+		}
+		return new double[] {minLat, minLon, maxLat, maxLon};
+	}
+	private static int indexOf(char c) {
+		for (int i = 0; i < BASE32.length; i++) {
+			if (BASE32[i] == c)
+				return i;
+		}
+		throw new IllegalArgumentException("Not a geohash character "+c);
+	}
+	/**
+	 * A cell that edges cross, with those edges, which are the only ones that can cross its children
+	 */
+	private static class Partial {
+		final String geohash;
+		final int[] edges;
+
+		Partial(String geohash, int[] edges) {
+			this.geohash = geohash;
+			this.edges = edges;
+		}
+	}
+	private static class Ring {
+		final double[] lats;
+		final double[] lons;
+		final int n;
+
+		Ring(double[] lats, double[] lons, int n) {
+			this.lats = lats;
+			this.lons = lons;
+			this.n = n;
+		}
+		/**
+		 * Whether edge i, from point i to the next, touches the rectangle
+		 */
+		boolean edgeTouches(int i, double minLat, double minLon, double maxLat, double maxLon) {
+			int j = i + 1 == n ? 0 : i + 1;
+			double lat1 = lats[i], lon1 = lons[i], lat2 = lats[j], lon2 = lons[j];
+			if (Math.max(lat1, lat2) < minLat || Math.min(lat1, lat2) > maxLat || Math.max(lon1, lon2) < minLon || Math.min(lon1, lon2) > maxLon)
+				return false;
+			// The boxes overlap, so the edge touches the rectangle unless every corner is on the same side of its line
+			int side = side(lat1, lon1, lat2, lon2, minLat, minLon);
+			return side != side(lat1, lon1, lat2, lon2, minLat, maxLon)
+					|| side != side(lat1, lon1, lat2, lon2, maxLat, minLon)
+					|| side != side(lat1, lon1, lat2, lon2, maxLat, maxLon)
+					|| side == 0;
+		}
+		private static int side(double lat1, double lon1, double lat2, double lon2, double lat, double lon) {
+			return (int) Math.signum((lon2 - lon1) * (lat - lat1) - (lat2 - lat1) * (lon - lon1));
+		}
+	}
+}
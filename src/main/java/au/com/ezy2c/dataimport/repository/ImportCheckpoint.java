@@ -0,0 +1,186 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * How far an import of one fleet and area type has got, saved to fleet_location_import_checkpoints so that an import
+ * that dies part way through carries on from there when it is run again instead of starting over.
+ *
+ * The reader numbers the locations as it reads them, in LocationName order. Each writer thread reports the locations
+ * it has written every time it commits, and the checkpoint is the last LocationName that has been committed along
+ * with every name before it. Writers only commit between locations, see LocationWriter.commitIfDue, so a location is
+ * either wholly committed or not at all.
+ *
+ * A rerun reads the LocationsImport rows from the checkpoint name on, the name itself included in case the collation
+ * holds other names equal to it. The locations committed after the checkpoint before the failure are read again and
+ * found in fleet_locations, they are written over or flagged rather than inserted again.
+ * The number of LocationsImport rows is saved with the checkpoint, a rerun with a different number starts over.
+ */
+class ImportCheckpoint {
+	static Logger logger = Logger.getLogger(ImportCheckpoint.class.getSimpleName());
+
+	static final String TABLE = "fleet_location_import_checkpoints";
+
+	private final long fleetId;
+	private final String importAreaType;
+	private final long importRows;
+	private final String resumeFrom;
+	// Only used by the reader thread
+	private long nextOrdinal;
+	// The rest is guarded by this
+	private final Map<Long, String> names = new HashMap<>();
+	private final TreeSet<Long> committedAhead = new TreeSet<>();
+	private long committedUpTo = -1;
+	private String committedName;
+	private String savedName;
+
+	private ImportCheckpoint(long fleetId, String importAreaType, long importRows, String resumeFrom) {
+		this.fleetId = fleetId;
+		this.importAreaType = importAreaType;
+		this.importRows = importRows;
+		this.resumeFrom = resumeFrom;
+		this.savedName = resumeFrom;
+	}
+	/**
+	 * Reads the checkpoint of an earlier run of the import, which is resumed if it was of the same number of LocationsImport rows.
+	 * A checkpoint that can't be resumed is deleted. Commits.
+	 */
+	static ImportCheckpoint start(Connection connection, long fleetId, AreaType areaType, long importRows) throws SQLException {
+		String importAreaType = LocationRepositoryImpl.describe(areaType);
+		String resumeFrom = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = connection.prepareStatement("SELECT location_name, import_rows FROM "+TABLE+" WHERE fleet = ? AND import_area_type = ?");
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			ps.setString(i++,importAreaType);
+			rs = ps.executeQuery();
+			if (rs.next()) {
+				String locationName = rs.getString(1);
+				long rows = rs.getLong(2);
+				if (rows == importRows) {
+					resumeFrom = locationName;
+					logger.log(Level.INFO,"Resuming the import of fleet "+fleetId+" areaType "+importAreaType+" from location "+locationName);
+				} else {
+					logger.log(Level.INFO,"Starting the import of fleet "+fleetId+" areaType "+importAreaType+" over, the checkpoint at location "
+							+locationName+" was of "+rows+" LocationsImport rows and there are now "+importRows);
+				}
+			}
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+		ImportCheckpoint checkpoint = new ImportCheckpoint(fleetId, importAreaType, importRows, resumeFrom);
+		if (resumeFrom == null)
+			checkpoint.delete(connection);
+		return checkpoint;
+	}
+	/**
+	 * True if an earlier run is being carried on with
+	 */
+	boolean isResuming() {
+		return resumeFrom != null;
+	}
+	/**
+	 * The LocationName to read from when resuming, null if starting from the beginning
+	 */
+	String getResumeFrom() {
+		return resumeFrom;
+	}
+	/**
+	 * Numbers the location, called by the reader for each location in the order they are read
+	 */
+	void read(Location location) {
+		location.ordinal = nextOrdinal++;
+		synchronized (this) {
+			names.put(location.ordinal, location.getLocationName());
+		}
+	}
+	/**
+	 * Records that the locations with these ordinals have been committed
+	 */
+	synchronized void committed(List<Long> ordinals) {
+		committedAhead.addAll(ordinals);
+		while (!committedAhead.isEmpty() && committedAhead.first() == committedUpTo + 1) {
+			committedAhead.pollFirst();
+			committedUpTo++;
+			committedName = names.remove(committedUpTo);
+		}
+	}
+	/**
+	 * Saves the checkpoint if it has moved on since it was last saved, and commits
+	 */
+	synchronized void save(Connection connection) throws SQLException {
+		if (committedName == null || committedName.equals(savedName))
+			return;
+		PreparedStatement ps = null;
+		try {
+			ps = connection.prepareStatement("INSERT INTO "+TABLE+"(fleet, import_area_type, location_name, import_rows, updated) VALUES (?, ?, ?, ?, NOW()) "
+					+ " ON DUPLICATE KEY UPDATE location_name = VALUES(location_name), import_rows = VALUES(import_rows), updated = VALUES(updated)");
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			ps.setString(i++,importAreaType);
+			ps.setString(i++,committedName);
+			ps.setLong(i++,importRows);
+			ps.executeUpdate();
+			connection.commit();
+			savedName = committedName;
+			if (logger.isLoggable(Level.FINE))
+				logger.log(Level.FINE,"Checkpoint of fleet "+fleetId+" areaType "+importAreaType+" at location "+committedName);
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	/**
+	 * Deletes the checkpoint once the import is complete, and commits
+	 */
+	void delete(Connection connection) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = connection.prepareStatement("DELETE FROM "+TABLE+" WHERE fleet = ? AND import_area_type = ?");
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			ps.setString(i++,importAreaType);
+			ps.executeUpdate();
+			connection.commit();
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+}
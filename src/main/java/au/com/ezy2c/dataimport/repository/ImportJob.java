@@ -0,0 +1,36 @@
+package au.com.ezy2c.dataimport.repository;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * An import requested through the fleet_location_import_jobs table, see LocationRepository.claimImportJobs
+ */
+public class ImportJob {
+	private final long id;
+	private final long fleetId;
+	private final AreaType areaType;
+	
+	/**
+	 * areaType is null to import every area type
+	 */
+	public ImportJob(long id, long fleetId, AreaType areaType) {
+		this.id = id;
+		this.fleetId = fleetId;
+		this.areaType = areaType;
+	}
+	public long getId() {
+		return id;
+	}
+	public long getFleetId() {
+		return fleetId;
+	}
+	/**
+	 * null to import every area type
+	 */
+	public AreaType getAreaType() {
+		return areaType;
+	}
+	public String toString() {
+		return "[ImportJob: id="+id+" fleetId="+fleetId+" areaType="+LocationRepositoryImpl.describe(areaType)+"]";
+	}
+}
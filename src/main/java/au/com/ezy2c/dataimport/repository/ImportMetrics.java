@@ -0,0 +1,260 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import au.com.ezy2c.dataimport.AreaType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * The counters and timers of one import, tagged with its areaType.
+ * Every meter is registered in the application's MeterRegistry, where they add up over every import the process runs,
+ * and in a registry of the run's own that writeReport() reads for the JSON run report. Only the run's registry tags them
+ * with the fleet as well, so the application's registry holds the same few meters however many fleets are imported.
+ * The throttle gauges only mean something while their import runs, they are tagged with the fleet in the application's
+ * registry too and removed from it by close().
+ * 
+ * Meters:
+ * locationImport.rows - LocationsImport rows read
+ * locationImport.locations - locations, tagged with the action taken: assembled, inserted, upserted (inserted or
+ *   written over the row of the name with one statement), updated (flagged as another area type),
+ *   replaced, flagRemoved, deleted or bad
+ * locationImport.read - time per location spent fetching its rows from the result set
+ * locationImport.assemble - time per location spent adding its rows to it
+ * locationImport.write - time per location spent by a writer, including any batch it caused to be sent
+ * locationImport.batch - time per executeBatch or bulk load statement
+ * locationImport.commit - time per commit
+ * locationImport.throttle.batchSize, locationImport.throttle.commitInterval, locationImport.throttle.writers,
+ *   locationImport.throttle.delay and locationImport.throttle.lag - gauges of where the WriteThrottle has got to, when there is one
+ * locationImport.throttle.decisions - times the WriteThrottle has slowed down or sped up, tagged with the direction, down or up
+ * 
+ * The meters are thread safe, the reader and every writer of the pipeline record to the same ImportMetrics.
+ */
+class ImportMetrics {
+	static Logger logger = Logger.getLogger(ImportMetrics.class.getSimpleName());
+	
+	static final String ROWS = "locationImport.rows";
+	static final String LOCATIONS = "locationImport.locations";
+	static final String READ = "locationImport.read";
+	static final String ASSEMBLE = "locationImport.assemble";
+	static final String WRITE = "locationImport.write";
+	static final String BATCH = "locationImport.batch";
+	static final String COMMIT = "locationImport.commit";
+	static final String THROTTLE_BATCH_SIZE = "locationImport.throttle.batchSize";
+	static final String THROTTLE_COMMIT_INTERVAL = "locationImport.throttle.commitInterval";
+	static final String THROTTLE_WRITERS = "locationImport.throttle.writers";
+	static final String THROTTLE_DELAY = "locationImport.throttle.delay";
+	static final String THROTTLE_LAG = "locationImport.throttle.lag";
+	static final String THROTTLE_DECISIONS = "locationImport.throttle.decisions";
+	static final String[] ACTIONS = {"assembled", "inserted", "upserted", "updated", "replaced", "flagRemoved", "deleted", "bad"};
+	static final String[] TIMERS = {READ, ASSEMBLE, WRITE, BATCH, COMMIT};
+	
+	private static final DateTimeFormatter REPORT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
+	
+	private final long fleetId;
+	private final AreaType areaType;
+	private final long startMillis = System.currentTimeMillis();
+	private final MeterRegistry registry;
+	private final SimpleMeterRegistry run = new SimpleMeterRegistry();
+	private final CompositeMeterRegistry meters = new CompositeMeterRegistry();
+	private final Tags tags;
+	// The throttle meters in the application's registry, removed by close()
+	private final List<Meter> runningMeters = new ArrayList<>();
+	private final Counter rows;
+	private final Counter assembled;
+	private final Counter inserted;
+	private final Counter upserted;
+	private final Counter updated;
+	private final Counter replaced;
+	private final Counter flagRemoved;
+	private final Counter deleted;
+	private final Counter bad;
+	private final Timer read;
+	private final Timer assemble;
+	private final Timer write;
+	private final Timer batch;
+	private final Timer commit;
+	private WriteThrottle throttle;
+	
+	ImportMetrics(MeterRegistry registry, long fleetId, AreaType areaType) {
+		this.fleetId = fleetId;
+		this.areaType = areaType;
+		this.registry = registry;
+		run.config().commonTags("fleet", Long.toString(fleetId));
+		meters.add(registry);
+		meters.add(run);
+		tags = Tags.of("areaType", LocationRepositoryImpl.describe(areaType));
+		rows = Counter.builder(ROWS).description("LocationsImport rows read").tags(tags).register(meters);
+		assembled = counter(meters, tags, "assembled");
+		inserted = counter(meters, tags, "inserted");
+		upserted = counter(meters, tags, "upserted");
+		updated = counter(meters, tags, "updated");
+		replaced = counter(meters, tags, "replaced");
+		flagRemoved = counter(meters, tags, "flagRemoved");
+		deleted = counter(meters, tags, "deleted");
+		bad = counter(meters, tags, "bad");
+		read = timer(meters, tags, READ, "Time per location spent fetching its rows");
+		assemble = timer(meters, tags, ASSEMBLE, "Time per location spent assembling its rows");
+		write = timer(meters, tags, WRITE, "Time per location spent writing it");
+		batch = timer(meters, tags, BATCH, "Time per batch sent to the database");
+		commit = timer(meters, tags, COMMIT, "Time per commit");
+	}
+	/**
+	 * Metrics that are not exported anywhere, for writers used outside an import
+	 */
+	static ImportMetrics unregistered(long fleetId, AreaType areaType) {
+		return new ImportMetrics(new SimpleMeterRegistry(), fleetId, areaType);
+	}
+	private static Counter counter(MeterRegistry meters, Tags tags, String action) {
+		return Counter.builder(LOCATIONS).description("Locations by the action taken").tags(tags).tag("action", action).register(meters);
+	}
+	private static Timer timer(MeterRegistry meters, Tags tags, String name, String description) {
+		return Timer.builder(name).description(description).tags(tags).publishPercentiles(0.5, 0.95, 0.99).publishPercentileHistogram().register(meters);
+	}
+	/**
+	 * Registers the gauges and counters of the import's WriteThrottle, so its decisions can be followed as the import runs
+	 */
+	void throttle(WriteThrottle throttle) {
+		this.throttle = throttle;
+		Tags fleetTags = tags.and("fleet", Long.toString(fleetId));
+		throttleMeter(r -> Gauge.builder(THROTTLE_BATCH_SIZE, throttle, WriteThrottle::batchSize).description("Statements a writer sends in one batch").tags(fleetTags).register(r));
+		throttleMeter(r -> Gauge.builder(THROTTLE_COMMIT_INTERVAL, throttle, WriteThrottle::commitInterval).description("Rows a writer writes between commits").tags(fleetTags).register(r));
+		throttleMeter(r -> Gauge.builder(THROTTLE_WRITERS, throttle, WriteThrottle::writers).description("Writers allowed to write at once").tags(fleetTags).register(r));
+		throttleMeter(r -> Gauge.builder(THROTTLE_DELAY, throttle, WriteThrottle::delayMillis).description("Time each writer waits before each location").baseUnit("milliseconds").tags(fleetTags).register(r));
+		throttleMeter(r -> Gauge.builder(THROTTLE_LAG, throttle, WriteThrottle::lagSeconds).description("Replication lag last read, negative if it isn't known").baseUnit("seconds").tags(fleetTags).register(r));
+		throttleMeter(r -> FunctionCounter.builder(THROTTLE_DECISIONS, throttle, WriteThrottle::decreases).description("Times the throttle slowed down or sped up").tags(fleetTags).tag("direction", "down").register(r));
+		throttleMeter(r -> FunctionCounter.builder(THROTTLE_DECISIONS, throttle, WriteThrottle::increases).description("Times the throttle slowed down or sped up").tags(fleetTags).tag("direction", "up").register(r));
+	}
+	private void throttleMeter(Function<MeterRegistry,Meter> register) {
+		register.apply(run);
+		runningMeters.add(register.apply(registry));
+	}
+	/**
+	 * Removes the meters that are tagged with the fleet from the application's registry, once the import has finished
+	 */
+	void close() {
+		for (Meter meter : runningMeters)
+			registry.remove(meter);
+		runningMeters.clear();
+	}
+	void locationAssembled(long rowCount, long readNanos, long assembleNanos) {
+		rows.increment(rowCount);
+		assembled.increment();
+		read.record(readNanos, TimeUnit.NANOSECONDS);
+		assemble.record(assembleNanos, TimeUnit.NANOSECONDS);
+	}
+	void written(long nanos) {
+		write.record(nanos, TimeUnit.NANOSECONDS);
+	}
+	void batchExecuted(long nanos) {
+		batch.record(nanos, TimeUnit.NANOSECONDS);
+	}
+	void committed(long nanos) {
+		commit.record(nanos, TimeUnit.NANOSECONDS);
+	}
+	void inserted(long count) {
+		inserted.increment(count);
+	}
+	void upserted(long count) {
+		upserted.increment(count);
+	}
+	void updated(long count) {
+		updated.increment(count);
+	}
+	void replaced(long count) {
+		replaced.increment(count);
+	}
+	void flagRemoved(long count) {
+		flagRemoved.increment(count);
+	}
+	void deleted(long count) {
+		deleted.increment(count);
+	}
+	void bad() {
+		bad.increment();
+	}
+	/**
+	 * The run report: the fleet, areaType, times, outcome and the value of every meter for this run alone
+	 */
+	Map<String,Object> report(Throwable failure) {
+		long endMillis = System.currentTimeMillis();
+		Map<String,Object> report = new LinkedHashMap<>();
+		report.put("fleetId", fleetId);
+		report.put("areaType", LocationRepositoryImpl.describe(areaType));
+		report.put("started", Instant.ofEpochMilli(startMillis).toString());
+		report.put("finished", Instant.ofEpochMilli(endMillis).toString());
+		report.put("durationMillis", endMillis - startMillis);
+		report.put("succeeded", failure == null);
+		if (failure != null)
+			report.put("failure", failure.getMessage());
+		report.put("rows", (long) run.get(ROWS).counter().count());
+		Map<String,Object> locations = new LinkedHashMap<>();
+		for (String action : ACTIONS)
+			locations.put(action, (long) run.get(LOCATIONS).tag("action", action).counter().count());
+		report.put("locations", locations);
+		Map<String,Object> timers = new LinkedHashMap<>();
+		for (String name : TIMERS) {
+			Timer timer = run.get(name).timer();
+			Map<String,Object> values = new LinkedHashMap<>();
+			values.put("count", timer.count());
+			values.put("totalMillis", timer.totalTime(TimeUnit.MILLISECONDS));
+			values.put("meanMillis", timer.mean(TimeUnit.MILLISECONDS));
+			values.put("maxMillis", timer.max(TimeUnit.MILLISECONDS));
+			for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues())
+				values.put("p"+Math.round(percentile.percentile() * 100)+"Millis", percentile.value(TimeUnit.MILLISECONDS));
+			timers.put(name.substring(name.indexOf('.') + 1), values);
+		}
+		report.put("timers", timers);
+		if (throttle != null) {
+			Map<String,Object> values = new LinkedHashMap<>();
+			values.put("batchSize", throttle.batchSize());
+			values.put("commitInterval", throttle.commitInterval());
+			values.put("writers", throttle.writers());
+			values.put("delayMillis", throttle.delayMillis());
+			values.put("lagSeconds", throttle.lagSeconds());
+			values.put("slowedDown", throttle.decreases());
+			values.put("spedUp", throttle.increases());
+			report.put("throttle", values);
+		}
+		return report;
+	}
+	/**
+	 * Writes the run report as JSON to a file in directory named after the fleet, areaType and start time.
+	 * A report that can't be written is logged rather than failing the import.
+	 */
+	void writeReport(String directory, Throwable failure) {
+		Path file = Paths.get(directory, "import-"+fleetId+"-"+LocationRepositoryImpl.describe(areaType)+"-"+REPORT_TIME.format(Instant.ofEpochMilli(startMillis))+".json");
+		try {
+			Files.createDirectories(file.getParent());
+			new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), report(failure));
+			logger.log(Level.INFO,"Wrote the import report "+file);
+		} catch (IOException ex) {
+			logger.log(Level.WARNING,"Unable to write the import report "+file+" : IOException "+ex.getMessage(),ex);
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tuning knobs for the location import.
+ * Every setting has a default so the config server only needs to hold the ones that differ.
+ * The fields are initialised to the same defaults so that an instance created outside Spring behaves the same way.
+ */
+@Component
+public class ImportSettings {
+	static final String READ_MODE_STREAM = "stream";
+	static final String READ_MODE_CURSOR = "cursor";
+	static final String READ_MODE_BUFFERED = "buffered";
+	static final String ENGINE_JAVA = "java";
+	static final String ENGINE_SQL = "sql";
+	
+	// Number of INSERTs or UPDATEs sent to the database in one executeBatch
+	@Value("${locationImport.batchSize:500}")
+	int batchSize = 500;
+	// Number of rows written between commits. Commits are made between locations, so a location is never half committed.
+	@Value("${locationImport.commitInterval:5000}")
+	int commitInterval = 5000;
+	// Let Connector/J rewrite a batch of INSERTs into multi-row INSERTs
+	@Value("${locationImport.rewriteBatchedStatements:true}")
+	boolean rewriteBatchedStatements = true;
+	// Largest number of existing imported locations of a fleet held in memory, above it save() looks each one up
+	@Value("${locationImport.preloadMaxLocations:1000000}")
+	int preloadMaxLocations = 1000000;
+	// How the LocationsImport rows are fetched, one of stream, cursor or buffered. See LocationRepositoryImpl.prepareStreaming
+	@Value("${locationImport.readMode:stream}")
+	String readMode = READ_MODE_STREAM;
+	// Rows fetched per round trip in cursor mode
+	@Value("${locationImport.fetchSize:1000}")
+	int fetchSize = 1000;
+	// Read the LocationsImport rows without ORDER BY and group them by LocationName in memory, spilling to files. See LocationGrouper
+	@Value("${locationImport.unorderedRead:false}")
+	boolean unorderedRead = false;
+	// Heap the rows being grouped may take before they are spilled, in megabytes
+	@Value("${locationImport.groupingMemoryMegabytes:256}")
+	int groupingMemoryMegabytes = 256;
+	// Directory the grouped rows are spilled to, empty for java.io.tmpdir
+	@Value("${locationImport.spillDirectory:}")
+	String spillDirectory = "";
+	// Connections the pool keeps open while no import is using them, so the resident service starts each job on a warm connection
+	@Value("${locationImport.poolMinimumIdle:0}")
+	int poolMinimumIdle = 0;
+	// Prepared statements Connector/J keeps parsed per connection, cachePrepStmts is added to the url when it is above 0. 0 caches none
+	@Value("${locationImport.prepStmtCacheSize:0}")
+	int prepStmtCacheSize = 0;
+	// Longest SQL that is cached, the import's upserts and set based statements are a few thousand characters
+	@Value("${locationImport.prepStmtCacheSqlLimit:8192}")
+	int prepStmtCacheSqlLimit = 8192;
+	// Number of threads writing fleet_locations, each with a connection of its own
+	@Value("${locationImport.writerThreads:1}")
+	int writerThreads = 1;
+	// Number of completed locations the reader may get ahead of the writers
+	@Value("${locationImport.queueCapacity:100}")
+	int queueCapacity = 100;
+	// Adjust the batch size, the commit interval and the number of writers writing at once as the import runs, to hold the
+	// time of each batch and commit near throttleTargetMillis and the replication lag under throttleMaxLagSeconds. See WriteThrottle
+	@Value("${locationImport.throttle:false}")
+	boolean throttle = false;
+	// The batch and commit time the throttle aims for
+	@Value("${locationImport.throttleTargetMillis:250}")
+	long throttleTargetMillis = 250;
+	// Smallest batch size the throttle goes down to before it takes away writers
+	@Value("${locationImport.throttleMinBatchSize:20}")
+	int throttleMinBatchSize = 20;
+	// Largest batch size the throttle goes up to
+	@Value("${locationImport.throttleMaxBatchSize:2000}")
+	int throttleMaxBatchSize = 2000;
+	// A query whose first column is the replication lag in seconds, run by a writer just after it commits, e.g.
+	// SELECT TIMESTAMPDIFF(SECOND, MAX(ts), UTC_TIMESTAMP()) FROM heartbeat.heartbeat for pt-heartbeat. Empty for none
+	@Value("${locationImport.throttleLagSql:}")
+	String throttleLagSql = "";
+	// Replication lag above which the throttle slows the import down whatever the batch times are
+	@Value("${locationImport.throttleMaxLagSeconds:5}")
+	double throttleMaxLagSeconds = 5;
+	// Time between runs of throttleLagSql
+	@Value("${locationImport.throttleLagCheckMillis:5000}")
+	long throttleLagCheckMillis = 5000;
+	// Most connections held by the pool shared by every import of this process.
+	// Each fleet being imported uses writerThreads+1 of them, and one more for its lock with fleetLock.
+	@Value("${locationImport.poolSize:10}")
+	int poolSize = 10;
+	// What assembles the locations, java or sql. sql groups the rows and writes the locations on the server, leaving only
+	// the ones it can't be sure of to java. It needs validate=false and a plain text import, otherwise java is used. See SqlImport
+	@Value("${locationImport.engine:java}")
+	String engine = ENGINE_JAVA;
+	// Only write the locations that are new or whose content hash has changed instead of deleting and inserting them all.
+	// Needs the vigilPlusHash column, see sql/fleet_locations_vigilPlusHash.sql
+	@Value("${locationImport.deltaImport:false}")
+	boolean deltaImport = false;
+	// Write each location with a single INSERT ... ON DUPLICATE KEY UPDATE instead of looking for a row of its name first.
+	// Used by the imports that aren't delta, staged or bulk. Needs the unique key, see sql/fleet_locations_unique_name.sql,
+	// and the vigilPlusHash column
+	@Value("${locationImport.upsert:false}")
+	boolean upsert = false;
+	// Check the geometry of each location before it is saved, the invalid ones are marked as bad records. See PolygonValidator
+	@Value("${locationImport.validate:false}")
+	boolean validate = false;
+	// Write the locations to the staging table fleet_locations_import and publish them to fleet_locations in one short
+	// transaction at the end, so readers never see a half imported fleet. Takes the place of deltaImport and bulkLoadThreshold.
+	// Needs the table, see sql/fleet_locations_import.sql and StagedImport, and the vigilPlusHash column
+	@Value("${locationImport.stagedImport:false}")
+	boolean stagedImport = false;
+	// Save a checkpoint after each commit so that an import that fails part way through carries on from it when it is run again.
+	// Not used by delta imports or bulk loads. Needs the table, see sql/fleet_location_import_checkpoints.sql and ImportCheckpoint
+	@Value("${locationImport.checkpoint:false}")
+	boolean checkpoint = false;
+	// Remove duplicate points and simplify each polygon before it is saved, see PolygonSimplifier
+	@Value("${locationImport.simplify:false}")
+	boolean simplify = false;
+	// How far in metres a point may be from the simplified outline
+	@Value("${locationImport.simplifyToleranceMetres:1.0}")
+	double simplifyToleranceMetres = 1.0;
+	// How complexpoints is written, text or polyline. See ComplexPoints, which reads either.
+	@Value("${locationImport.complexPointsFormat:text}")
+	String complexPointsFormat = ComplexPoints.FORMAT_TEXT;
+	// Number of LocationsImport rows at or above which a full import is written with LOAD DATA LOCAL INFILE, 0 never does.
+	// Needs local_infile=ON on the server, allowLoadLocalInfile=true is added to the url. See LocationBulkWriter
+	@Value("${locationImport.bulkLoadThreshold:0}")
+	long bulkLoadThreshold = 0;
+	// Length of the smallest geohash cells of the cover of each location written to fleet_location_cells, 0 writes no cover.
+	// Needs the table, see sql/fleet_location_cells.sql and GeohashCover, and the vigilPlusHash column
+	@Value("${locationImport.coverPrecision:0}")
+	int coverPrecision = 0;
+	// Most cells in the cover of one location, a large polygon is covered with larger cells
+	@Value("${locationImport.coverMaxCells:64}")
+	int coverMaxCells = 64;
+	// Hold a MySQL GET_LOCK named after the fleet for the length of each import, so that two importers never import
+	// one fleet at once, on this node or another, e.g. a command line import of a fleet the job service is importing.
+	// Takes a connection of its own for each import. See FleetLock
+	@Value("${locationImport.fleetLock:false}")
+	boolean fleetLock = false;
+	// How long an import waits for another importer's import of the fleet to finish before it gives up
+	@Value("${locationImport.fleetLockWaitSeconds:0}")
+	int fleetLockWaitSeconds = 0;
+	// Name of this importer in fleet_location_import_jobs.claimed_by, empty for the host name and process id
+	@Value("${locationImport.instanceName:}")
+	String instanceName = "";
+	// How long a job claimed by the service is its own. The service renews the lease every third of it while the job runs,
+	// a job whose lease runs out, because the service that claimed it died, is claimed by another
+	@Value("${locationImport.leaseSeconds:60}")
+	int leaseSeconds = 60;
+	// Directory the JSON report of each import is written to, empty for none. See ImportMetrics
+	@Value("${locationImport.reportDirectory:}")
+	String reportDirectory = "";
+	
+	boolean polylineComplexPoints() {
+		return ComplexPoints.FORMAT_POLYLINE.equalsIgnoreCase(complexPointsFormat);
+	}
+	/**
+	 * Whether the imports write and read fleet_locations.vigilPlusHash. Only the modes that compare it need the column:
+	 * delta, staged and upsert imports, and the geohash cover, whose cells are tagged with it.
+	 * See sql/fleet_locations_vigilPlusHash.sql
+	 */
+	boolean contentHash() {
+		return deltaImport || stagedImport || upsert || coverPrecision > 0;
+	}
+	/**
+	 * The number of fleets that can be imported at the same time without waiting on the pool for a connection
+	 */
+	public int fleetsSupportedByPool() {
+		return Math.max(1, poolSize / (writerThreads + (fleetLock ? 2 : 1)));
+	}
+	/**
+	 * The name this importer claims jobs under, instanceName or else the host name and process id
+	 */
+	public String instanceName() {
+		if (instanceName != null && !instanceName.isEmpty())
+			return instanceName;
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (UnknownHostException ex) {
+			host = "localhost";
+		}
+		return host+":"+ProcessHandle.current().pid();
+	}
+	/**
+	 * Seconds a claimed job's lease lasts
+	 */
+	public int leaseSeconds() {
+		return Math.max(3, leaseSeconds);
+	}
+}
@@ -0,0 +1,128 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * A KML document, read with a StAX parser one element at a time, with a location for each Placemark.
+ * Its name is the Placemark's name, and AreaType, SpeedLimit and IsSafe come from its ExtendedData, either Data or
+ * SimpleData, ignoring the case of their names. The points are those of its Polygon's outer boundary, its LineString
+ * or its Point. A Polygon's inner boundaries are left out as fleet_locations has no room for them, and a Placemark with
+ * more than one geometry is left out.
+ * DTDs and external entities are not read.
+ */
+class KmlLocationFile extends LocationFileSource {
+
+	KmlLocationFile(Path file, AreaType areaType, ImportMetrics metrics) {
+		super(file, areaType, metrics, "feature");
+	}
+	@Override
+	void parse(InputStream in, LocationConsumer consumer) throws IOException, LocationRepositoryException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		XMLStreamReader reader = null;
+		try {
+			reader = factory.createXMLStreamReader(in);
+			long number = 0;
+			// The Placemark being read, null outside of one
+			Map<String, String> data = null;
+			String name = null;
+			String coordinates = null;
+			int geometries = 0;
+			boolean innerBoundary = false;
+			String dataName = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String element = reader.getLocalName();
+					if (element.equals("Placemark")) {
+						number++;
+						data = new HashMap<>();
+						name = null;
+						coordinates = null;
+						geometries = 0;
+					} else if (data == null) {
+						continue;
+					} else if (element.equals("name") && name == null) {
+						name = reader.getElementText().trim();
+					} else if (element.equals("Data")) {
+						dataName = reader.getAttributeValue(null, "name");
+					} else if (element.equals("value") && dataName != null) {
+						data.put(dataName.toLowerCase(Locale.ROOT), reader.getElementText().trim());
+					} else if (element.equals("SimpleData") && reader.getAttributeValue(null, "name") != null) {
+						data.put(reader.getAttributeValue(null, "name").toLowerCase(Locale.ROOT), reader.getElementText().trim());
+					} else if (element.equals("innerBoundaryIs")) {
+						innerBoundary = true;
+					} else if (element.equals("coordinates") && !innerBoundary) {
+						if (geometries++ == 0)
+							coordinates = reader.getElementText();
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					String element = reader.getLocalName();
+					if (element.equals("innerBoundaryIs")) {
+						innerBoundary = false;
+					} else if (element.equals("Data")) {
+						dataName = null;
+					} else if (element.equals("Placemark") && data != null) {
+						placemark(consumer, number, name, data, coordinates, geometries);
+						data = null;
+					}
+				}
+			}
+		} catch (XMLStreamException ex) {
+			throw new IOException(ex.getMessage(), ex);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (Throwable th) {
+				}
+				reader = null;
+			}
+		}
+	}
+	private void placemark(LocationConsumer consumer, long number, String name, Map<String, String> data, String coordinates, int geometries) throws LocationRepositoryException {
+		if (geometries > 1) {
+			skip(number, "location "+name+" has "+geometries+" geometries");
+			return;
+		}
+		List<BigDecimal> latitudes = new ArrayList<>();
+		List<BigDecimal> longitudes = new ArrayList<>();
+		BigDecimal speedLimit;
+		try {
+			if (coordinates != null) {
+				for (String tuple : coordinates.trim().split("\\s+")) {
+					if (tuple.isEmpty())
+						continue;
+					String[] values = tuple.split(",");
+					if (values.length < 2) {
+						skip(number, "location "+name+" has the coordinates "+tuple);
+						return;
+					}
+					longitudes.add(new BigDecimal(values[0]));
+					latitudes.add(new BigDecimal(values[1]));
+				}
+			}
+			speedLimit = parseDecimal(data.get("speedlimit"));
+		} catch (NumberFormatException ex) {
+			skip(number, "location "+name+" has a coordinate or SpeedLimit that isn't a number");
+			return;
+		}
+		feature(consumer, number, name, data.get("areatype"), speedLimit, parseFlag(data.get("issafe")), latitudes, longitudes);
+	}
+}
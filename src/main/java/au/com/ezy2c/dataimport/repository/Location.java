@@ -1,7 +1,11 @@
 package au.com.ezy2c.dataimport.repository;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import au.com.ezy2c.dataimport.AreaType;
@@ -29,21 +33,42 @@ class LatLong {
 public class Location {
 	long id;
 	AreaType areaType;
+	int areaTypes; // mask of every area type the location belongs to, see AreaType.mask()
 	String locationName;
 	BigDecimal speedLimit;
 	boolean isSafe;
 	int sequenceNo;
-	List<LatLong> latLongs;
+	// The points as fixed point numbers, latitude i is latitudes[i] / 10^latitudeScale.
+	// Every latitude has the same scale, as does every longitude, so the text written to complexpoints
+	// is exactly what BigDecimal.toString() gives for the values read from LocationsImport.
+	long[] latitudes;
+	long[] longitudes;
+	int latitudeScale;
+	int longitudeScale;
+	int numberOfPoints;
+	// The bounding box, kept up to date as points are added
+	long maxLatitude;
+	long minLatitude;
+	long minLongitude;
+	long maxLongitude;
 	boolean badRecord;
 	String badRecordReason;
+	// The order the location was read in, see ImportCheckpoint
+	long ordinal;
+	// Where in a file the location was read from, see LocationFileSource. null for a location read from LocationsImport
+	String source;
 
 	public Location(long id, AreaType areaType, String locationName, int sequenceNo, BigDecimal speedLimit, boolean isSafe, BigDecimal latitude, BigDecimal longitude) {
 		this.id = id;
 		this.areaType = areaType;
+		this.areaTypes = areaType == null ? 0 : areaType.mask();
 		this.locationName = locationName;
 		this.speedLimit = speedLimit;
 		this.isSafe = isSafe;
-		this.latLongs = new ArrayList<>();
+		this.latitudes = new long[INITIAL_POINTS];
+		this.longitudes = new long[INITIAL_POINTS];
+		this.latitudeScale = latitude.scale();
+		this.longitudeScale = longitude.scale();
 		add(sequenceNo,latitude,longitude);
 		this.badRecord = false;
 		this.badRecordReason = null;
@@ -53,11 +78,70 @@ public class Location {
 	}
 	public void add(int sequenceNo, BigDecimal latitude, BigDecimal longitude) {
 		this.sequenceNo = sequenceNo;
-		latLongs.add(new LatLong(latitude,longitude));
+		if (latitude.scale() > latitudeScale)
+			rescaleLatitudes(latitude.scale());
+		if (longitude.scale() > longitudeScale)
+			rescaleLongitudes(longitude.scale());
+		add(latitude.setScale(latitudeScale).unscaledValue().longValueExact(), longitude.setScale(longitudeScale).unscaledValue().longValueExact());
+	}
+	/**
+	 * Adds a point already scaled to latitudeScale and longitudeScale, updating the bounding box
+	 */
+	private void add(long latitude, long longitude) {
+		if (numberOfPoints == latitudes.length) {
+			latitudes = Arrays.copyOf(latitudes, numberOfPoints * 2);
+			longitudes = Arrays.copyOf(longitudes, numberOfPoints * 2);
+		}
+		latitudes[numberOfPoints] = latitude;
+		longitudes[numberOfPoints] = longitude;
+		if (numberOfPoints == 0) {
+			maxLatitude = minLatitude = latitude;
+			minLongitude = maxLongitude = longitude;
+		} else {
+			if (maxLatitude < latitude) 
+				maxLatitude = latitude;
+			if (minLatitude > latitude) 
+				minLatitude = latitude;
+			if (minLongitude > longitude) 
+				minLongitude = longitude;
+			if (maxLongitude < longitude) 
+				maxLongitude = longitude;
+		}
+		numberOfPoints++;
+	}
+	// A point with more decimal places than the ones before it, which can't come from a DECIMAL column
+	private void rescaleLatitudes(int scale) {
+		long factor = POWERS_OF_TEN[scale - latitudeScale];
+		for (int i = 0; i < numberOfPoints; i++)
+			latitudes[i] = Math.multiplyExact(latitudes[i], factor);
+		maxLatitude = Math.multiplyExact(maxLatitude, factor);
+		minLatitude = Math.multiplyExact(minLatitude, factor);
+		latitudeScale = scale;
+	}
+	private void rescaleLongitudes(int scale) {
+		long factor = POWERS_OF_TEN[scale - longitudeScale];
+		for (int i = 0; i < numberOfPoints; i++)
+			longitudes[i] = Math.multiplyExact(longitudes[i], factor);
+		minLongitude = Math.multiplyExact(minLongitude, factor);
+		maxLongitude = Math.multiplyExact(maxLongitude, factor);
+		longitudeScale = scale;
 	}
 	public boolean isNextInSequence(int sequenceNo) {
 		return sequenceNo == this.sequenceNo+1;
 	}
+	/**
+	 * Records that the location also belongs to another area type.
+	 * The points, and so the corridor flag, remain those of the area type it was created with.
+	 */
+	public void addAreaType(AreaType otherAreaType) {
+		this.areaTypes |= otherAreaType.mask();
+	}
+	public boolean hasAreaType(AreaType otherAreaType) {
+		return (areaTypes & otherAreaType.mask()) != 0;
+	}
+	public AreaType getAreaType() {
+		return areaType;
+	}
 	public void markAsBad(String reason) {
 		this.badRecord = true;
 		this.badRecordReason = reason;
@@ -91,24 +175,21 @@ public class Location {
 	public static int BOTTOM_RIGHT = 1;
 	public static int CENTRE = 2;
 	private static BigDecimal TWO = new BigDecimal("2.0000000");
+	private static final int INITIAL_POINTS = 16;
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1] * 10;
+	}
 	/**
 	 * Returns topLeft, bottomRight, centre 
-	 * The latLongs must not be null!
+	 * The corners come from the bounding box kept as the points were added.
 	 * @return
 	 */
 	public List<LatLong> findCornersAndCentre() {
-		LatLong topLeft = new LatLong(null,null);
-		LatLong bottomRight = new LatLong(null,null);
-		for (LatLong latLong : latLongs) {
-			if (topLeft.latitude == null || topLeft.latitude.doubleValue() < latLong.latitude.doubleValue()) 
-				topLeft.latitude = latLong.latitude;
-			if (bottomRight.latitude == null || bottomRight.latitude.doubleValue() > latLong.latitude.doubleValue()) 
-				bottomRight.latitude = latLong.latitude;
-			if (topLeft.longitude == null || topLeft.longitude.doubleValue() > latLong.longitude.doubleValue()) 
-				topLeft.longitude = latLong.longitude;
-			if (bottomRight.longitude == null || bottomRight.longitude.doubleValue() < latLong.longitude.doubleValue()) 
-				bottomRight.longitude = latLong.longitude;
-		}
+		LatLong topLeft = new LatLong(BigDecimal.valueOf(maxLatitude, latitudeScale),BigDecimal.valueOf(minLongitude, longitudeScale));
+		LatLong bottomRight = new LatLong(BigDecimal.valueOf(minLatitude, latitudeScale),BigDecimal.valueOf(maxLongitude, longitudeScale));
 		List<LatLong> cornersAndCentre = new ArrayList<>();
 		cornersAndCentre.add(topLeft);
 		cornersAndCentre.add(bottomRight);
@@ -120,21 +201,123 @@ public class Location {
 		return id;
 	}
 	public String getComplexPoints() {
-		StringBuilder sb = new StringBuilder();
-		if (latLongs != null) {
-			boolean commaRequired = false;
-			for (LatLong latLong : latLongs) {
-				if (commaRequired) 
-					sb.append(";");
-				else
-					commaRequired = true;
-				sb.append(latLong.latitude);
-				sb.append(",");
-				sb.append(latLong.longitude);
-			}
+		StringBuilder sb = new StringBuilder(numberOfPoints * 24);
+		for (int i = 0; i < numberOfPoints; i++) {
+			if (i > 0) 
+				sb.append(";");
+			appendDecimal(sb, latitudes[i], latitudeScale);
+			sb.append(",");
+			appendDecimal(sb, longitudes[i], longitudeScale);
 		}
 		return sb.toString();
 	}
+	/**
+	 * The length of getComplexPoints() without building it
+	 */
+	public int getComplexPointsLength() {
+		int length = numberOfPoints == 0 ? 0 : 2 * numberOfPoints - 1; // the commas and semicolons
+		for (int i = 0; i < numberOfPoints; i++)
+			length += decimalLength(latitudes[i], latitudeScale) + decimalLength(longitudes[i], longitudeScale);
+		return length;
+	}
+	/**
+	 * Keeps only the points whose entry in keep is true, in the same order, and recalculates the bounding box
+	 */
+	void retainPoints(boolean[] keep) {
+		long[] oldLatitudes = latitudes;
+		long[] oldLongitudes = longitudes;
+		int oldNumberOfPoints = numberOfPoints;
+		latitudes = new long[Math.max(INITIAL_POINTS, oldNumberOfPoints)];
+		longitudes = new long[latitudes.length];
+		numberOfPoints = 0;
+		for (int i = 0; i < oldNumberOfPoints; i++) {
+			if (keep[i])
+				add(oldLatitudes[i], oldLongitudes[i]);
+		}
+	}
+	public double getLatitude(int i) {
+		return latitudes[i] / (double) POWERS_OF_TEN[latitudeScale];
+	}
+	public double getLongitude(int i) {
+		return longitudes[i] / (double) POWERS_OF_TEN[longitudeScale];
+	}
+	private static int decimalLength(long unscaled, int scale) {
+		if (unscaled == Long.MIN_VALUE)
+			return BigDecimal.valueOf(unscaled, scale).toString().length();
+		long abs = Math.abs(unscaled);
+		int digits = 1;
+		while (digits < POWERS_OF_TEN.length && abs >= POWERS_OF_TEN[digits])
+			digits++;
+		if (scale < 0 || digits - 1 - scale < -6)
+			return BigDecimal.valueOf(unscaled, scale).toString().length();
+		int length = unscaled < 0 ? 1 : 0;
+		if (scale == 0)
+			return length + digits;
+		if (digits > scale)
+			return length + digits + 1;
+		return length + 2 + scale; // 0.000ddd
+	}
+	/**
+	 * Appends unscaled / 10^scale exactly as BigDecimal.toString() would, without creating the BigDecimal
+	 */
+	static void appendDecimal(StringBuilder sb, long unscaled, int scale) {
+		String digits = Long.toString(Math.abs(unscaled));
+		if (unscaled == Long.MIN_VALUE || scale < 0 || digits.length() - 1 - scale < -6) {
+			// BigDecimal uses scientific notation for these
+			sb.append(BigDecimal.valueOf(unscaled, scale));
+			return;
+		}
+		if (unscaled < 0)
+			sb.append('-');
+		if (scale == 0) {
+			sb.append(digits);
+		} else if (digits.length() > scale) {
+			sb.append(digits, 0, digits.length() - scale);
+			sb.append('.');
+			sb.append(digits, digits.length() - scale, digits.length());
+		} else {
+			sb.append("0.");
+			for (int i = digits.length(); i < scale; i++)
+				sb.append('0');
+			sb.append(digits);
+		}
+	}
+	/**
+	 * A hash of everything written to fleet_locations for the location: its points, speed limit, safe and corridor flags
+	 * and area types. It is stored with the row so a later import can tell whether the location has changed.
+	 * It is the first 8 bytes of a SHA-256 of the complexpoints text and those values, so it is the same from one run to the next.
+	 */
+	public long getContentHash() {
+		return getContentHash(getComplexPoints());
+	}
+	/**
+	 * The content hash with complexPoints standing in for the points, so that a row written in another
+	 * complexpoints format has a different hash and is rewritten by a delta import
+	 */
+	long getContentHash(String complexPoints) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException("SHA-256 is not available", ex);
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(speedLimit == null ? "" : speedLimit.toPlainString());
+		sb.append("|");
+		sb.append(isSafe);
+		sb.append("|");
+		sb.append(areaType == null ? "" : areaType.name);
+		sb.append("|");
+		sb.append(areaTypes);
+		sb.append("|");
+		digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+		digest.update(complexPoints.getBytes(StandardCharsets.UTF_8));
+		byte[] bytes = digest.digest();
+		long hash = 0;
+		for (int i = 0; i < 8; i++)
+			hash = (hash << 8) | (bytes[i] & 0xff);
+		return hash;
+	}
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("[Location: id=");
@@ -152,22 +335,19 @@ public class Location {
 		sb.append(" badRecordReason=");
 		sb.append(badRecordReason);
 		sb.append(" latLongs={");
-		if (latLongs != null) {
-			boolean commaRequired = false;
-			for (LatLong latLong : latLongs) {
-				if (commaRequired) 
-					sb.append(",");
-				else
-					commaRequired = true;
-				sb.append(latLong);
-			}
+		for (int i = 0; i < numberOfPoints; i++) {
+			if (i > 0) 
+				sb.append(",");
+			sb.append("(");
+			appendDecimal(sb, latitudes[i], latitudeScale);
+			sb.append(",");
+			appendDecimal(sb, longitudes[i], longitudeScale);
+			sb.append(")");
 		}
 		sb.append("} ]");
 		return sb.toString();
 	}
 	public int getNumberOfPoints() {
-		if (latLongs == null)
-			return 0;
-		return latLongs.size();
+		return numberOfPoints;
 	}
 }
@@ -0,0 +1,139 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Groups the LocationsImport rows, which must arrive ordered by LocationName then SequenceNo, into Locations.
+ * Only the Location currently being built is held, each one is handed to the consumer as soon as the next
+ * LocationName starts, so memory use does not depend on how many rows are read.
+ * When areaType is null the rows of every area type are read, ordered by LocationName, AreaType then SequenceNo,
+ * and a Location is made for each LocationName and AreaType.
+ */
+class LocationAssembler {
+	static Logger logger = Logger.getLogger(LocationAssembler.class.getSimpleName());
+	
+	private final AreaType areaType;
+	private final LocationConsumer consumer;
+	private Location currentLocation;
+	private long rowsRead;
+	private long locationsAssembled;
+	private long unknownAreaTypeRows;
+	private final ImportMetrics metrics;
+	// Rows and time spent on the current location, for the metrics
+	private long locationRows;
+	private long readNanos;
+	private long assembleNanos;
+	private long handOverNanos;
+	
+	LocationAssembler(AreaType areaType, LocationConsumer consumer) {
+		this(areaType, consumer, null);
+	}
+	/**
+	 * metrics is null if nothing is to be recorded
+	 */
+	LocationAssembler(AreaType areaType, LocationConsumer consumer, ImportMetrics metrics) {
+		this.areaType = areaType;
+		this.consumer = consumer;
+		this.metrics = metrics;
+	}
+	/**
+	 * Reads every row of the result set, which must have the columns
+	 * id, LocationName, SpeedLimit, IsSafe, SequenceNo, latitude, longitude
+	 * followed by AreaType when every area type is being read
+	 */
+	void readAll(ResultSet rs) throws SQLException, LocationRepositoryException {
+		boolean timed = metrics != null;
+		long now = timed ? System.nanoTime() : 0;
+		while (rs.next()) {
+			int i = 1;
+			long id = rs.getLong(i++);
+			String locationName = rs.getString(i++);
+			BigDecimal speedLimit = rs.getBigDecimal(i++);
+			boolean isSafe = rs.getInt(i++)==1;
+			int sequenceNo = rs.getInt(i++);
+			BigDecimal latitude = rs.getBigDecimal(i++);
+			BigDecimal longitude = rs.getBigDecimal(i++);
+			AreaType rowAreaType = areaType;
+			if (areaType == null) {
+				String areaTypeName = rs.getString(i++);
+				rowAreaType = AreaType.fromName(areaTypeName);
+				if (rowAreaType == null) {
+					if (unknownAreaTypeRows++ == 0)
+						logger.log(Level.WARNING,"Ignoring the rows with unknown AreaType "+areaTypeName+" starting with id "+id);
+					continue;
+				}
+			}
+			if (timed) {
+				long read = System.nanoTime();
+				readNanos += read - now;
+				add(rowAreaType, id, locationName, speedLimit, isSafe, sequenceNo, latitude, longitude);
+				now = System.nanoTime();
+				assembleNanos += now - read - handOverNanos; // Not the time the consumer took over the previous location
+				handOverNanos = 0;
+			} else {
+				add(rowAreaType, id, locationName, speedLimit, isSafe, sequenceNo, latitude, longitude);
+			}
+		}
+		finish();
+		if (unknownAreaTypeRows > 0)
+			logger.log(Level.WARNING,"Ignored "+unknownAreaTypeRows+" rows with an unknown AreaType");
+	}
+	void add(AreaType rowAreaType, long id, String locationName, BigDecimal speedLimit, boolean isSafe, int sequenceNo, BigDecimal latitude, BigDecimal longitude) throws LocationRepositoryException {
+		rowsRead++;
+		if (currentLocation == null || !currentLocation.isSameAs(locationName) || currentLocation.getAreaType() != rowAreaType) { // Location has changed
+			if (currentLocation != null) {
+				emit();
+			}
+			currentLocation = new Location(id, rowAreaType, locationName, sequenceNo, speedLimit, isSafe, latitude, longitude);
+			if (logger.isLoggable(Level.FINE))
+				logger.log(Level.FINE,"Started new location "+locationName);
+		} else {	// This is another point in the existing currentLocation. Make sure the sequenceNo makes sense, otherwise reject it
+			if (currentLocation.isNextInSequence(sequenceNo)) {
+				currentLocation.add(sequenceNo, latitude,longitude);
+				if (logger.isLoggable(Level.FINE))
+					logger.log(Level.FINE,"Added to location "+locationName+" sequenceNo "+sequenceNo+" number of points "+currentLocation.getNumberOfPoints());
+			} else { 
+				currentLocation.markAsBad("Incorrect sequence number "+sequenceNo+" - it should have been 1 more than "+currentLocation.getSequenceNo());
+				logger.log(Level.INFO,"Incorrect sequenceNo "+sequenceNo+" for location "+locationName+" it should have been "+currentLocation.getSequenceNo()+"+1");
+			}
+		}
+		locationRows++;
+	}
+	/**
+	 * Hands over the last location
+	 */
+	void finish() throws LocationRepositoryException {
+		if (currentLocation != null) {
+			emit();
+		}
+	}
+	long getRowsRead() {
+		return rowsRead;
+	}
+	long getLocationsAssembled() {
+		return locationsAssembled;
+	}
+	private void emit() throws LocationRepositoryException {
+		Location location = currentLocation;
+		currentLocation = null; // Don't hold on to it while the consumer works
+		locationsAssembled++;
+		if (metrics == null) {
+			consumer.accept(location);
+			return;
+		}
+		// The time spent reading the row that started the next location is put down to this one
+		metrics.locationAssembled(locationRows, readNanos, assembleNanos);
+		locationRows = 0;
+		readNanos = 0;
+		assembleNanos = 0;
+		long start = System.nanoTime();
+		consumer.accept(location);
+		handOverNanos += System.nanoTime() - start;
+	}
+}
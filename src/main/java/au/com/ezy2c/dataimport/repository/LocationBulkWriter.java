@@ -0,0 +1,280 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Writes the fleet_locations rows of a large import with LOAD DATA LOCAL INFILE instead of one INSERT per location.
+ * add() appends each location to a tab separated temp file. finish() loads the file into a temporary staging table
+ * on the connection and merges it into fleet_locations with two statements: an UPDATE that flags the imported rows
+ * already there as also being of this areaType, the same as LocationWriter.addAreaType, and an INSERT ... SELECT of the rest.
+ * 
+ * The connection must have autocommit turned off and allowLoadLocalInfile=true, and the server must have local_infile=ON.
+ * areaType is null when every area type is imported at once, the flags then come from the location itself.
+ */
+class LocationBulkWriter {
+	static Logger logger = Logger.getLogger(LocationBulkWriter.class.getSimpleName());
+	
+	static final String STAGING_TABLE = "fleet_locations_staging";
+	// The columns of the file, in the order they are written, followed by vigilPlusHash when the import writes it
+	static final String[] COLUMNS = {"location_name", "latitude", "longitude", "topleft_lat", "topleft_long",
+			"bottomright_lat", "bottomright_long", "complexpoints", "service_loc_flag", "corridor_flag",
+			"speed_zone_override", "speed_zone_flag",
+			"vigilPlusLocation", "vigilPlusSpeedArea", "vigilPlusKeepIn", "vigilPlusNoGo", "vigilPlusAreaCollection"};
+	
+	private final Connection connection;
+	private final long fleetId;
+	private final AreaType areaType;
+	private final boolean polyline;
+	private final boolean contentHash;
+	private final String columns;
+	private final ImportMetrics metrics;
+	private final String description;
+	private Path file;
+	private Writer out;
+	private long rows;
+	private long bytes;
+	
+	/**
+	 * Creates the staging table and the temp file
+	 */
+	LocationBulkWriter(Connection connection, long fleetId, AreaType areaType, ImportSettings settings, ImportMetrics metrics) throws SQLException, IOException {
+		this.connection = connection;
+		this.fleetId = fleetId;
+		this.areaType = areaType;
+		this.polyline = settings.polylineComplexPoints();
+		this.contentHash = settings.contentHash();
+		this.columns = String.join(", ", COLUMNS)+(contentHash ? ", vigilPlusHash" : "");
+		this.metrics = metrics;
+		this.description = "fleet "+fleetId+" areaType "+LocationRepositoryImpl.describe(areaType);
+		createStagingTable();
+		file = Files.createTempFile("fleet_locations_"+fleetId+"_", ".tsv");
+		out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+	}
+	/**
+	 * Appends a line for the location to the file
+	 */
+	void add(Location location) throws IOException {
+		String complexPoints = LocationWriter.complexPoints(location, polyline);
+		List<LatLong> cornersAndCentre = location.findCornersAndCentre();
+		LatLong topLeft = cornersAndCentre.get(Location.TOP_LEFT);
+		LatLong bottomRight = cornersAndCentre.get(Location.BOTTOM_RIGHT);
+		LatLong centre = cornersAndCentre.get(Location.CENTRE);
+		StringBuilder line = new StringBuilder(complexPoints.length() + 200);
+		appendField(line, location.getLocationName());
+		appendField(line, centre.latitude);
+		appendField(line, centre.longitude);
+		appendField(line, topLeft.latitude);
+		appendField(line, topLeft.longitude);
+		appendField(line, bottomRight.latitude);
+		appendField(line, bottomRight.longitude);
+		appendField(line, complexPoints);
+		appendField(line, location.isSafe()?"y":"n");
+		appendField(line, location.isCorridor()?"y":"n");
+		appendField(line, location.getSpeedLimit());
+		appendField(line, location.isSpeedZoneOverride()?"Y":"N");
+		for (AreaType type : LocationWriter.FLAG_ORDER)
+			appendField(line, location.hasAreaType(type)?"Y":"N");
+		if (contentHash)
+			line.append(location.getContentHash(complexPoints));
+		else
+			// The last flag is the last field, without the tab after it
+			line.setLength(line.length() - 1);
+		line.append('\n');
+		out.write(line.toString());
+		rows++;
+		bytes += line.length();
+	}
+	/**
+	 * Loads the file, merges it into fleet_locations and commits
+	 */
+	void finish() throws SQLException, IOException {
+		out.close();
+		out = null;
+		long start = System.currentTimeMillis();
+		long statementStart = System.nanoTime();
+		long loaded = load();
+		metrics.batchExecuted(System.nanoTime() - statementStart);
+		long loadedAt = System.currentTimeMillis();
+		int flagged = 0;
+		if (areaType != null) {
+			statementStart = System.nanoTime();
+			flagged = flagExisting();
+			metrics.batchExecuted(System.nanoTime() - statementStart);
+			metrics.updated(flagged);
+		}
+		statementStart = System.nanoTime();
+		int inserted = insertNew();
+		metrics.batchExecuted(System.nanoTime() - statementStart);
+		metrics.inserted(inserted);
+		statementStart = System.nanoTime();
+		connection.commit();
+		metrics.committed(System.nanoTime() - statementStart);
+		logger.log(Level.INFO,"Bulk loaded "+loaded+" of "+rows+" rows ("+bytes+" chars) in "+(loadedAt - start)+"ms and merged them in "
+				+(System.currentTimeMillis() - loadedAt)+"ms for "+description+" : "+inserted+" inserts, "+flagged+" flag updates");
+	}
+	/**
+	 * Deletes the file and drops the staging table
+	 */
+	void close() {
+		if (out != null) {
+			try {
+				out.close();
+			} catch (Throwable th) {
+			}
+			out = null;
+		}
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (Throwable th) {
+			}
+			file = null;
+		}
+		Statement st = null;
+		try {
+			st = connection.createStatement();
+			st.execute("DROP TEMPORARY TABLE IF EXISTS "+STAGING_TABLE);
+		} catch (Throwable th) {
+		} finally {
+			if (st != null) {
+				try {
+					st.close();
+				} catch (Throwable th) {
+				}
+				st = null;
+			}
+		}
+	}
+	long getRows() {
+		return rows;
+	}
+	/**
+	 * A temporary table belongs to the connection, so imports of other fleets each have their own.
+	 * It is dropped first in case a pooled connection still has one from an import that failed.
+	 * The column types are copied from fleet_locations.
+	 */
+	private void createStagingTable() throws SQLException {
+		Statement st = null;
+		try {
+			st = connection.createStatement();
+			st.execute("DROP TEMPORARY TABLE IF EXISTS "+STAGING_TABLE);
+			st.execute("CREATE TEMPORARY TABLE "+STAGING_TABLE+" (INDEX (location_name)) "
+					+ " SELECT "+columns+" FROM fleet_locations WHERE 1 = 0");
+		} finally {
+			if (st != null) {
+				try {
+					st.close();
+				} catch (Throwable th) {
+				}
+				st = null;
+			}
+		}
+	}
+	private long load() throws SQLException {
+		Statement st = null;
+		String fileName = file.toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+		try {
+			st = connection.createStatement();
+			// The defaults of tab separated fields, newline terminated lines and \ as the escape are what add() writes
+			return st.executeLargeUpdate("LOAD DATA LOCAL INFILE '"+fileName+"' INTO TABLE "+STAGING_TABLE
+					+ " CHARACTER SET utf8mb4 ("+columns+")");
+		} finally {
+			if (st != null) {
+				try {
+					st.close();
+				} catch (Throwable th) {
+				}
+				st = null;
+			}
+		}
+	}
+	private int flagExisting() throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = connection.prepareStatement("UPDATE fleet_locations f JOIN "+STAGING_TABLE+" s ON s.location_name = f.location_name "
+					+ " SET f."+LocationWriter.flagColumn(areaType)+" = 'Y' "
+					+ " WHERE f.fleet = ? AND f.vigilPlusImported = 'Y'");
+			ps.setLong(1,fleetId);
+			return ps.executeUpdate();
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	private int insertNew() throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = connection.prepareStatement("INSERT IGNORE INTO fleet_locations("+columns+", fleet, locationcolor, vigilPlusImported) "
+					+ " SELECT s."+columns.replace(", ", ", s.")+", ?, '#008CFF', 'Y' FROM "+STAGING_TABLE+" s "
+					+ " WHERE NOT EXISTS (SELECT 1 FROM fleet_locations f "
+					+ "   WHERE f.fleet = ? AND f.vigilPlusImported = 'Y' AND f.location_name = s.location_name)");
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			ps.setLong(i++,fleetId);
+			return ps.executeUpdate();
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	private static void appendField(StringBuilder line, BigDecimal value) {
+		if (value == null)
+			line.append("\\N");
+		else
+			line.append(value.toPlainString());
+		line.append('\t');
+	}
+	private static void appendField(StringBuilder line, String value) {
+		if (value == null) {
+			line.append("\\N");
+		} else {
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				switch (c) {
+				case '\\':
+					line.append("\\\\");
+					break;
+				case '\t':
+					line.append("\\t");
+					break;
+				case '\n':
+					line.append("\\n");
+					break;
+				case '\r':
+					line.append("\\r");
+					break;
+				case '\0':
+					line.append("\\0");
+					break;
+				default:
+					line.append(c);
+				}
+			}
+		}
+		line.append('\t');
+	}
+}
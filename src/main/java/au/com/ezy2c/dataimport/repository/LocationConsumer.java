@@ -0,0 +1,8 @@
+package au.com.ezy2c.dataimport.repository;
+
+/**
+ * Receives each Location once all of its points have been read
+ */
+interface LocationConsumer {
+	void accept(Location location) throws LocationRepositoryException;
+}
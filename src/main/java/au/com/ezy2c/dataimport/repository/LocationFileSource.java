@@ -0,0 +1,210 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Reads the locations to import straight from an exported file, instead of the file being loaded into LocationsImport
+ * and read back out of it. The file is read through a MappedFileInputStream by a streaming parser, and each location is
+ * handed to the consumer as soon as it has been read, so the heap holds one location at a time whatever the size of the file.
+ * The format is picked by the file's extension: .csv for CsvLocationFile, .geojson or .json for GeoJsonLocationFile and
+ * .kml for KmlLocationFile.
+ *
+ * When a single areaType is imported a location that names another AreaType is left out, and one that names none is
+ * of the areaType. When every area type is imported each location must name its own, and consecutive locations of the
+ * same name are merged by AreaTypeMerger as the rows of LocationsImport are. A name must not otherwise appear twice.
+ *
+ * The id of a location is the line or feature number it starts at. There is no LocationsImport row to mark as a bad
+ * record, so the bad records are logged with where they are in the file, see Location.source.
+ */
+abstract class LocationFileSource implements LocationSource {
+	static Logger logger = Logger.getLogger(LocationFileSource.class.getSimpleName());
+
+	// The most decimal places a coordinate read from a file keeps, any beyond it are rounded off
+	static final int MAX_COORDINATE_SCALE = 15;
+	// The largest coordinate a Location can hold at MAX_COORDINATE_SCALE
+	private static final BigDecimal MAX_COORDINATE = BigDecimal.valueOf(Long.MAX_VALUE, MAX_COORDINATE_SCALE);
+
+	protected final Path file;
+	protected final AreaType areaType;
+	protected final ImportMetrics metrics;
+	// What the id of a location counts, line or feature
+	private final String unit;
+	private long locations;
+	private long skipped;
+	private long otherAreaType;
+	private long unknownAreaType;
+
+	/**
+	 * areaType is null when every area type is imported, metrics is null if nothing is to be recorded
+	 */
+	protected LocationFileSource(Path file, AreaType areaType, ImportMetrics metrics, String unit) {
+		this.file = file;
+		this.areaType = areaType;
+		this.metrics = metrics;
+		this.unit = unit;
+	}
+	/**
+	 * The source for the file, by its extension. Fails if the file can't be read, before the import has changed anything
+	 */
+	static LocationFileSource open(Path file, AreaType areaType, ImportMetrics metrics) throws LocationRepositoryException {
+		if (!Files.isReadable(file)) {
+			String msg = "Unable to read the locations to import from "+file+" : it doesn't exist or can't be read";
+			logger.log(Level.SEVERE,msg);
+			throw new LocationRepositoryException(msg,new NoSuchFileException(file.toString()));
+		}
+		String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+		if (name.endsWith(".csv"))
+			return new CsvLocationFile(file, areaType, metrics);
+		if (name.endsWith(".geojson") || name.endsWith(".json"))
+			return new GeoJsonLocationFile(file, areaType, metrics);
+		if (name.endsWith(".kml"))
+			return new KmlLocationFile(file, areaType, metrics);
+		throw new IllegalArgumentException("The locations file "+file+" is not .csv, .geojson, .json or .kml");
+	}
+	@Override
+	public void read(LocationConsumer consumer) throws LocationRepositoryException {
+		AreaTypeMerger merger = null;
+		if (areaType == null) {
+			merger = new AreaTypeMerger(consumer);
+			consumer = merger;
+		}
+		LocationConsumer next = consumer;
+		String fileName = file.getFileName().toString();
+		long start = System.currentTimeMillis();
+		try (InputStream in = new MappedFileInputStream(file)) {
+			parse(in, location -> {
+				location.source = fileName+" "+unit+" "+location.getId();
+				locations++;
+				next.accept(location);
+			});
+		} catch (IOException ex) {
+			String msg = "Unable to read the locations to import from "+file+" : "+ex.getClass().getSimpleName()+" "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+		if (merger != null)
+			merger.finish();
+		logger.log(Level.INFO,"Read "+locations+" locations for areaType "+LocationRepositoryImpl.describe(areaType)+" from "+file+" in "
+				+(System.currentTimeMillis() - start)+"ms, skipping "+skipped+" that couldn't be read, "+otherAreaType+" of other area types and "
+				+unknownAreaType+" of unknown area types");
+	}
+	/**
+	 * Reads the whole file, handing each location to the consumer
+	 */
+	abstract void parse(InputStream in, LocationConsumer consumer) throws IOException, LocationRepositoryException;
+
+	/**
+	 * Hands over a location whose points have all been read, with the sequence numbers 1 to n.
+	 * One without a name or points is skipped, as is one that isn't of the area type being imported or that has a
+	 * coordinate Location can't hold, see coordinate.
+	 */
+	protected void feature(LocationConsumer consumer, long number, String name, String areaTypeName, BigDecimal speedLimit, boolean isSafe,
+			List<BigDecimal> latitudes, List<BigDecimal> longitudes) throws LocationRepositoryException {
+		AreaType featureAreaType = featureAreaType(number, areaTypeName);
+		if (featureAreaType == null)
+			return;
+		if (name == null || name.isEmpty()) {
+			skip(number, "it has no name");
+			return;
+		}
+		if (latitudes.isEmpty()) {
+			skip(number, "location "+name+" has no points");
+			return;
+		}
+		try {
+			for (int i = 0; i < latitudes.size(); i++) {
+				latitudes.set(i, coordinate(latitudes.get(i)));
+				longitudes.set(i, coordinate(longitudes.get(i)));
+			}
+		} catch (ArithmeticException ex) {
+			skip(number, "location "+name+" has a coordinate that "+ex.getMessage());
+			return;
+		}
+		Location location = new Location(number, featureAreaType, name, 1, speedLimit, isSafe, latitudes.get(0), longitudes.get(0));
+		for (int i = 1; i < latitudes.size(); i++)
+			location.add(i + 1, latitudes.get(i), longitudes.get(i));
+		if (metrics != null)
+			metrics.locationAssembled(latitudes.size(), 0, 0);
+		consumer.accept(location);
+	}
+	/**
+	 * The AreaType of a location that names areaTypeName, or null if it is to be left out
+	 */
+	protected AreaType featureAreaType(long number, String areaTypeName) {
+		if (areaTypeName == null || areaTypeName.isEmpty()) {
+			if (areaType == null)
+				skip(number, "it has no AreaType");
+			return areaType;
+		}
+		AreaType featureAreaType = LocationRepositoryImpl.parseAreaType(areaTypeName.trim());
+		if (featureAreaType == null) {
+			if (unknownAreaType++ == 0)
+				logger.log(Level.WARNING,"Leaving out the locations with unknown AreaType "+areaTypeName+" starting at "+unit+" "+number+" of "+file);
+			return null;
+		}
+		if (areaType != null && featureAreaType != areaType) {
+			otherAreaType++;
+			return null;
+		}
+		return featureAreaType;
+	}
+	/**
+	 * Leaves out something that couldn't be read, logging why
+	 */
+	protected void skip(long number, String reason) {
+		skipped++;
+		if (metrics != null)
+			metrics.bad();
+		logger.log(Level.WARNING,"Leaving out "+unit+" "+number+" of "+file+", "+reason);
+	}
+	/**
+	 * The coordinate with a scale Location can hold, from 0 to MAX_COORDINATE_SCALE. One with a negative scale, such as
+	 * 1E+2, or more decimal places than that has its trailing zeros stripped and is then set to the nearest scale in that
+	 * range, rounding off any digits beyond it. Any other keeps the digits it has.
+	 * Throws ArithmeticException for one too large to hold at MAX_COORDINATE_SCALE.
+	 */
+	static BigDecimal coordinate(BigDecimal value) {
+		if (value.abs().compareTo(MAX_COORDINATE) > 0)
+			throw new ArithmeticException("is too large : "+value);
+		if (value.scale() >= 0 && value.scale() <= MAX_COORDINATE_SCALE)
+			return value;
+		value = value.stripTrailingZeros();
+		return value.setScale(Math.max(0, Math.min(value.scale(), MAX_COORDINATE_SCALE)), RoundingMode.HALF_UP);
+	}
+	/**
+	 * A SpeedLimit, null if there isn't one
+	 */
+	protected static BigDecimal parseDecimal(String value) {
+		if (value == null || value.trim().isEmpty())
+			return null;
+		return new BigDecimal(value.trim());
+	}
+	/**
+	 * An IsSafe, true for 1, true, y or yes
+	 */
+	protected static boolean parseFlag(String value) {
+		if (value == null)
+			return false;
+		switch (value.trim().toLowerCase(Locale.ROOT)) {
+		case "1":
+		case "true":
+		case "y":
+		case "yes":
+			return true;
+		default:
+			return false;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Groups LocationsImport rows that arrive in any order into Locations, for locationImport.unorderedRead.
+ * The query then has no ORDER BY, so MySQL hands over the rows as it finds them instead of filesorting them first.
+ *
+ * The rows are held in a hash table by LocationName until they take more than memoryBytes of heap. The table is then
+ * spilled to PARTITIONS temporary files by the hash of the name, and the rows that follow go straight to their file.
+ * Once every row has been read each file is grouped in turn the same way, so a partition that is still too big is
+ * split again on the next bits of the hash.
+ *
+ * The rows of a name are sorted by AreaType, SequenceNo then id, the order the ordered query gives them in, and added
+ * to a LocationAssembler, so the Locations and the bad records, incorrect sequence numbers included, are the same as
+ * those of the ordered path. The Locations come out in hash order rather than LocationName order, which is why a
+ * checkpointed import still reads in order.
+ */
+class LocationGrouper {
+	static Logger logger = Logger.getLogger(LocationGrouper.class.getSimpleName());
+
+	// Files a table is spilled to, the hash of the name picks one with 4 of its bits
+	static final int PARTITIONS = 16;
+	// Levels of spilling after which a partition is grouped in memory however big it is, by then it can only hold a few huge locations
+	static final int MAX_DEPTH = 7;
+	// Rough heap taken by a row held in the table, its BigDecimals included
+	static final int ROW_BYTES = 180;
+	// Rough heap taken by each name in the table, on top of its characters
+	static final int NAME_BYTES = 96;
+
+	private static final Comparator<Row> ROW_ORDER = Comparator.<Row, String>comparing(row -> row.areaType.name, String.CASE_INSENSITIVE_ORDER)
+			.thenComparingInt(row -> row.sequenceNo)
+			.thenComparingLong(row -> row.id);
+
+	private final AreaType areaType;
+	private final LocationAssembler assembler;
+	private final long memoryBytes;
+	private final File spillDirectory;
+	private final Table table;
+	// Every spill file that hasn't been deleted yet
+	private final List<File> files = new ArrayList<>();
+	private long unknownAreaTypeRows;
+	private long spilledRows;
+	private int spills;
+
+	/**
+	 * metrics is null if nothing is to be recorded, spillDirectory is null for java.io.tmpdir
+	 */
+	LocationGrouper(AreaType areaType, LocationConsumer consumer, ImportMetrics metrics, long memoryBytes, File spillDirectory) {
+		this.areaType = areaType;
+		this.assembler = new LocationAssembler(areaType, consumer, metrics);
+		this.memoryBytes = memoryBytes;
+		this.spillDirectory = spillDirectory;
+		this.table = new Table(0);
+	}
+	/**
+	 * Reads every row of the result set, which has the same columns as for LocationAssembler.readAll, and hands over
+	 * the Locations once they have all been read
+	 */
+	void readAll(ResultSet rs) throws SQLException, LocationRepositoryException {
+		try {
+			while (rs.next()) {
+				int i = 1;
+				long id = rs.getLong(i++);
+				String locationName = rs.getString(i++);
+				BigDecimal speedLimit = rs.getBigDecimal(i++);
+				boolean isSafe = rs.getInt(i++)==1;
+				int sequenceNo = rs.getInt(i++);
+				BigDecimal latitude = rs.getBigDecimal(i++);
+				BigDecimal longitude = rs.getBigDecimal(i++);
+				AreaType rowAreaType = areaType;
+				if (areaType == null) {
+					String areaTypeName = rs.getString(i++);
+					rowAreaType = AreaType.fromName(areaTypeName);
+					if (rowAreaType == null) {
+						if (unknownAreaTypeRows++ == 0)
+							logger.log(Level.WARNING,"Ignoring the rows with unknown AreaType "+areaTypeName+" starting with id "+id);
+						continue;
+					}
+				}
+				add(rowAreaType, id, locationName, speedLimit, isSafe, sequenceNo, latitude, longitude);
+			}
+			finish();
+		} finally {
+			deleteFiles();
+		}
+		if (unknownAreaTypeRows > 0)
+			logger.log(Level.WARNING,"Ignored "+unknownAreaTypeRows+" rows with an unknown AreaType");
+	}
+	void add(AreaType rowAreaType, long id, String locationName, BigDecimal speedLimit, boolean isSafe, int sequenceNo, BigDecimal latitude, BigDecimal longitude) throws LocationRepositoryException {
+		try {
+			table.add(locationName, new Row(rowAreaType, id, speedLimit, isSafe, sequenceNo, latitude, longitude));
+		} catch (IOException ex) {
+			throw spillFailed(ex);
+		}
+	}
+	/**
+	 * Groups whatever has been spilled and hands over every Location
+	 */
+	void finish() throws LocationRepositoryException {
+		try {
+			table.finish();
+		} catch (IOException ex) {
+			throw spillFailed(ex);
+		}
+		assembler.finish();
+		if (spills > 0)
+			logger.log(Level.INFO,"Grouped "+assembler.getRowsRead()+" rows with "+spills+" spills of "+spilledRows+" rows to "+describe(spillDirectory));
+	}
+	/**
+	 * Deletes the spill files left behind by a read that failed
+	 */
+	void deleteFiles() {
+		for (File file : files) {
+			if (!file.delete())
+				logger.log(Level.WARNING,"Unable to delete the spill file "+file);
+		}
+		files.clear();
+	}
+	long getRowsRead() {
+		return assembler.getRowsRead();
+	}
+	long getLocationsAssembled() {
+		return assembler.getLocationsAssembled();
+	}
+	long getSpilledRows() {
+		return spilledRows;
+	}
+	private LocationRepositoryException spillFailed(IOException ex) {
+		String msg = "Unable to group the locations of AreaType "+LocationRepositoryImpl.describe(areaType)+" using spill files in "+describe(spillDirectory)+" : IOException "+ex.getMessage();
+		logger.log(Level.SEVERE,msg,ex);
+		return new LocationRepositoryException(msg,ex);
+	}
+	private static String describe(File directory) {
+		return directory == null ? System.getProperty("java.io.tmpdir") : directory.getPath();
+	}
+	/**
+	 * The rows of every name, read so far, of one level of partitioning
+	 */
+	private class Table {
+		private final int depth;
+		private Map<String, List<Row>> groups = new HashMap<>();
+		private long bytes;
+		private File[] partitionFiles;
+		private DataOutputStream[] partitions;
+
+		Table(int depth) {
+			this.depth = depth;
+		}
+		void add(String locationName, Row row) throws IOException {
+			if (partitions != null) {
+				write(locationName, row);
+				return;
+			}
+			List<Row> rows = groups.get(locationName);
+			if (rows == null) {
+				rows = new ArrayList<>();
+				groups.put(locationName, rows);
+				bytes += NAME_BYTES + 2L * locationName.length();
+			}
+			rows.add(row);
+			bytes += ROW_BYTES;
+			if (bytes > memoryBytes && depth < MAX_DEPTH)
+				spill();
+		}
+		/**
+		 * Hands the rows to the assembler a name at a time, grouping the partitions one after the other if the table spilled
+		 */
+		void finish() throws IOException, LocationRepositoryException {
+			if (partitions == null) {
+				for (Iterator<Map.Entry<String, List<Row>>> it = groups.entrySet().iterator(); it.hasNext();) {
+					Map.Entry<String, List<Row>> group = it.next();
+					it.remove();
+					List<Row> rows = group.getValue();
+					rows.sort(ROW_ORDER);
+					for (Row row : rows)
+						assembler.add(row.areaType, row.id, group.getKey(), row.speedLimit, row.isSafe, row.sequenceNo, row.latitude, row.longitude);
+				}
+				return;
+			}
+			for (DataOutputStream partition : partitions)
+				partition.close();
+			for (File file : partitionFiles) {
+				Table next = new Table(depth + 1);
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+					while (true) {
+						String locationName;
+						try {
+							locationName = in.readUTF();
+						} catch (EOFException ex) {
+							break;
+						}
+						next.add(locationName, Row.read(in));
+					}
+				}
+				delete(file);
+				next.finish();
+			}
+		}
+		private void spill() throws IOException {
+			spills++;
+			partitionFiles = new File[PARTITIONS];
+			partitions = new DataOutputStream[PARTITIONS];
+			for (int p = 0; p < PARTITIONS; p++) {
+				partitionFiles[p] = File.createTempFile("locations-"+depth+"-"+p+"-", ".spill", spillDirectory);
+				files.add(partitionFiles[p]);
+				partitions[p] = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partitionFiles[p]), 1 << 16));
+			}
+			if (logger.isLoggable(Level.FINE))
+				logger.log(Level.FINE,"Spilling "+groups.size()+" names at depth "+depth+" after "+bytes+" bytes");
+			Map<String, List<Row>> spilled = groups;
+			groups = null;
+			bytes = 0;
+			for (Map.Entry<String, List<Row>> group : spilled.entrySet()) {
+				for (Row row : group.getValue())
+					write(group.getKey(), row);
+			}
+		}
+		private void write(String locationName, Row row) throws IOException {
+			// The multiplier spreads the hash into the top bits, each level takes the next 4 of them
+			int hash = locationName.hashCode() * 0x9E3779B9;
+			DataOutputStream out = partitions[(hash >>> (28 - 4 * depth)) & (PARTITIONS - 1)];
+			out.writeUTF(locationName);
+			row.write(out);
+			spilledRows++;
+		}
+	}
+	private void delete(File file) {
+		if (file.delete())
+			files.remove(file);
+	}
+	/**
+	 * A LocationsImport row without its LocationName, which the table holds once for all of its rows
+	 */
+	private static class Row {
+		final AreaType areaType;
+		final long id;
+		final BigDecimal speedLimit;
+		final boolean isSafe;
+		final int sequenceNo;
+		final BigDecimal latitude;
+		final BigDecimal longitude;
+
+		Row(AreaType areaType, long id, BigDecimal speedLimit, boolean isSafe, int sequenceNo, BigDecimal latitude, BigDecimal longitude) {
+			this.areaType = areaType;
+			this.id = id;
+			this.speedLimit = speedLimit;
+			this.isSafe = isSafe;
+			this.sequenceNo = sequenceNo;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(areaType.ordinal());
+			out.writeLong(id);
+			writeDecimal(out, speedLimit);
+			out.writeBoolean(isSafe);
+			out.writeInt(sequenceNo);
+			writeDecimal(out, latitude);
+			writeDecimal(out, longitude);
+		}
+		static Row read(DataInputStream in) throws IOException {
+			AreaType areaType = AreaType.values()[in.readByte()];
+			long id = in.readLong();
+			BigDecimal speedLimit = readDecimal(in);
+			boolean isSafe = in.readBoolean();
+			int sequenceNo = in.readInt();
+			BigDecimal latitude = readDecimal(in);
+			BigDecimal longitude = readDecimal(in);
+			return new Row(areaType, id, speedLimit, isSafe, sequenceNo, latitude, longitude);
+		}
+		/**
+		 * Writes the exact value, scale included, so the points read back are written the same as the ones that were spilled
+		 */
+		private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+			if (value == null) {
+				out.writeShort(-1);
+				return;
+			}
+			byte[] unscaled = value.unscaledValue().toByteArray();
+			out.writeShort(unscaled.length);
+			out.write(unscaled);
+			out.writeInt(value.scale());
+		}
+		private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+			int length = in.readShort();
+			if (length < 0)
+				return null;
+			byte[] unscaled = new byte[length];
+			in.readFully(unscaled);
+			return new BigDecimal(new BigInteger(unscaled), in.readInt());
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.common.DBConnectException;
+
+/**
+ * Runs an import as two stages joined by a bounded queue.
+ * The reader runs on the calling thread and puts each Location into the queue as soon as it is complete,
+ * blocking when the queue is full so it can never get more than queueCapacity locations ahead of the writers.
+ * Each writer thread takes Locations off the queue and writes them through a LocationSink of its own.
+ * 
+ * The first failure in any stage stops the whole pipeline: the reader stops reading, the writers stop taking
+ * from the queue and roll back whatever they have not committed, and the failure is thrown to the caller with
+ * any failures that followed it attached as suppressed exceptions.
+ */
+class LocationPipeline {
+	static Logger logger = Logger.getLogger(LocationPipeline.class.getSimpleName());
+	
+	// Put on the queue once per writer after the last location
+	private static final Location END_OF_LOCATIONS = new Location(0, null, "", 0, null, false, BigDecimal.ZERO, BigDecimal.ZERO);
+	private static final long POLL_MILLIS = 100;
+	
+	private final String name;
+	private final int writers;
+	private final BlockingQueue<Location> queue;
+	private final AtomicReference<Throwable> failure = new AtomicReference<>();
+	private final AtomicLong readerBlockedNanos = new AtomicLong();
+	private final AtomicLong writersIdleNanos = new AtomicLong();
+	
+	/**
+	 * name is used for the writer thread names and log messages
+	 */
+	LocationPipeline(String name, int writers, int queueCapacity) {
+		this.name = name;
+		this.writers = Math.max(1, writers);
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+	}
+	void run(LocationSource source, LocationSink.Factory sinkFactory) throws DBConnectException, LocationRepositoryException {
+		AtomicInteger threadNumber = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(writers, runnable -> new Thread(runnable, "writer-"+name+"-"+threadNumber.incrementAndGet()));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int w = 0; w < writers; w++)
+				futures.add(executor.submit(() -> write(sinkFactory)));
+			try {
+				source.read(this::put);
+				for (int w = 0; w < writers; w++)
+					put(END_OF_LOCATIONS);
+			} catch (PipelineStopped ex) {
+				// A writer failed, its exception is the one to report
+			} catch (Exception | Error ex) {
+				fail(ex);
+			}
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (ExecutionException ex) {
+					fail(ex.getCause());
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					fail(ex);
+					break;
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		logger.log(Level.INFO,"Pipeline "+name+" finished, reader waited "+TimeUnit.NANOSECONDS.toMillis(readerBlockedNanos.get())+"ms for a full queue, "
+				+writers+" writers waited "+TimeUnit.NANOSECONDS.toMillis(writersIdleNanos.get())+"ms for an empty queue");
+		rethrowFailure();
+	}
+	private void put(Location location) {
+		long start = System.nanoTime();
+		try {
+			while (!queue.offer(location, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (failure.get() != null)
+					throw new PipelineStopped();
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			fail(ex);
+			throw new PipelineStopped();
+		} finally {
+			readerBlockedNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+	private void write(LocationSink.Factory sinkFactory) {
+		LocationSink sink = null;
+		try {
+			sink = sinkFactory.create();
+			while (true) {
+				long start = System.nanoTime();
+				Location location = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				writersIdleNanos.addAndGet(System.nanoTime() - start);
+				if (failure.get() != null)
+					return; // Leave what isn't committed to be rolled back by close()
+				if (location == END_OF_LOCATIONS)
+					break;
+				if (location != null)
+					sink.accept(location);
+			}
+			if (failure.get() == null)
+				sink.finish();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			fail(ex);
+		} catch (Exception | Error ex) {
+			fail(ex);
+		} finally {
+			if (sink != null)
+				sink.close();
+		}
+	}
+	private void fail(Throwable th) {
+		if (!failure.compareAndSet(null, th)) {
+			Throwable first = failure.get();
+			if (first != th)
+				first.addSuppressed(th);
+		} else {
+			logger.log(Level.SEVERE,"Pipeline "+name+" stopping : "+th.getMessage());
+		}
+	}
+	private void rethrowFailure() throws DBConnectException, LocationRepositoryException {
+		Throwable th = failure.get();
+		if (th == null)
+			return;
+		if (th instanceof LocationRepositoryException)
+			throw (LocationRepositoryException) th;
+		if (th instanceof DBConnectException)
+			throw (DBConnectException) th;
+		if (th instanceof RuntimeException)
+			throw (RuntimeException) th;
+		if (th instanceof Error)
+			throw (Error) th;
+		throw new LocationRepositoryException("Pipeline "+name+" failed : "+th.getMessage(), (Exception) th);
+	}
+	/**
+	 * Thrown out of the reader's put() to stop the source reading once another stage has failed
+	 */
+	private static class PipelineStopped extends RuntimeException {
+		private static final long serialVersionUID = 4426014733862347305L;
+	}
+}
@@ -1,11 +1,51 @@
 package au.com.ezy2c.dataimport.repository;
 
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
 import au.com.ezy2c.common.DBConnectException;
 import au.com.ezy2c.dataimport.AreaType;
 
 public interface LocationRepository {
+	/**
+	 * The areaType argument that imports every area type in one pass
+	 */
+	String ALL_AREA_TYPES = "All";
 	/**
 	 * 
 	 */
 	void storeLocations(long fleetId, AreaType areaType) throws DBConnectException, LocationRepositoryException;
+	/**
+	 * Imports every area type of the fleet in one pass over LocationsImport.
+	 * A location belonging to several area types is written once with all of their flags set.
+	 */
+	void storeAllLocations(long fleetId) throws DBConnectException, LocationRepositoryException;
+	/**
+	 * Imports the locations in a CSV, GeoJSON or KML file straight into fleet_locations, without going through LocationsImport.
+	 * areaType is null to import every area type, each location then naming its own. See LocationFileSource
+	 */
+	void storeLocationsFromFile(long fleetId, AreaType areaType, Path file) throws DBConnectException, LocationRepositoryException;
+	/**
+	 * The names of the imported locations of the fleet that contain the position.
+	 * Uses the geohash cover written by imports with locationImport.coverPrecision set, locations imported without it are not found.
+	 */
+	List<String> findLocationsContaining(long fleetId, double latitude, double longitude) throws LocationRepositoryException;
+	/**
+	 * Claims up to max jobs of fleet_location_import_jobs for this importer, oldest first: the queued ones, and the running
+	 * ones whose lease has run out because the importer that claimed them stopped. Each is marked as running, claimed by
+	 * ImportSettings.instanceName() with a lease of locationImport.leaseSeconds.
+	 * A job of a fleet in busyFleets, of a fleet with a running job whose lease another importer holds, or of a fleet
+	 * with an older job claimed by the same call, is left for later. A job whose area_type isn't known is marked as failed.
+	 */
+	List<ImportJob> claimImportJobs(int max, Set<Long> busyFleets) throws LocationRepositoryException;
+	/**
+	 * Extends the lease of a running job claimed by this importer, returns false if another importer has taken it over
+	 */
+	boolean renewImportJobLease(ImportJob job) throws LocationRepositoryException;
+	/**
+	 * Marks the job as done, or as failed with the message of the failure if it isn't null.
+	 * Returns false, leaving it as it is, if another importer has taken it over
+	 */
+	boolean finishImportJob(ImportJob job, long durationMillis, Throwable failure) throws LocationRepositoryException;
 }
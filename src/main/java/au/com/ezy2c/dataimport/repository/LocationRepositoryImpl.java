@@ -1,26 +1,44 @@
 package au.com.ezy2c.dataimport.repository;
 
-import java.math.BigDecimal;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.stereotype.Component;
 
+import com.zaxxer.hikari.HikariDataSource;
+
 import au.com.ezy2c.common.DBConnectException;
-import au.com.ezy2c.common.DBConnector;
 import au.com.ezy2c.dataimport.AreaType;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @Component
 @RefreshScope
 public class LocationRepositoryImpl implements LocationRepository {
 	static Logger logger = Logger.getLogger(LocationRepositoryImpl.class.getSimpleName());
+	// Queued jobs read beyond those that can be claimed, in case the oldest are of fleets that are busy
+	private static final int CLAIM_LOOKAHEAD = 20;
+	// Length of fleet_location_import_jobs.message
+	private static final int MAX_JOB_MESSAGE = 1024;
+	// A running job whose importer has stopped renewing its lease, a job left running before there were leases has none
+	private static final String LEASE_EXPIRED = "(lease_expires IS NULL OR lease_expires < NOW())";
 	
 	protected String mysqlurlstart;
 	protected String connectionAttributes;
@@ -30,7 +48,13 @@ public class LocationRepositoryImpl implements LocationRepository {
 	protected String locationPassword;
 	protected String locationSchema;
 	protected String url;
+	protected ImportSettings settings;
+	protected DataSource dataSource;
+	protected MeterRegistry meterRegistry;
+	// The name this importer claims jobs under, see instanceName()
+	private volatile String instanceName;
 	
+	@Autowired
 	public LocationRepositoryImpl( 
 			@Value("${mysqlurlstart}") String mysqlurlstart,
 			@Value("${connectionAttributes}") String connectionAttributes,
@@ -38,7 +62,9 @@ public class LocationRepositoryImpl implements LocationRepository {
 			@Value("${locationDatabase.port}") int locationPort,
 			@Value("${locationDatabase.username}") String locationUsername,
 		    @Value("${locationDatabase.password}") String locationPassword,
-			@Value("${locationDatabase.schema}") String locationSchema) {
+			@Value("${locationDatabase.schema}") String locationSchema,
+			ImportSettings settings,
+			MeterRegistry meterRegistry) {
 		this.mysqlurlstart = mysqlurlstart;
 		this.connectionAttributes = connectionAttributes;
 		this.locationHost = locationHost;
@@ -46,85 +72,158 @@ public class LocationRepositoryImpl implements LocationRepository {
 		this.locationUsername = locationUsername;
 		this.locationPassword = locationPassword;
 		this.locationSchema = locationSchema;
+		this.settings = settings;
+		this.meterRegistry = meterRegistry;
     	String locationDbName = locationHost+":"+locationPort+"/"+locationSchema;
     	String locationDbURLParams = "?user="+locationUsername+"&password="+locationPassword+"&"+connectionAttributes;
+    	if (settings.rewriteBatchedStatements && !connectionAttributes.contains("rewriteBatchedStatements"))
+    		locationDbURLParams += "&rewriteBatchedStatements=true";
+    	if (ImportSettings.READ_MODE_CURSOR.equals(settings.readMode) && !connectionAttributes.contains("useCursorFetch"))
+    		locationDbURLParams += "&useCursorFetch=true";
+    	if (settings.bulkLoadThreshold > 0 && !connectionAttributes.contains("allowLoadLocalInfile"))
+    		locationDbURLParams += "&allowLoadLocalInfile=true";
+    	if (settings.prepStmtCacheSize > 0 && !connectionAttributes.contains("cachePrepStmts"))
+    		locationDbURLParams += "&cachePrepStmts=true&prepStmtCacheSize="+settings.prepStmtCacheSize+"&prepStmtCacheSqlLimit="+settings.prepStmtCacheSqlLimit;
 		url = mysqlurlstart+locationDbName+locationDbURLParams;
+		// Nothing connects until the first import asks for a connection, unless the pool is to keep some idle ones
+		HikariDataSource pool = new HikariDataSource();
+		pool.setPoolName("locationDatabase");
+		pool.setJdbcUrl(url);
+		pool.setMaximumPoolSize(settings.poolSize);
+		pool.setMinimumIdle(Math.max(0, Math.min(settings.poolMinimumIdle, settings.poolSize)));
+		dataSource = pool;
+	}
+	/**
+	 * Imports using connections from the given DataSource instead of a pool of its own.
+	 * The metrics are not exported, only written to the run reports.
+	 */
+	LocationRepositoryImpl(DataSource dataSource, ImportSettings settings) {
+		this.dataSource = dataSource;
+		this.settings = settings;
+		this.meterRegistry = new SimpleMeterRegistry();
+	}
+	@PreDestroy
+	public void close() {
+		if (dataSource instanceof HikariDataSource)
+			((HikariDataSource) dataSource).close();
 	}
 	/**
-	 * Returns false if it was unable to store it.
-	 * Returns true if successfully stored OR the location already existed
+	 * Imports the fleet's locations of the areaType from LocationsImport. A location that can't be imported is marked
+	 * as a bad record and doesn't fail the import.
+	 * Throws a LocationRepositoryException if it was unable to store them, such as when there is no connection to the
+	 * location database or a statement fails, and a FleetBusyException with locationImport.fleetLock if another importer
+	 * is importing the fleet.
 	 */
 	@Override
 	public void storeLocations(long fleetId, AreaType areaType) throws DBConnectException, LocationRepositoryException {
+		importLocations(fleetId, areaType);
+	}
+	@Override
+	public void storeAllLocations(long fleetId) throws DBConnectException, LocationRepositoryException {
+		importLocations(fleetId, null);
+	}
+	@Override
+	public void storeLocationsFromFile(long fleetId, AreaType areaType, Path file) throws DBConnectException, LocationRepositoryException {
+		importLocations(fleetId, areaType, file);
+	}
+	@Override
+	public List<String> findLocationsContaining(long fleetId, double latitude, double longitude) throws LocationRepositoryException {
 		Connection connection = null;
+		GeofenceLookup lookup = null;
 		try {
-			connection = DBConnector.getConnection(url);
-			
-			delete(connection, fleetId, areaType);
-			
-			PreparedStatement ps = null;
-			ResultSet rs = null;
-			String sql = "SELECT id, LocationName, SpeedLimit, IsSafe, SequenceNo, latitude, longitude "+
-						 "FROM LocationsImport "+
-						 "WHERE AreaType = ? "+
-						 "ORDER BY LocationName, SequenceNo ";
-			try {
-				ps = connection.prepareStatement(sql);
-				int i = 1;
-				ps.setString(i,areaType.name);
-				rs = ps.executeQuery();
-				Location currentLocation = null;
-				
-				while (rs.next()) {
-					i = 1;
-					long id = rs.getLong(i++);
-					String locationName = rs.getString(i++);
-					BigDecimal speedLimit = rs.getBigDecimal(i++);
-					boolean isSafe = rs.getInt(i++)==1;
-					int sequenceNo = rs.getInt(i++);
-					BigDecimal latitude = rs.getBigDecimal(i++);
-					BigDecimal longitude = rs.getBigDecimal(i++);
-					if (currentLocation == null || !currentLocation.isSameAs(locationName)) { // Location has changed
-						if (currentLocation != null) {
-							save(connection, fleetId, areaType, currentLocation);
-						}
-						currentLocation = new Location(id, areaType, locationName, sequenceNo, speedLimit, isSafe, latitude, longitude);
-						logger.log(Level.INFO,"Started new location "+locationName);
-					} else {	// This is another point in the existing currentLocation. Make sure the sequenceNo makes sense, otherwise reject it
-						if (currentLocation.isNextInSequence(sequenceNo)) {
-							currentLocation.add(sequenceNo, latitude,longitude);
-							logger.log(Level.INFO,"Added to location "+locationName+" sequenceNo "+sequenceNo+" number of points "+currentLocation.getNumberOfPoints());
-						} else { 
-							currentLocation.markAsBad("Incorrect sequence number "+sequenceNo+" - it should have been 1 more than "+currentLocation.getSequenceNo());
-							logger.log(Level.INFO,"Incorrect sequenceNo "+sequenceNo+" for location "+locationName+" it should have been "+currentLocation.getSequenceNo()+"+1");
-						}
-					}
-				}
-				if (currentLocation != null) {
-					save(connection, fleetId, areaType, currentLocation);
+			connection = getConnection();
+			lookup = new GeofenceLookup(connection);
+			return lookup.findByCells(fleetId, latitude, longitude);
+		} catch (SQLException ex) {
+			String msg = "Unable to find the locations of fleet "+fleetId+" containing "+latitude+","+longitude+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (lookup != null)
+				lookup.close();
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Throwable th) {
 				}
-				
-			} catch (SQLException ex) {
-				String msg = "Unable to select the locations to import for AreaType "+areaType+" using sql "+sql+" : SQLException "+ex.getMessage();
-				logger.log(Level.SEVERE,msg,ex);
-				throw new LocationRepositoryException(msg,ex);
-			} finally {		
-				if (rs != null) {
-					try {
-						rs.close();
-					} catch (Throwable th) {
+				connection = null;
+			}
+		}
+	}
+	@Override
+	public List<ImportJob> claimImportJobs(int max, Set<Long> busyFleets) throws LocationRepositoryException {
+		List<ImportJob> claimed = new ArrayList<>();
+		Set<Long> claimedFleets = new HashSet<>();
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		// The running jobs another importer holds the lease of keep their fleets to themselves
+		String sql = "SELECT id, fleet, area_type, claimed_by FROM fleet_location_import_jobs "
+				+ " WHERE (status = 'queued' OR (status = 'running' AND "+LEASE_EXPIRED+")) "
+				+ " AND fleet NOT IN (SELECT fleet FROM fleet_location_import_jobs WHERE status = 'running' AND lease_expires >= NOW()) "
+				+ " ORDER BY id LIMIT ?";
+		try {
+			connection = getConnection();
+			List<long[]> claimable = new ArrayList<>();
+			List<String> areaTypes = new ArrayList<>();
+			List<String> claimedBy = new ArrayList<>();
+			ps = connection.prepareStatement(sql);
+			ps.setInt(1,max + busyFleets.size() + CLAIM_LOOKAHEAD);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				claimable.add(new long[] {rs.getLong(1), rs.getLong(2)});
+				areaTypes.add(rs.getString(3));
+				claimedBy.add(rs.getString(4));
+			}
+			rs.close();
+			rs = null;
+			ps.close();
+			ps = null;
+			for (int j = 0; j < claimable.size() && claimed.size() < max; j++) {
+				long id = claimable.get(j)[0];
+				long fleetId = claimable.get(j)[1];
+				if (busyFleets.contains(fleetId) || !claimedFleets.add(fleetId))
+					continue;
+				String areaTypeName = areaTypes.get(j);
+				AreaType areaType = null;
+				if (!ALL_AREA_TYPES.equalsIgnoreCase(areaTypeName)) {
+					areaType = parseAreaType(areaTypeName);
+					if (areaType == null) {
+						failJob(connection, id, "Unknown area_type "+areaTypeName);
+						claimedFleets.remove(fleetId);
+						continue;
 					}
-					rs = null;
 				}
-				if (ps != null) {
-					try {
-						ps.close();
-					} catch (Throwable th) {
-					}
-					ps = null;
+				// Another importer may have claimed it since it was read
+				if (claimJob(connection, id, fleetId) == 1) {
+					ImportJob job = new ImportJob(id, fleetId, areaType);
+					if (claimedBy.get(j) != null)
+						logger.log(Level.WARNING,"Took over "+job+" from "+claimedBy.get(j)+", whose lease ran out before it finished");
+					claimed.add(job);
+				} else {
+					claimedFleets.remove(fleetId);
 				}
 			}
+			return claimed;
+		} catch (SQLException ex) {
+			String msg = "Unable to claim the queued import jobs using sql "+sql+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
 		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
 			if (connection != null) {
 				try {
 					connection.close();
@@ -134,91 +233,24 @@ public class LocationRepositoryImpl implements LocationRepository {
 			}
 		}
 	}
-	private void delete(Connection connection, long fleetId, AreaType areaType) throws LocationRepositoryException{
+	@Override
+	public boolean renewImportJobLease(ImportJob job) throws LocationRepositoryException {
+		Connection connection = null;
 		PreparedStatement ps = null;
-		// delete rows that are no longer imported
-		String sql = "DELETE FROM fleet_locations "
-				+ " WHERE fleet = ? "
-				+ " AND vigilPlusImported = 'Y' "
-				+ " AND vigilPlusLocation = ? "
-				+ " AND vigilPlusSpeedArea = ? "
-				+ " AND vigilPlusKeepIn = ? "
-				+ " AND vigilPlusNoGo = ? "
-				+ " AND vigilPlusAreaCollection = ? ";
+		String sql = "UPDATE fleet_location_import_jobs SET lease_expires = TIMESTAMPADD(SECOND, ?, NOW()) WHERE id = ? AND status = 'running' AND claimed_by = ?";
 		try {
-				// Remove any imported ones that are no longer of any type
-				logger.log(Level.INFO,"Deleting locations of type "+areaType);
-				ps = connection.prepareStatement(sql);
-				int i = 1;
-				ps.setLong(i++,fleetId);					
-				switch(areaType) {
-				case AreaCollection:
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					break;
-				case KeepIn:
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					break;
-				case Location:
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					break;
-				case NoGo:
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					break;
-				case SpeedArea:
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					break;
-				}
-				ps.executeUpdate();
-				ps.close();
-				// Update any imported ones that are multiple types to say they are no longer of the given areaType
-				sql = "UPDATE fleet_locations ";
-				switch (areaType) {
-				case AreaCollection:
-					sql += " SET vigilPlusAreaCollection = 'N' ";
-					break;
-				case KeepIn:
-					sql += " SET vigilPlusKeepIn = 'N' ";
-					break;
-				case Location:
-					sql += " SET vigilPlusLocation = 'N' ";
-					break;
-				case NoGo:
-					sql += " SET vigilPlusNoGo = 'N' ";
-					break;
-				case SpeedArea:
-					sql += " SET vigilPlusSpeedArea = 'N' ";
-					break;
-				}
-				sql += " WHERE fleet = ? AND vigilPlusImported = 'Y'";
-				ps = connection.prepareStatement(sql);
-				i = 1;
-				ps.setLong(i++,fleetId);
-				
+			connection = getConnection();
+			ps = connection.prepareStatement(sql);
+			int i = 1;
+			ps.setInt(i++,settings.leaseSeconds());
+			ps.setLong(i++,job.getId());
+			ps.setString(i++,instanceName());
+			return ps.executeUpdate() == 1;
 		} catch (SQLException ex) {
-			String msg = "Unable to delete the fleet_locations for areaType "+areaType+" using sql "+sql+" : SQLException "+ex.getMessage();
+			String msg = "Unable to renew the lease of the import job "+job+" using sql "+sql+" : SQLException "+ex.getMessage();
 			logger.log(Level.SEVERE,msg,ex);
 			throw new LocationRepositoryException(msg,ex);
-		} finally {		
+		} finally {
 			if (ps != null) {
 				try {
 					ps.close();
@@ -226,137 +258,92 @@ public class LocationRepositoryImpl implements LocationRepository {
 				}
 				ps = null;
 			}
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
 		}
 	}
-	private void save(Connection connection, long fleetId, AreaType areaType, Location location) throws LocationRepositoryException{
+	@Override
+	public boolean finishImportJob(ImportJob job, long durationMillis, Throwable failure) throws LocationRepositoryException {
+		Connection connection = null;
 		PreparedStatement ps = null;
-		ResultSet rs = null;
-		String sql = null;
-		
+		String sql = "UPDATE fleet_location_import_jobs SET status = ?, finished = NOW(), duration_millis = ?, message = ?, lease_expires = NULL "
+				+ " WHERE id = ? AND status = 'running' AND claimed_by = ?";
 		try {
-			if (location.isBadRecord()) {
-				updateBadRecord(connection, location);
-			} else {
-				// See if one already exists for the given location but with a different area type
-				sql = "SELECT loc_id FROM fleet_locations "
-				    + " WHERE location_name = ? AND fleet = ? AND vigilPlusImported = 'Y'";
-				ps = connection.prepareStatement(sql);
-				int i = 1;
-				ps.setString(i++,location.getLocationName());
-				ps.setLong(i++,fleetId);
-				rs = ps.executeQuery();
-				if (rs.next()) {
-					logger.log(Level.INFO,"Updating location "+location);
-					long loc_id = rs.getLong(1);
-					rs.close();
-					rs = null;
+			connection = getConnection();
+			ps = connection.prepareStatement(sql);
+			int i = 1;
+			ps.setString(i++,failure == null ? "done" : "failed");
+			ps.setLong(i++,durationMillis);
+			ps.setString(i++,failure == null ? null : jobMessage(String.valueOf(failure.getMessage())));
+			ps.setLong(i++,job.getId());
+			ps.setString(i++,instanceName());
+			return ps.executeUpdate() == 1;
+		} catch (SQLException ex) {
+			String msg = "Unable to record the end of the import job "+job+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (ps != null) {
+				try {
 					ps.close();
-					ps = null;
-					sql = "UPDATE fleet_locations SET ";
-					switch (areaType) {
-					case AreaCollection:
-						sql += "vigilPlusAreaCollection = 'Y'";
-						break;
-					case KeepIn:
-						sql += "vigilPlusKeepIn = 'Y'";
-						break;
-					case Location:
-						sql += "vigilPlusLocation = 'Y'";
-						break;
-					case NoGo:
-						sql += "vigilPlusNoGo = 'Y'";
-						break;
-					case SpeedArea:
-						sql += "vigilPlusSpeedArea = 'Y'";
-						break;
-					}
-					sql += " WHERE loc_id = ? ";
-					ps = connection.prepareStatement(sql);
-					ps.setLong(1,loc_id);
-					ps.execute();
-					return;
+				} catch (Throwable th) {
 				}
-				rs.close();
-				rs = null;
-				ps.close();
 				ps = null;
-				logger.log(Level.INFO,"Inserting location "+location);
-				sql = "INSERT IGNORE INTO fleet_locations(location_name, latitude, longitude, topleft_lat, topleft_long,"
-						+ " bottomright_lat, bottomright_long, complexpoints, fleet, service_loc_flag, corridor_flag, "
-						+ " speed_zone_override, speed_zone_flag, locationcolor, vigilPlusImported, "
-						+ " vigilPlusLocation, vigilPlusSpeedArea, vigilPlusKeepIn, vigilPlusNoGo, vigilPlusAreaCollection) "
-						+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 'Y', ?, ?, ?, ?, ?)";
-				ps = connection.prepareStatement(sql);
-				List<LatLong> cornersAndCentre = location.findCornersAndCentre();
-				LatLong topLeft = cornersAndCentre.get(Location.TOP_LEFT);
-				LatLong bottomRight = cornersAndCentre.get(Location.BOTTOM_RIGHT);
-				LatLong centre = cornersAndCentre.get(Location.CENTRE);
-				i = 1;
-				ps.setString(i++,location.getLocationName());					
-				ps.setBigDecimal(i++,centre.latitude);
-				ps.setBigDecimal(i++,centre.longitude);
-				ps.setBigDecimal(i++,topLeft.latitude);
-				ps.setBigDecimal(i++,topLeft.longitude);
-				ps.setBigDecimal(i++,bottomRight.latitude);
-				ps.setBigDecimal(i++,bottomRight.longitude);
-				ps.setString(i++, location.getComplexPoints());
-				ps.setLong(i++,fleetId);
-				ps.setString(i++,location.isSafe()?"y":"n");
-				ps.setString(i++,location.isCorridor()?"y":"n");
-				ps.setBigDecimal(i++,location.getSpeedLimit());
-				ps.setString(i++,location.isSpeedZoneOverride()?"Y":"N");
-				ps.setString(i++,"#008CFF");
-				switch(areaType) {
-				case AreaCollection:
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					break;
-				case KeepIn:
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					break;
-				case Location:
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					break;
-				case NoGo:
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					break;
-				case SpeedArea:
-					ps.setString(i++,"N");
-					ps.setString(i++,"Y");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					ps.setString(i++,"N");
-					break;
-				}
-				ps.executeUpdate();
 			}
-		} catch (SQLException ex) {
-			String msg = "Unable to insert the fleet_location for location "+location+" using sql "+sql+" : SQLException "+ex.getMessage();
-			logger.log(Level.SEVERE,msg,ex);
-			throw new LocationRepositoryException(msg,ex);
-		} finally {		
-			if (rs != null) {
+			if (connection != null) {
 				try {
-					rs.close();
+					connection.close();
 				} catch (Throwable th) {
 				}
-				rs = null;
+				connection = null;
 			}
+		}
+	}
+	/**
+	 * The AreaType of a job or a file, by its name on the command line or in LocationsImport, null if it is neither
+	 */
+	static AreaType parseAreaType(String name) {
+		for (AreaType areaType : AreaType.values()) {
+			if (areaType.toString().equalsIgnoreCase(name))
+				return areaType;
+		}
+		return AreaType.fromName(name);
+	}
+	/**
+	 * The name this importer claims jobs under, worked out once as it may need the host name to be looked up
+	 */
+	String instanceName() {
+		if (instanceName == null)
+			instanceName = settings.instanceName();
+		return instanceName;
+	}
+	/**
+	 * Marks a job that is queued, or whose lease has run out, as running, claimed by this importer with a new lease,
+	 * unless another job of its fleet is running under a lease that hasn't run out.
+	 * Returns 0 if another importer has claimed it, or a job of its fleet, since it was read.
+	 * MySQL can't read the table an UPDATE changes in a subquery, so the leased fleets are a derived table, grouped so it
+	 * is materialised rather than merged. The rows an UPDATE reads in a subquery are locked, so two importers claiming
+	 * jobs of one fleet at once take turns and the second finds the first's lease.
+	 */
+	int claimJob(Connection connection, long id, long fleetId) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = connection.prepareStatement("UPDATE fleet_location_import_jobs SET status = 'running', started = NOW(), claimed_by = ?, "
+					+ " lease_expires = TIMESTAMPADD(SECOND, ?, NOW()) WHERE id = ? AND (status = 'queued' OR (status = 'running' AND "+LEASE_EXPIRED+")) "
+					+ " AND NOT EXISTS (SELECT 1 FROM (SELECT fleet FROM fleet_location_import_jobs WHERE status = 'running' AND lease_expires >= NOW() GROUP BY fleet) leased "
+					+ "   WHERE leased.fleet = ?)");
+			int i = 1;
+			ps.setString(i++,instanceName());
+			ps.setInt(i++,settings.leaseSeconds());
+			ps.setLong(i++,id);
+			ps.setLong(i++,fleetId);
+			return ps.executeUpdate();
+		} finally {
 			if (ps != null) {
 				try {
 					ps.close();
@@ -366,22 +353,18 @@ public class LocationRepositoryImpl implements LocationRepository {
 			}
 		}
 	}
-	private void updateBadRecord(Connection connection, Location location) throws LocationRepositoryException{
+	/**
+	 * Marks a queued job that can't be run as failed
+	 */
+	private static void failJob(Connection connection, long id, String message) throws SQLException {
 		PreparedStatement ps = null;
-		String sql = "UPDATE LocationsImport set badRecord = 'Y', badRecordReason = ? "
-				+ " WHERE  id = ?";
 		try {
-			logger.log(Level.INFO,"Setting locationName "+location.getLocationName()+" to be a bad record");
-			ps = connection.prepareStatement(sql);
+			ps = connection.prepareStatement("UPDATE fleet_location_import_jobs SET status = 'failed', finished = NOW(), duration_millis = 0, message = ? WHERE id = ? AND status = 'queued'");
 			int i = 1;
-			ps.setString(i++,location.getBadRecordReason());
-			ps.setLong(i++,location.getId());
+			ps.setString(i++,jobMessage(message));
+			ps.setLong(i++,id);
 			ps.executeUpdate();
-		} catch (SQLException ex) {
-			String msg = "Unable to update the LocationsImport record with the badRecordReason for id "+location.getId()+" badRecordReason "+location.getBadRecordReason()+" using sql "+sql+" : SQLException "+ex.getMessage();
-			logger.log(Level.SEVERE,msg,ex);
-			throw new LocationRepositoryException(msg,ex);
-		} finally {		
+		} finally {
 			if (ps != null) {
 				try {
 					ps.close();
@@ -391,4 +374,1104 @@ public class LocationRepositoryImpl implements LocationRepository {
 			}
 		}
 	}
+	private static String jobMessage(String message) {
+		return message != null && message.length() > MAX_JOB_MESSAGE ? message.substring(0, MAX_JOB_MESSAGE) : message;
+	}
+	/**
+	 * areaType is null to import every area type.
+	 * The run report is written whether or not the import succeeds.
+	 */
+	private void importLocations(long fleetId, AreaType areaType) throws DBConnectException, LocationRepositoryException {
+		importLocations(fleetId, areaType, null);
+	}
+	/**
+	 * file is null to import from LocationsImport.
+	 * With locationImport.fleetLock the fleet is locked first, an import of a fleet another importer is importing throws
+	 * a FleetBusyException without changing anything or writing a report.
+	 */
+	private void importLocations(long fleetId, AreaType areaType, Path file) throws DBConnectException, LocationRepositoryException {
+		FleetLock lock = settings.fleetLock ? lockFleet(fleetId) : null;
+		try {
+			ImportMetrics metrics = new ImportMetrics(meterRegistry, fleetId, areaType);
+			Throwable failure = null;
+			try {
+				importLocations(fleetId, areaType, file == null ? null : LocationFileSource.open(file, areaType, metrics), metrics);
+			} catch (DBConnectException | LocationRepositoryException | RuntimeException | Error ex) {
+				failure = ex;
+				throw ex;
+			} finally {
+				if (!settings.reportDirectory.isEmpty())
+					metrics.writeReport(settings.reportDirectory, failure);
+				metrics.close();
+			}
+		} finally {
+			if (lock != null)
+				lock.release();
+		}
+	}
+	/**
+	 * Takes the FleetLock of the fleet on a connection of its own, throws a FleetBusyException if another importer holds it
+	 */
+	private FleetLock lockFleet(long fleetId) throws LocationRepositoryException {
+		FleetLock lock;
+		Connection connection = getConnection();
+		try {
+			lock = FleetLock.acquire(connection, fleetId, settings.fleetLockWaitSeconds);
+		} catch (SQLException ex) {
+			String msg = "Unable to lock fleet "+fleetId+" for the import : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+		if (lock == null) {
+			String msg = "Fleet "+fleetId+" is being imported by another importer, it is locked";
+			logger.log(Level.WARNING,msg);
+			throw new FleetBusyException(msg,null);
+		}
+		return lock;
+	}
+	/**
+	 * fileSource is null to import from LocationsImport. A file is read as it is, the sql engine, bulk loads and
+	 * checkpoints only work from LocationsImport
+	 */
+	private void importLocations(long fleetId, AreaType areaType, LocationFileSource fileSource, ImportMetrics metrics) throws DBConnectException, LocationRepositoryException {
+		boolean fromFile = fileSource != null;
+		SqlImport sqlImport = !fromFile && useSqlEngine(fleetId, areaType) ? new SqlImport(fleetId, areaType, settings.contentHash(), metrics) : null;
+		StagedImport staged = settings.stagedImport ? new StagedImport(fleetId, areaType, metrics) : null;
+		ExistingLocations existing = staged == null && settings.deltaImport ? prepareDeltaImport(fleetId) : null;
+		boolean delta = existing != null;
+		boolean bulk = staged == null && !delta && !fromFile && useBulkLoad(areaType);
+		// A delta import has to see every location and a bulk load commits once at the end, neither is checkpointed.
+		// Nor is an unordered read, a checkpoint is a LocationName that every name before it has been written
+		ImportCheckpoint checkpoint = settings.checkpoint && !delta && !bulk && !fromFile && !settings.unorderedRead ? startCheckpoint(fleetId, areaType) : null;
+		boolean resuming = checkpoint != null && checkpoint.isResuming();
+		if (staged != null) {
+			if (!resuming)
+				clearStaging(staged);
+		} else if (resuming) {
+			// The run being resumed has already deleted what it had to, an upsert finds the rows it wrote without help
+			existing = settings.upsert ? null : prepareResume(fleetId);
+		} else if (!delta) {
+			existing = prepareImport(fleetId, areaType, !bulk && !settings.upsert, metrics);
+		}
+		final ExistingLocations existingLocations = existing;
+		String resumeFrom = resuming ? checkpoint.getResumeFrom() : null;
+		PolygonValidator validator = settings.validate ? new PolygonValidator() : null;
+		PolygonSimplifier simplifier = settings.simplify ? new PolygonSimplifier(settings.simplifyToleranceMetres) : null;
+		// A bulk load is one statement, there is nothing to pace
+		WriteThrottle throttle = settings.throttle && !bulk ? new WriteThrottle("fleet "+fleetId+" areaType "+describe(areaType), settings, settings.writerThreads) : null;
+		if (throttle != null)
+			metrics.throttle(throttle);
+		// The bulk file is written in order by a single writer
+		LocationPipeline pipeline = new LocationPipeline(fleetId+"-"+describe(areaType), bulk ? 1 : settings.writerThreads, settings.queueCapacity);
+		pipeline.run(consumer -> {
+					if (fromFile)
+						fileSource.read(consumer);
+					else if (sqlImport != null)
+						readRemainingLocations(sqlImport, areaType, consumer, metrics);
+					else
+						readLocations(areaType, resumeFrom, checkpoint == null ? consumer : location -> {
+							checkpoint.read(location);
+							consumer.accept(location);
+						}, metrics);
+				}, 
+				() -> bulk ? new BulkSink(fleetId, areaType, validator, simplifier, metrics) : new WriterSink(fleetId, areaType, existingLocations, delta, staged != null, checkpoint, validator, simplifier, throttle, metrics));
+		if (validator != null)
+			validator.logSummary("fleet "+fleetId+" areaType "+describe(areaType));
+		if (simplifier != null)
+			simplifier.logSummary("fleet "+fleetId+" areaType "+describe(areaType));
+		if (staged != null)
+			publish(staged);
+		if (delta)
+			removeUnseen(fleetId, areaType, existingLocations, metrics);
+		// Until the checkpoint is gone a rerun would resume, and a staged one would publish, what is in the staging table
+		if (checkpoint != null)
+			deleteCheckpoint(checkpoint, fleetId, areaType);
+		if (staged != null)
+			clearStaging(staged);
+		if (settings.coverPrecision > 0)
+			removeStaleCells(fleetId);
+	}
+	/**
+	 * Whether the import is to be done by SqlImport, the java engine is used if a setting rules it out
+	 */
+	private boolean useSqlEngine(long fleetId, AreaType areaType) {
+		if (!ImportSettings.ENGINE_SQL.equalsIgnoreCase(settings.engine))
+			return false;
+		String unsupported = SqlImport.unsupportedSetting(settings);
+		if (unsupported != null) {
+			logger.log(Level.WARNING,"Importing fleet "+fleetId+" areaType "+describe(areaType)+" with the java engine, the sql engine can't be used with locationImport."+unsupported);
+			return false;
+		}
+		return true;
+	}
+	/**
+	 * A delta import deletes nothing up front, it loads the existing locations with their content hashes so that only the
+	 * locations that have changed are written. Returns null if there are too many to load, the import must then be a full one.
+	 */
+	private ExistingLocations prepareDeltaImport(long fleetId) throws LocationRepositoryException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			ExistingLocations existing = loadExisting(connection, fleetId);
+			if (existing == null)
+				logger.log(Level.WARNING,"Fleet "+fleetId+" has too many imported locations for a delta import, deleting and importing them all instead");
+			return existing;
+		} finally {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Loads the existing imported locations for an import that is resuming after a failure, so the locations it wrote
+	 * after its last checkpoint are found rather than inserted again. Returns null if there are too many to load.
+	 */
+	private ExistingLocations prepareResume(long fleetId) throws LocationRepositoryException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			return loadExisting(connection, fleetId);
+		} finally {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Reads the checkpoint of an earlier run of the import
+	 */
+	private ImportCheckpoint startCheckpoint(long fleetId, AreaType areaType) throws LocationRepositoryException {
+		long importRows = countImportRows(areaType);
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			return ImportCheckpoint.start(connection, fleetId, areaType, importRows);
+		} catch (SQLException ex) {
+			String msg = "Unable to read the checkpoint of the import for fleet "+fleetId+" AreaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	private void deleteCheckpoint(ImportCheckpoint checkpoint, long fleetId, AreaType areaType) throws LocationRepositoryException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			checkpoint.delete(connection);
+		} catch (SQLException ex) {
+			String msg = "Unable to delete the checkpoint of the import for fleet "+fleetId+" AreaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Once a delta import has written every location it read, removes the existing ones it didn't see:
+	 * they are deleted if this was their only area type, otherwise they just lose the flag for it.
+	 */
+	private void removeUnseen(long fleetId, AreaType areaType, ExistingLocations existing, ImportMetrics metrics) throws LocationRepositoryException {
+		Connection connection = null;
+		LocationWriter writer = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			writer = new LocationWriter(connection, fleetId, areaType, settings, metrics);
+			for (int slot = 0; slot < existing.capacity(); slot++) {
+				if (!existing.inUse(slot) || existing.isSeen(slot))
+					continue;
+				if (areaType == null || existing.flags(slot) == areaType.mask()) {
+					writer.delete(existing.id(slot));
+				} else if ((existing.flags(slot) & areaType.mask()) != 0) {
+					writer.removeAreaType(existing.id(slot));
+				}
+				writer.commitIfDue();
+			}
+			writer.finish();
+		} catch (SQLException ex) {
+			String msg = "Unable to remove the fleet_locations no longer imported for fleet "+fleetId+" areaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (writer != null)
+				writer.close();
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Deletes the staging rows of a staged import
+	 */
+	private void clearStaging(StagedImport staged) throws LocationRepositoryException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			staged.clear(connection);
+		} catch (SQLException ex) {
+			String msg = "Unable to clear the staging table for "+staged+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Publishes the staged locations to fleet_locations in one transaction
+	 */
+	private void publish(StagedImport staged) throws LocationRepositoryException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			staged.publish(connection);
+		} catch (SQLException ex) {
+			String msg = "Unable to publish the staged locations for "+staged+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Deletes the cover cells whose location has been deleted, or replaced by a row with a different content hash
+	 */
+	private void removeStaleCells(long fleetId) throws LocationRepositoryException {
+		Connection connection = null;
+		PreparedStatement ps = null;
+		String sql = "DELETE FROM fleet_location_cells "
+				+ " WHERE fleet = ? "
+				+ " AND NOT EXISTS (SELECT 1 FROM fleet_locations l "
+				+ "   WHERE l.fleet = fleet_location_cells.fleet AND l.location_name = fleet_location_cells.location_name "
+				+ "   AND l.vigilPlusImported = 'Y' AND l.vigilPlusHash = fleet_location_cells.location_hash)";
+		try {
+			connection = getConnection();
+			ps = connection.prepareStatement(sql);
+			ps.setLong(1,fleetId);
+			int deleted = ps.executeUpdate();
+			logger.log(Level.INFO,"Deleted "+deleted+" stale cells of fleet "+fleetId);
+		} catch (SQLException ex) {
+			String msg = "Unable to delete the stale fleet_location_cells of fleet "+fleetId+" using sql "+sql+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Whether there are enough LocationsImport rows to be imported to make it worth writing them with LOAD DATA LOCAL INFILE
+	 */
+	private boolean useBulkLoad(AreaType areaType) throws LocationRepositoryException {
+		if (settings.bulkLoadThreshold <= 0)
+			return false;
+		long rows = countImportRows(areaType);
+		boolean bulk = rows >= settings.bulkLoadThreshold;
+		logger.log(Level.INFO,rows+" LocationsImport rows for areaType "+describe(areaType)+", they will be written "
+				+(bulk ? "with LOAD DATA" : "in batches"));
+		return bulk;
+	}
+	private long countImportRows(AreaType areaType) throws LocationRepositoryException {
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		String sql = "SELECT COUNT(*) FROM LocationsImport";
+		if (areaType != null)
+			sql += " WHERE AreaType = ?";
+		try {
+			connection = getConnection();
+			ps = connection.prepareStatement(sql);
+			if (areaType != null)
+				ps.setString(1,areaType.name);
+			rs = ps.executeQuery();
+			rs.next();
+			return rs.getLong(1);
+		} catch (SQLException ex) {
+			String msg = "Unable to count the LocationsImport rows for AreaType "+describe(areaType)+" using sql "+sql+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Deletes the imported locations that are about to be imported again and, if loadExisting, loads the ones that remain.
+	 * Returns null if they weren't loaded.
+	 * Its connection is handed back before the pipeline starts so an import never holds more than
+	 * writerThreads+1 connections.
+	 */
+	private ExistingLocations prepareImport(long fleetId, AreaType areaType, boolean loadExisting, ImportMetrics metrics) throws LocationRepositoryException {
+		Connection connection = null;
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			
+			if (areaType == null) {
+				deleteAll(connection, fleetId, metrics);
+				commit(connection, fleetId, areaType);
+				return loadExisting ? new ExistingLocations(0) : null; // Every imported row has just been deleted
+			} else {
+				delete(connection, fleetId, areaType, metrics);
+				commit(connection, fleetId, areaType); // The writers use connections of their own and must not wait on the delete's locks
+				return loadExisting ? loadExisting(connection, fleetId) : null;
+			}
+		} catch (SQLException ex) {
+			String msg = "Unable to start a transaction to import the locations for fleet "+fleetId+" AreaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Returns a connection from the pool
+	 */
+	Connection getConnection() throws LocationRepositoryException {
+		try {
+			return dataSource.getConnection();
+		} catch (SQLException ex) {
+			String msg = "Unable to get a connection to the location database : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+	}
+	/**
+	 * Streams the LocationsImport rows of the areaType, or of every area type if it is null, and hands each location
+	 * to the consumer as it is completed. resumeFrom is the LocationName to start from, null for all of them.
+	 * With locationImport.unorderedRead the rows are read in whatever order MySQL finds them and grouped by LocationGrouper,
+	 * the locations are then handed over once every row has been read.
+	 * The rows are read on a connection of their own because no other statement can run on a connection
+	 * while a streaming result set is open on it.
+	 */
+	private void readLocations(AreaType areaType, String resumeFrom, LocationConsumer consumer, ImportMetrics metrics) throws DBConnectException, LocationRepositoryException {
+		Connection readConnection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		boolean unordered = settings.unorderedRead && resumeFrom == null;
+		String sql;
+		if (areaType == null) {
+			sql = "SELECT id, LocationName, SpeedLimit, IsSafe, SequenceNo, latitude, longitude, AreaType "+
+				  "FROM LocationsImport "+
+				  (resumeFrom != null ? "WHERE LocationName >= ? " : "")+
+				  (unordered ? "" : "ORDER BY LocationName, AreaType, SequenceNo ");
+		} else {
+			sql = "SELECT id, LocationName, SpeedLimit, IsSafe, SequenceNo, latitude, longitude "+
+				  "FROM LocationsImport "+
+				  "WHERE AreaType = ? "+
+				  (resumeFrom != null ? "AND LocationName >= ? " : "")+
+				  (unordered ? "" : "ORDER BY LocationName, SequenceNo ");
+		}
+		try {
+			readConnection = getConnection();
+			ps = prepareStreaming(readConnection, sql);
+			int i = 1;
+			if (areaType != null)
+				ps.setString(i++,areaType.name);
+			if (resumeFrom != null)
+				ps.setString(i++,resumeFrom);
+			rs = ps.executeQuery();
+			if (unordered)
+				group(rs, areaType, consumer, metrics);
+			else
+				assemble(rs, areaType, consumer, metrics);
+		} catch (SQLException ex) {
+			String msg = "Unable to select the locations to import for AreaType "+describe(areaType)+" using sql "+sql+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {		
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+			if (readConnection != null) {
+				try {
+					readConnection.close();
+				} catch (Throwable th) {
+				}
+				readConnection = null;
+			}
+		}
+	}
+	/**
+	 * Writes the locations of a SqlImport that can be written by SQL, then streams the rows of the rest and hands each of
+	 * them to the consumer as it is completed, the same as readLocations.
+	 * The temporary tables of the SqlImport are on this connection, so it does the reading as well.
+	 */
+	private void readRemainingLocations(SqlImport sqlImport, AreaType areaType, LocationConsumer consumer, ImportMetrics metrics) throws DBConnectException, LocationRepositoryException {
+		Connection connection = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		String sql = sqlImport.getRemainingRowsSql();
+		try {
+			connection = getConnection();
+			connection.setAutoCommit(false);
+			sqlImport.writeGoodLocations(connection);
+			ps = prepareStreaming(connection, sql);
+			if (areaType != null)
+				ps.setString(1,areaType.name);
+			rs = ps.executeQuery();
+			assemble(rs, areaType, consumer, metrics);
+		} catch (SQLException ex) {
+			String msg = "Unable to import the locations with SQL for "+sqlImport+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+			if (connection != null) {
+				sqlImport.close(connection);
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Reads every row of the result set into locations, merging the area types of a LocationName when areaType is null
+	 */
+	private static void assemble(ResultSet rs, AreaType areaType, LocationConsumer consumer, ImportMetrics metrics) throws SQLException, LocationRepositoryException {
+		AreaTypeMerger merger = null;
+		if (areaType == null) {
+			merger = new AreaTypeMerger(consumer);
+			consumer = merger;
+		}
+		LocationAssembler assembler = new LocationAssembler(areaType, consumer, metrics);
+		assembler.readAll(rs);
+		if (merger != null)
+			merger.finish();
+		logger.log(Level.INFO,"Read "+assembler.getRowsRead()+" rows making "+assembler.getLocationsAssembled()+" locations for areaType "+describe(areaType));
+	}
+	/**
+	 * Reads every row of the result set, in any order, into locations, merging the area types of a LocationName when areaType is null
+	 */
+	private void group(ResultSet rs, AreaType areaType, LocationConsumer consumer, ImportMetrics metrics) throws SQLException, LocationRepositoryException {
+		AreaTypeMerger merger = null;
+		if (areaType == null) {
+			merger = new AreaTypeMerger(consumer);
+			consumer = merger;
+		}
+		LocationGrouper grouper = new LocationGrouper(areaType, consumer, metrics, settings.groupingMemoryMegabytes * 1024L * 1024L,
+				settings.spillDirectory.isEmpty() ? null : new File(settings.spillDirectory));
+		grouper.readAll(rs);
+		if (merger != null)
+			merger.finish();
+		logger.log(Level.INFO,"Read "+grouper.getRowsRead()+" unordered rows making "+grouper.getLocationsAssembled()+" locations for areaType "+describe(areaType)
+				+(grouper.getSpilledRows() > 0 ? ", spilling "+grouper.getSpilledRows()+" rows" : ""));
+	}
+	/**
+	 * One writer of the pipeline, with a connection and LocationWriter of its own
+	 */
+	private class WriterSink implements LocationSink {
+		private final long fleetId;
+		private final AreaType areaType;
+		private final ExistingLocations existing;
+		private final boolean delta;
+		private final boolean staged;
+		private final ImportCheckpoint checkpoint;
+		// The ordinals of the locations written since the last commit, for the checkpoint
+		private final List<Long> uncommitted = new ArrayList<>();
+		private final PolygonValidator validator;
+		private final PolygonSimplifier simplifier;
+		private final WriteThrottle throttle;
+		private final ImportMetrics metrics;
+		private Connection connection;
+		private LocationWriter writer;
+		
+		/**
+		 * checkpoint is null if the import is not checkpointed, validator is null if the geometry is not checked,
+		 * simplifier is null if the locations are written as they were read, throttle is null if the writers aren't paced
+		 */
+		WriterSink(long fleetId, AreaType areaType, ExistingLocations existing, boolean delta, boolean staged, ImportCheckpoint checkpoint, PolygonValidator validator, PolygonSimplifier simplifier, WriteThrottle throttle, ImportMetrics metrics) throws DBConnectException, LocationRepositoryException {
+			this.fleetId = fleetId;
+			this.areaType = areaType;
+			this.existing = existing;
+			this.delta = delta;
+			this.staged = staged;
+			this.checkpoint = checkpoint;
+			this.validator = validator;
+			this.simplifier = simplifier;
+			this.throttle = throttle;
+			this.metrics = metrics;
+			connection = getConnection();
+			try {
+				connection.setAutoCommit(false);
+			} catch (SQLException ex) {
+				close();
+				String msg = "Unable to start a transaction to write the locations for fleet "+fleetId+" AreaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			}
+			writer = new LocationWriter(connection, fleetId, areaType, settings, metrics, throttle);
+		}
+		@Override
+		public void accept(Location location) throws LocationRepositoryException {
+			if (throttle == null) {
+				write(location);
+				return;
+			}
+			try {
+				throttle.acquire();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				String msg = "Interrupted waiting to write the fleet_locations for fleet "+fleetId+" areaType "+describe(areaType);
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			}
+			try {
+				write(location);
+			} finally {
+				throttle.release();
+			}
+		}
+		private void write(Location location) throws LocationRepositoryException {
+			long start = System.nanoTime();
+			if (validator != null && !location.isBadRecord())
+				validator.validate(location);
+			if (location.isBadRecord())
+				metrics.bad();
+			else if (simplifier != null)
+				simplifier.simplify(location);
+			if (staged)
+				stage(writer, location);
+			else if (delta)
+				saveChanges(writer, existing, areaType, location);
+			else
+				save(connection, writer, existing, fleetId, areaType, location);
+			if (checkpoint != null)
+				uncommitted.add(location.ordinal);
+			try {
+				if (writer.commitIfDue())
+					saveCheckpoint();
+			} catch (SQLException ex) {
+				String msg = "Unable to commit the fleet_locations for fleet "+fleetId+" areaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			}
+			metrics.written(System.nanoTime() - start);
+		}
+		@Override
+		public void finish() throws LocationRepositoryException {
+			LocationRepositoryImpl.this.finish(writer, fleetId, areaType);
+			try {
+				saveCheckpoint();
+			} catch (SQLException ex) {
+				String msg = "Unable to save the checkpoint for fleet "+fleetId+" areaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			}
+		}
+		/**
+		 * Reports the locations written since the last commit as committed and saves the checkpoint
+		 */
+		private void saveCheckpoint() throws SQLException {
+			if (checkpoint == null)
+				return;
+			checkpoint.committed(uncommitted);
+			uncommitted.clear();
+			checkpoint.save(connection);
+		}
+		@Override
+		public void close() {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * The single writer of a bulk import, it writes the locations to a LocationBulkWriter that loads them all at the end
+	 */
+	private class BulkSink implements LocationSink {
+		private final long fleetId;
+		private final AreaType areaType;
+		private final PolygonValidator validator;
+		private final PolygonSimplifier simplifier;
+		private final ImportMetrics metrics;
+		private Connection connection;
+		private LocationBulkWriter writer;
+		// Writes the bad records and the cells of the cover, which aren't bulk loaded
+		private LocationWriter batches;
+		
+		BulkSink(long fleetId, AreaType areaType, PolygonValidator validator, PolygonSimplifier simplifier, ImportMetrics metrics) throws DBConnectException, LocationRepositoryException {
+			this.fleetId = fleetId;
+			this.areaType = areaType;
+			this.validator = validator;
+			this.simplifier = simplifier;
+			this.metrics = metrics;
+			connection = getConnection();
+			try {
+				connection.setAutoCommit(false);
+				writer = new LocationBulkWriter(connection, fleetId, areaType, settings, metrics);
+				batches = new LocationWriter(connection, fleetId, areaType, settings, metrics);
+			} catch (SQLException | IOException ex) {
+				close();
+				String msg = "Unable to start the bulk load of the locations for fleet "+fleetId+" AreaType "+describe(areaType)+" : "+ex.getClass().getSimpleName()+" "+ex.getMessage();
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			}
+		}
+		@Override
+		public void accept(Location location) throws LocationRepositoryException {
+			long start = System.nanoTime();
+			if (validator != null && !location.isBadRecord())
+				validator.validate(location);
+			if (location.isBadRecord()) {
+				metrics.bad();
+				try {
+					batches.updateBadRecord(location);
+					batches.commitIfDue();
+				} catch (SQLException ex) {
+					String msg = "Unable to update the LocationsImport record with the badRecordReason for id "+location.getId()+" badRecordReason "+location.getBadRecordReason()+" : SQLException "+ex.getMessage();
+					logger.log(Level.SEVERE,msg,ex);
+					throw new LocationRepositoryException(msg,ex);
+				}
+				metrics.written(System.nanoTime() - start);
+				return;
+			}
+			if (simplifier != null)
+				simplifier.simplify(location);
+			try {
+				writer.add(location);
+				// A row already imported for another area type keeps its points, the cells written here then have
+				// the wrong hash and are removed with the stale ones
+				batches.addCover(location, batches.contentHash(location));
+				batches.commitIfDue();
+				metrics.written(System.nanoTime() - start);
+			} catch (IOException ex) {
+				String msg = "Unable to write the location "+location+" to the bulk load file : IOException "+ex.getMessage();
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			} catch (SQLException ex) {
+				String msg = "Unable to write the cover of the location "+location+" : SQLException "+ex.getMessage();
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			}
+		}
+		@Override
+		public void finish() throws LocationRepositoryException {
+			LocationRepositoryImpl.this.finish(batches, fleetId, areaType);
+			try {
+				writer.finish();
+			} catch (SQLException | IOException ex) {
+				String msg = "Unable to bulk load the "+writer.getRows()+" fleet_locations for fleet "+fleetId+" areaType "+describe(areaType)+" : "+ex.getClass().getSimpleName()+" "+ex.getMessage();
+				logger.log(Level.SEVERE,msg,ex);
+				throw new LocationRepositoryException(msg,ex);
+			}
+		}
+		@Override
+		public void close() {
+			if (writer != null) {
+				writer.close();
+				writer = null;
+			}
+			if (batches != null) {
+				batches.close();
+				batches = null;
+			}
+			if (connection != null) {
+				rollback(connection);
+				try {
+					connection.close();
+				} catch (Throwable th) {
+				}
+				connection = null;
+			}
+		}
+	}
+	/**
+	 * Prepares a forward only, read only query whose rows are fetched the way locationImport.readMode says:
+	 * stream - Connector/J hands over the rows one at a time as they arrive (fetch size Integer.MIN_VALUE)
+	 * cursor - a server side cursor is read locationImport.fetchSize rows at a time (needs useCursorFetch=true, which is added to the url)
+	 * buffered - the whole result set is read into memory before the first row is returned, the driver's default
+	 */
+	PreparedStatement prepareStreaming(Connection connection, String sql) throws SQLException {
+		PreparedStatement ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		int fetchSize = fetchSize();
+		if (fetchSize != 0)
+			ps.setFetchSize(fetchSize);
+		return ps;
+	}
+	private int fetchSize() {
+		switch (settings.readMode) {
+		case ImportSettings.READ_MODE_STREAM:
+			return Integer.MIN_VALUE;
+		case ImportSettings.READ_MODE_CURSOR:
+			return settings.fetchSize;
+		default:
+			return 0;
+		}
+	}
+	/**
+	 * Deletes every imported location of the fleet, ready for all of the area types to be imported again
+	 */
+	private void deleteAll(Connection connection, long fleetId, ImportMetrics metrics) throws LocationRepositoryException{
+		PreparedStatement ps = null;
+		String sql = "DELETE FROM fleet_locations "
+				+ " WHERE fleet = ? "
+				+ " AND vigilPlusImported = 'Y' ";
+		try {
+			logger.log(Level.INFO,"Deleting all imported locations of fleet "+fleetId);
+			ps = connection.prepareStatement(sql);
+			ps.setLong(1,fleetId);
+			int deleted = ps.executeUpdate();
+			metrics.deleted(deleted);
+			logger.log(Level.INFO,"Deleted "+deleted+" imported locations of fleet "+fleetId);
+		} catch (SQLException ex) {
+			String msg = "Unable to delete the imported fleet_locations of fleet "+fleetId+" using sql "+sql+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {		
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	/**
+	 * Deletes the imported rows of the fleet whose only area type is areaType and clears its flag on the rest, which are
+	 * of other area types too. The rows still of the areaType get the flag back as they are written.
+	 */
+	private void delete(Connection connection, long fleetId, AreaType areaType, ImportMetrics metrics) throws LocationRepositoryException{
+		PreparedStatement ps = null;
+		String flag = LocationWriter.flagColumn(areaType);
+		StringBuilder onlyAreaType = new StringBuilder();
+		for (AreaType type : LocationWriter.FLAG_ORDER)
+			onlyAreaType.append(" AND ").append(LocationWriter.flagColumn(type)).append(" = ? ");
+		String sql = "DELETE FROM fleet_locations "
+				+ " WHERE fleet = ? "
+				+ " AND vigilPlusImported = 'Y' "
+				+ onlyAreaType;
+		try {
+			logger.log(Level.INFO,"Deleting locations of type "+areaType);
+			ps = connection.prepareStatement(sql);
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			for (AreaType type : LocationWriter.FLAG_ORDER)
+				ps.setString(i++,type == areaType ? "Y" : "N");
+			metrics.deleted(ps.executeUpdate());
+			ps.close();
+			ps = null;
+			sql = "UPDATE fleet_locations SET "+flag+" = 'N' "
+					+ " WHERE fleet = ? AND vigilPlusImported = 'Y' AND "+flag+" = 'Y'";
+			ps = connection.prepareStatement(sql);
+			ps.setLong(1,fleetId);
+			int cleared = ps.executeUpdate();
+			metrics.flagRemoved(cleared);
+			logger.log(Level.INFO,"Cleared the "+flag+" flag of "+cleared+" locations of fleet "+fleetId+" that are of other types too");
+		} catch (SQLException ex) {
+			String msg = "Unable to delete the fleet_locations for areaType "+areaType+" using sql "+sql+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {		
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	private ExistingLocations loadExisting(Connection connection, long fleetId) throws LocationRepositoryException {
+		try {
+			return ExistingLocations.load(prepareStreaming(connection, ExistingLocations.selectSql(settings.contentHash())), fleetId, settings.preloadMaxLocations);
+		} catch (SQLException ex) {
+			String msg = "Unable to load the existing imported fleet_locations for fleet "+fleetId+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+	}
+	/**
+	 * Writes the location to the staging table of a staged import
+	 */
+	private void stage(LocationWriter writer, Location location) throws LocationRepositoryException {
+		try {
+			if (location.isBadRecord())
+				writer.updateBadRecord(location);
+			else
+				writer.stage(location);
+		} catch (SQLException ex) {
+			String msg = "Unable to stage the fleet_location for location "+location+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+	}
+	/**
+	 * Writes the location only if it is new or has changed since the last import, judged by its content hash.
+	 * When a single areaType is imported, a row that belongs to other area types too keeps its points and
+	 * only has the flag set, the same as a full import leaves it.
+	 */
+	private void saveChanges(LocationWriter writer, ExistingLocations existing, AreaType areaType, Location location) throws LocationRepositoryException {
+		try {
+			if (location.isBadRecord()) {
+				writer.updateBadRecord(location);
+				return;
+			}
+			int slot = existing.find(location.getLocationName());
+			if (slot == ExistingLocations.NO_SLOT) {
+				if (logger.isLoggable(Level.FINE))
+					logger.log(Level.FINE,"Inserting location "+location);
+				writer.insert(location);
+				return;
+			}
+			existing.markSeen(slot);
+			long locId = existing.id(slot);
+			if (areaType == null) {
+				if (existing.hash(slot) != writer.contentHash(location)) {
+					if (logger.isLoggable(Level.FINE))
+						logger.log(Level.FINE,"Replacing changed location "+location);
+					writer.replace(locId, location);
+				}
+			} else if ((existing.flags(slot) & areaType.mask()) == 0) {
+				if (logger.isLoggable(Level.FINE))
+					logger.log(Level.FINE,"Updating location "+location);
+				writer.addAreaType(locId);
+			} else if (existing.flags(slot) == areaType.mask() && existing.hash(slot) != writer.contentHash(location)) {
+				if (logger.isLoggable(Level.FINE))
+					logger.log(Level.FINE,"Replacing changed location "+location);
+				writer.replace(locId, location);
+			}
+		} catch (SQLException ex) {
+			String msg = "Unable to write the changes to the fleet_location for location "+location+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+	}
+	/**
+	 * A single areaType import flags a row that already exists as also being of the areaType.
+	 * An import of every area type only finds rows when it is resuming, written by the run it resumes, and writes them again.
+	 */
+	private static void saveExisting(LocationWriter writer, AreaType areaType, long locId, Location location) throws SQLException {
+		if (areaType == null) {
+			if (logger.isLoggable(Level.FINE))
+				logger.log(Level.FINE,"Replacing location "+location);
+			writer.replace(locId, location);
+		} else {
+			if (logger.isLoggable(Level.FINE))
+				logger.log(Level.FINE,"Updating location "+location);
+			writer.addAreaType(locId);
+		}
+	}
+	/**
+	 * With locationImport.upsert each location is a single statement, otherwise the row of its name is looked for first.
+	 * existing is null if there were too many locations to preload, in which case the database is queried instead
+	 */
+	private void save(Connection connection, LocationWriter writer, ExistingLocations existing, long fleetId, AreaType areaType, Location location) throws LocationRepositoryException{
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		String sql = null;
+		
+		try {
+			if (location.isBadRecord()) {
+				sql = LocationWriter.BAD_RECORD_SQL;
+				writer.updateBadRecord(location);
+			} else if (settings.upsert) {
+				if (logger.isLoggable(Level.FINE))
+					logger.log(Level.FINE,"Upserting location "+location);
+				sql = LocationWriter.upsertSql(areaType);
+				writer.upsert(location);
+			} else if (existing != null) {
+				// See if one already exists for the given location but with a different area type
+				long loc_id = existing.findId(location.getLocationName());
+				if (loc_id != ExistingLocations.NOT_FOUND) {
+					saveExisting(writer, areaType, loc_id, location);
+					return;
+				}
+				if (logger.isLoggable(Level.FINE))
+					logger.log(Level.FINE,"Inserting location "+location);
+				sql = LocationWriter.INSERT_SQL;
+				writer.insert(location);
+			} else {
+				// See if one already exists for the given location but with a different area type
+				sql = "SELECT loc_id FROM fleet_locations "
+				    + " WHERE location_name = ? AND fleet = ? AND vigilPlusImported = 'Y'";
+				ps = connection.prepareStatement(sql);
+				int i = 1;
+				ps.setString(i++,location.getLocationName());
+				ps.setLong(i++,fleetId);
+				rs = ps.executeQuery();
+				if (rs.next()) {
+					long loc_id = rs.getLong(1);
+					saveExisting(writer, areaType, loc_id, location);
+					return;
+				}
+				if (logger.isLoggable(Level.FINE))
+					logger.log(Level.FINE,"Inserting location "+location);
+				sql = LocationWriter.INSERT_SQL;
+				writer.insert(location);
+			}
+		} catch (SQLException ex) {
+			String msg = "Unable to insert the fleet_location for location "+location+" using sql "+sql+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		} finally {		
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	private void commit(Connection connection, long fleetId, AreaType areaType) throws LocationRepositoryException {
+		try {
+			connection.commit();
+		} catch (SQLException ex) {
+			String msg = "Unable to commit the deletion of fleet_locations for fleet "+fleetId+" areaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+	}
+	private void finish(LocationWriter writer, long fleetId, AreaType areaType) throws LocationRepositoryException {
+		try {
+			writer.finish();
+		} catch (SQLException ex) {
+			String msg = "Unable to write the last batch of fleet_locations for fleet "+fleetId+" areaType "+describe(areaType)+" : SQLException "+ex.getMessage();
+			logger.log(Level.SEVERE,msg,ex);
+			throw new LocationRepositoryException(msg,ex);
+		}
+	}
+	static String describe(AreaType areaType) {
+		return areaType == null ? ALL_AREA_TYPES : areaType.toString();
+	}
+	/**
+	 * Throws away anything written since the last commit. Does nothing if the import finished and committed.
+	 */
+	private void rollback(Connection connection) {
+		try {
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		} catch (Throwable th) {
+		}
+	}
 }
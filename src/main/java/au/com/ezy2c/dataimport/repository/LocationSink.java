@@ -0,0 +1,21 @@
+package au.com.ezy2c.dataimport.repository;
+
+import au.com.ezy2c.common.DBConnectException;
+
+/**
+ * Writes Locations on a connection of its own. Used by one writer thread of a LocationPipeline.
+ */
+interface LocationSink extends LocationConsumer {
+	/**
+	 * Called once every location has been accepted, writes and commits anything outstanding
+	 */
+	void finish() throws LocationRepositoryException;
+	/**
+	 * Always called, rolls back anything not yet committed and releases the connection
+	 */
+	void close();
+	
+	interface Factory {
+		LocationSink create() throws DBConnectException, LocationRepositoryException;
+	}
+}
@@ -0,0 +1,10 @@
+package au.com.ezy2c.dataimport.repository;
+
+import au.com.ezy2c.common.DBConnectException;
+
+/**
+ * Produces the Locations to be imported, handing each one to the consumer as soon as it is complete
+ */
+interface LocationSource {
+	void read(LocationConsumer consumer) throws DBConnectException, LocationRepositoryException;
+}
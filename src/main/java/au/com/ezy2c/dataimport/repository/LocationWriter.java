@@ -0,0 +1,432 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Writes the fleet_locations rows for one import using JDBC batches.
+ * Each kind of statement (INSERT, flag UPDATE and so on) is queued with addBatch and sent once batchSize of them are waiting.
+ * The connection must have autocommit turned off. It is committed by commitIfDue, once commitInterval rows have been queued,
+ * and by finish().
+ * areaType is null when every area type is imported at once, the flags of an inserted row come from the location itself.
+ * With a WriteThrottle the batch size and commit interval are the throttle's, and it is told the time of each batch and commit.
+ */
+class LocationWriter {
+	static Logger logger = Logger.getLogger(LocationWriter.class.getSimpleName());
+	
+	// The columns of a new row and their values, set by setRow
+	private static final String ROW_COLUMNS = "location_name, latitude, longitude, topleft_lat, topleft_long,"
+			+ " bottomright_lat, bottomright_long, complexpoints, fleet, service_loc_flag, corridor_flag, "
+			+ " speed_zone_override, speed_zone_flag, locationcolor, vigilPlusImported, "
+			+ " vigilPlusLocation, vigilPlusSpeedArea, vigilPlusKeepIn, vigilPlusNoGo, vigilPlusAreaCollection";
+	private static final String ROW_VALUES = "?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 'Y', ?, ?, ?, ?, ?";
+	// The same with the content hash, written only by the imports that compare it, see ImportSettings.contentHash
+	private static final String HASH_ROW_COLUMNS = ROW_COLUMNS+", vigilPlusHash";
+	private static final String HASH_ROW_VALUES = ROW_VALUES+", ?";
+	static final String INSERT_SQL = "INSERT IGNORE INTO fleet_locations("+ROW_COLUMNS+") VALUES ("+ROW_VALUES+")";
+	static final String HASH_INSERT_SQL = "INSERT IGNORE INTO fleet_locations("+HASH_ROW_COLUMNS+") VALUES ("+HASH_ROW_VALUES+")";
+	static final String STAGE_SQL = "INSERT IGNORE INTO "+StagedImport.STAGING_TABLE+"("+HASH_ROW_COLUMNS+", import_area_type) VALUES ("+HASH_ROW_VALUES+", ?)";
+	// The area types in the order of their vigilPlus flag columns, here and in the other writers
+	static final AreaType[] FLAG_ORDER = {AreaType.Location, AreaType.SpeedArea, AreaType.KeepIn, AreaType.NoGo, AreaType.AreaCollection};
+	private static final String REPLACE_COLUMNS = "UPDATE fleet_locations SET latitude = ?, longitude = ?, topleft_lat = ?, topleft_long = ?,"
+			+ " bottomright_lat = ?, bottomright_long = ?, complexpoints = ?, service_loc_flag = ?, corridor_flag = ?, "
+			+ " speed_zone_override = ?, speed_zone_flag = ?, "
+			+ " vigilPlusLocation = ?, vigilPlusSpeedArea = ?, vigilPlusKeepIn = ?, vigilPlusNoGo = ?, vigilPlusAreaCollection = ?";
+	static final String REPLACE_SQL = REPLACE_COLUMNS+" WHERE loc_id = ?";
+	static final String HASH_REPLACE_SQL = REPLACE_COLUMNS+", vigilPlusHash = ? WHERE loc_id = ?";
+	static final String DELETE_SQL = "DELETE FROM fleet_locations WHERE loc_id = ?";
+	static final String CELL_SQL = "INSERT IGNORE INTO fleet_location_cells(fleet, cell, location_name, location_hash, full_cell) VALUES (?, ?, ?, ?, ?)";
+	static final String BAD_RECORD_SQL = "UPDATE LocationsImport set badRecord = 'Y', badRecordReason = ? WHERE id = ?";
+	
+	private final Connection connection;
+	private final long fleetId;
+	private final AreaType areaType;
+	private final int batchSize;
+	private final int commitInterval;
+	private final boolean polyline;
+	private final ImportMetrics metrics;
+	private final String description;
+	private final GeohashCover cover;
+	private final String upsertSql;
+	// Whether vigilPlusHash is written, see ImportSettings.contentHash
+	private final boolean contentHash;
+	private final WriteThrottle throttle;
+	
+	private final Batch inserts = new Batch("inserts");
+	private final Batch upserts = new Batch("upserts");
+	private final Batch staged = new Batch("staged rows");
+	private final Batch flagsSet = new Batch("flag updates");
+	private final Batch replacements = new Batch("replacements");
+	private final Batch flagsCleared = new Batch("flag removals");
+	private final Batch deletions = new Batch("deletions");
+	private final Batch badRecords = new Batch("bad records");
+	private final Batch cells = new Batch("cells");
+	private int rowsSinceCommit;
+	private int rowsQueued;
+	// Statistics for the run summary
+	private long batches;
+	private long rowsBatched;
+	private long commits;
+	private long rowsCommitted;
+	
+	LocationWriter(Connection connection, long fleetId, AreaType areaType, ImportSettings settings, ImportMetrics metrics) {
+		this(connection, fleetId, areaType, settings, metrics, null);
+	}
+	/**
+	 * throttle is null if the batch size and commit interval are the settings'
+	 */
+	LocationWriter(Connection connection, long fleetId, AreaType areaType, ImportSettings settings, ImportMetrics metrics, WriteThrottle throttle) {
+		this.connection = connection;
+		this.fleetId = fleetId;
+		this.areaType = areaType;
+		this.batchSize = Math.max(1, settings.batchSize);
+		this.commitInterval = Math.max(1, settings.commitInterval);
+		this.polyline = settings.polylineComplexPoints();
+		this.metrics = metrics;
+		this.description = "fleet "+fleetId+" areaType "+LocationRepositoryImpl.describe(areaType);
+		this.cover = settings.coverPrecision > 0 ? new GeohashCover(settings.coverPrecision, settings.coverMaxCells) : null;
+		this.upsertSql = upsertSql(areaType);
+		this.contentHash = settings.contentHash();
+		this.throttle = throttle;
+	}
+	/**
+	 * Queues an INSERT of a new fleet_locations row for the location
+	 */
+	void insert(Location location) throws SQLException {
+		PreparedStatement ps = inserts.statement(contentHash ? HASH_INSERT_SQL : INSERT_SQL);
+		long hash = setRow(ps, location, contentHash);
+		inserts.add();
+		metrics.inserted(1);
+		addCover(location, hash);
+	}
+	/**
+	 * Queues the single statement that writes the location whether or not its name has been imported before, see upsertSql
+	 */
+	void upsert(Location location) throws SQLException {
+		PreparedStatement ps = upserts.statement(upsertSql);
+		long hash = setRow(ps, location, true);
+		upserts.add();
+		metrics.upserted(1);
+		addCover(location, hash);
+	}
+	/**
+	 * An INSERT of a new row that, when the unique (fleet, location_name) key finds an imported row of the name already
+	 * there, does what LocationRepositoryImpl.saveExisting does with it: flags it as also being of the areaType, or
+	 * overwrites it when every area type is imported. A location of the name that wasn't imported is left as it is.
+	 * Needs the key, see sql/fleet_locations_unique_name.sql, and writes the content hash
+	 */
+	static String upsertSql(AreaType areaType) {
+		String[] columns = areaType == null ? new String[] {"latitude", "longitude", "topleft_lat", "topleft_long", "bottomright_lat", "bottomright_long",
+				"complexpoints", "service_loc_flag", "corridor_flag", "speed_zone_override", "speed_zone_flag",
+				"vigilPlusLocation", "vigilPlusSpeedArea", "vigilPlusKeepIn", "vigilPlusNoGo", "vigilPlusAreaCollection", "vigilPlusHash"}
+				: new String[] {flagColumn(areaType)};
+		StringBuilder sql = new StringBuilder("INSERT INTO fleet_locations("+HASH_ROW_COLUMNS+") VALUES ("+HASH_ROW_VALUES+") ON DUPLICATE KEY UPDATE ");
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append(columns[i]).append(" = IF(vigilPlusImported = 'Y', ").append(areaType == null ? "VALUES("+columns[i]+")" : "'Y'")
+					.append(", ").append(columns[i]).append(")");
+		}
+		return sql.toString();
+	}
+	/**
+	 * Queues an INSERT of the row for the location into the staging table of a StagedImport
+	 */
+	void stage(Location location) throws SQLException {
+		PreparedStatement ps = staged.statement(STAGE_SQL);
+		long hash = setRow(ps, location, true);
+		ps.setString(ROW_PARAMETERS + 2,LocationRepositoryImpl.describe(areaType));
+		staged.add();
+		addCover(location, hash);
+	}
+	/**
+	 * Queues an UPDATE that overwrites the points, flags and area types of an existing row with those of the location
+	 */
+	void replace(long locId, Location location) throws SQLException {
+		PreparedStatement ps = replacements.statement(contentHash ? HASH_REPLACE_SQL : REPLACE_SQL);
+		String complexPoints = complexPoints(location);
+		int i = setGeometry(ps, 1, location, complexPoints);
+		ps.setString(i++,location.isSafe()?"y":"n");
+		ps.setString(i++,location.isCorridor()?"y":"n");
+		ps.setBigDecimal(i++,location.getSpeedLimit());
+		ps.setString(i++,location.isSpeedZoneOverride()?"Y":"N");
+		i = setAreaTypes(ps, i, location);
+		long hash = location.getContentHash(complexPoints);
+		if (contentHash)
+			ps.setLong(i++,hash);
+		ps.setLong(i++,locId);
+		replacements.add();
+		metrics.replaced(1);
+		addCover(location, hash);
+	}
+	/**
+	 * Queues an UPDATE that flags an existing imported row as also being of this areaType
+	 */
+	void addAreaType(long locId) throws SQLException {
+		PreparedStatement ps = flagsSet.statement("UPDATE fleet_locations SET "+flagColumn(areaType)+" = 'Y' WHERE loc_id = ? ");
+		ps.setLong(1,locId);
+		flagsSet.add();
+		metrics.updated(1);
+	}
+	/**
+	 * Queues an UPDATE that says an existing imported row is no longer of this areaType
+	 */
+	void removeAreaType(long locId) throws SQLException {
+		PreparedStatement ps = flagsCleared.statement("UPDATE fleet_locations SET "+flagColumn(areaType)+" = 'N' WHERE loc_id = ? ");
+		ps.setLong(1,locId);
+		flagsCleared.add();
+		metrics.flagRemoved(1);
+	}
+	/**
+	 * Queues a DELETE of an existing row
+	 */
+	void delete(long locId) throws SQLException {
+		PreparedStatement ps = deletions.statement(DELETE_SQL);
+		ps.setLong(1,locId);
+		deletions.add();
+		metrics.deleted(1);
+	}
+	/**
+	 * Queues the INSERTs of the geohash cover of the location, if there is to be one, tagged with the content hash
+	 * of the row being written. The cells of the row it replaces have the old hash, they are left for
+	 * LocationRepositoryImpl.removeStaleCells to delete once the import is done.
+	 */
+	void addCover(Location location, long hash) throws SQLException {
+		if (cover == null)
+			return;
+		for (GeohashCover.Cell cell : cover.cover(location)) {
+			PreparedStatement ps = cells.statement(CELL_SQL);
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			ps.setString(i++,cell.geohash);
+			ps.setString(i++,location.getLocationName());
+			ps.setLong(i++,hash);
+			ps.setString(i++,cell.full?"Y":"N");
+			cells.add();
+		}
+	}
+	/**
+	 * Queues an UPDATE that marks the LocationsImport row of the location as a bad record, with its reason.
+	 * A location read from a file has no row, it is logged instead.
+	 */
+	void updateBadRecord(Location location) throws SQLException {
+		if (location.source != null) {
+			logger.log(Level.WARNING,"Location "+location.getLocationName()+" at "+location.source+" is a bad record : "+location.getBadRecordReason());
+			return;
+		}
+		logger.log(Level.INFO,"Setting locationName "+location.getLocationName()+" to be a bad record");
+		PreparedStatement ps = badRecords.statement(BAD_RECORD_SQL);
+		int i = 1;
+		ps.setString(i++,location.getBadRecordReason());
+		ps.setLong(i++,location.getId());
+		badRecords.add();
+	}
+	/**
+	 * Sends every batch and commits if commitInterval rows have been queued since the last commit, returns true if it committed.
+	 * Called between locations, so a commit never holds only some of the rows of a location.
+	 */
+	boolean commitIfDue() throws SQLException {
+		if (rowsQueued < (throttle == null ? commitInterval : throttle.commitInterval()))
+			return false;
+		executeAll();
+		commit();
+		return true;
+	}
+	private void executeAll() throws SQLException {
+		inserts.execute();
+		upserts.execute();
+		staged.execute();
+		replacements.execute();
+		flagsSet.execute();
+		flagsCleared.execute();
+		deletions.execute();
+		badRecords.execute();
+		cells.execute();
+	}
+	/**
+	 * Sends whatever is waiting in the batches and commits everything written so far
+	 */
+	void finish() throws SQLException {
+		executeAll();
+		if (rowsSinceCommit > 0)
+			commit();
+		logger.log(Level.INFO,"Wrote "+rowsBatched+" rows in "+batches+" batches ("+average(rowsBatched,batches)+" rows per batch) and "
+				+commits+" commits ("+average(rowsCommitted,commits)+" rows per commit) for "+description
+				+" : "+inserts.rows+" inserts, "+upserts.rows+" upserts, "+staged.rows+" staged rows, "+replacements.rows+" replacements, "+flagsSet.rows+" flag updates, "
+				+flagsCleared.rows+" flag removals, "+deletions.rows+" deletions, "+badRecords.rows+" bad records, "+cells.rows+" cells");
+	}
+	void close() {
+		inserts.close();
+		upserts.close();
+		staged.close();
+		replacements.close();
+		flagsSet.close();
+		flagsCleared.close();
+		badRecords.close();
+		cells.close();
+		deletions.close();
+	}
+	/**
+	 * The complexpoints value written for the location in the configured format.
+	 * Points with more than 7 decimal places don't fit the polyline format and are written as text.
+	 */
+	String complexPoints(Location location) {
+		return complexPoints(location, polyline);
+	}
+	static String complexPoints(Location location, boolean polyline) {
+		if (polyline) {
+			String encoded = ComplexPoints.encodePolyline(location);
+			if (encoded != null)
+				return encoded;
+		}
+		return location.getComplexPoints();
+	}
+	/**
+	 * The content hash stored with the location when it is written by this writer
+	 */
+	long contentHash(Location location) {
+		return location.getContentHash(complexPoints(location));
+	}
+	static String flagColumn(AreaType areaType) {
+		switch (areaType) {
+		case AreaCollection:
+			return "vigilPlusAreaCollection";
+		case KeepIn:
+			return "vigilPlusKeepIn";
+		case Location:
+			return "vigilPlusLocation";
+		case NoGo:
+			return "vigilPlusNoGo";
+		case SpeedArea:
+			return "vigilPlusSpeedArea";
+		default:
+			throw new IllegalArgumentException("No flag column for areaType "+areaType);
+		}
+	}
+	// The number of parameters of ROW_VALUES
+	private static final int ROW_PARAMETERS = 19;
+	/**
+	 * Sets the parameters of ROW_VALUES, or HASH_ROW_VALUES if withHash, from the location, returns its content hash
+	 */
+	private long setRow(PreparedStatement ps, Location location, boolean withHash) throws SQLException {
+		int i = 1;
+		String complexPoints = complexPoints(location);
+		ps.setString(i++,location.getLocationName());					
+		i = setGeometry(ps, i, location, complexPoints);
+		ps.setLong(i++,fleetId);
+		ps.setString(i++,location.isSafe()?"y":"n");
+		ps.setString(i++,location.isCorridor()?"y":"n");
+		ps.setBigDecimal(i++,location.getSpeedLimit());
+		ps.setString(i++,location.isSpeedZoneOverride()?"Y":"N");
+		ps.setString(i++,"#008CFF");
+		i = setAreaTypes(ps, i, location);
+		long hash = location.getContentHash(complexPoints);
+		if (withHash)
+			ps.setLong(i++,hash);
+		return hash;
+	}
+	/**
+	 * Sets latitude, longitude, the corners and complexpoints from parameter i, returns the next parameter
+	 */
+	private static int setGeometry(PreparedStatement ps, int i, Location location, String complexPoints) throws SQLException {
+		List<LatLong> cornersAndCentre = location.findCornersAndCentre();
+		LatLong topLeft = cornersAndCentre.get(Location.TOP_LEFT);
+		LatLong bottomRight = cornersAndCentre.get(Location.BOTTOM_RIGHT);
+		LatLong centre = cornersAndCentre.get(Location.CENTRE);
+		ps.setBigDecimal(i++,centre.latitude);
+		ps.setBigDecimal(i++,centre.longitude);
+		ps.setBigDecimal(i++,topLeft.latitude);
+		ps.setBigDecimal(i++,topLeft.longitude);
+		ps.setBigDecimal(i++,bottomRight.latitude);
+		ps.setBigDecimal(i++,bottomRight.longitude);
+		ps.setString(i++, complexPoints);
+		return i;
+	}
+	/**
+	 * Sets the five vigilPlus area type flags from parameter i, returns the next parameter
+	 */
+	private static int setAreaTypes(PreparedStatement ps, int i, Location location) throws SQLException {
+		for (AreaType type : FLAG_ORDER)
+			ps.setString(i++,location.hasAreaType(type)?"Y":"N");
+		return i;
+	}
+	// With rewriteBatchedStatements the driver reports SUCCESS_NO_INFO for each row, so count what was queued instead
+	private void batchExecuted(int rows, String what) throws SQLException {
+		batches++;
+		rowsBatched += rows;
+		rowsSinceCommit += rows;
+		logger.log(Level.INFO,"Executed batch of "+rows+" "+what+" for "+description);
+	}
+	private void commit() throws SQLException {
+		long start = System.nanoTime();
+		connection.commit();
+		long nanos = System.nanoTime() - start;
+		metrics.committed(nanos);
+		if (throttle != null) {
+			throttle.observe(nanos);
+			throttle.checkLag(connection);
+		}
+		commits++;
+		rowsCommitted += rowsSinceCommit;
+		logger.log(Level.INFO,"Committed "+rowsSinceCommit+" rows for "+description);
+		rowsSinceCommit = 0;
+		rowsQueued = 0;
+	}
+	private static long average(long total, long count) {
+		return count == 0 ? 0 : total / count;
+	}
+	/**
+	 * One kind of statement and the rows queued for it
+	 */
+	private class Batch {
+		private final String what;
+		private PreparedStatement ps;
+		private int pending;
+		private long rows;
+		
+		Batch(String what) {
+			this.what = what;
+		}
+		PreparedStatement statement(String sql) throws SQLException {
+			if (ps == null)
+				ps = connection.prepareStatement(sql);
+			return ps;
+		}
+		void add() throws SQLException {
+			ps.addBatch();
+			pending++;
+			rows++;
+			rowsQueued++;
+			if (pending >= (throttle == null ? batchSize : throttle.batchSize()))
+				execute();
+		}
+		void execute() throws SQLException {
+			if (pending == 0)
+				return;
+			long start = System.nanoTime();
+			ps.executeBatch();
+			long nanos = System.nanoTime() - start;
+			metrics.batchExecuted(nanos);
+			if (throttle != null)
+				throttle.observe(nanos);
+			int executed = pending;
+			pending = 0;
+			batchExecuted(executed, what);
+		}
+		void close() {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through memory mapped windows of it, one after the other, so the bytes come straight from the page
+ * cache without a read() system call or a copy into a heap buffer of the stream's own. A window is dropped once it has
+ * been read, so the heap doesn't grow with the size of the file, only the address space of the window being read.
+ */
+class MappedFileInputStream extends InputStream {
+	// Bytes mapped at a time
+	static final long WINDOW_BYTES = 64L << 20;
+
+	private final FileChannel channel;
+	private final long size;
+	private final long windowBytes;
+	private long windowStart;
+	private MappedByteBuffer window;
+
+	MappedFileInputStream(Path file) throws IOException {
+		this(file, WINDOW_BYTES);
+	}
+	MappedFileInputStream(Path file, long windowBytes) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.size = channel.size();
+		this.windowBytes = windowBytes;
+	}
+	@Override
+	public int read() throws IOException {
+		if (!ensureRemaining())
+			return -1;
+		return window.get() & 0xff;
+	}
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!ensureRemaining())
+			return -1;
+		int n = Math.min(len, window.remaining());
+		window.get(b, off, n);
+		return n;
+	}
+	@Override
+	public int available() {
+		return window == null ? 0 : window.remaining();
+	}
+	@Override
+	public void close() throws IOException {
+		window = null;
+		channel.close();
+	}
+	/**
+	 * Maps the next window once the current one has been read, returns false at the end of the file
+	 */
+	private boolean ensureRemaining() throws IOException {
+		if (window != null && window.hasRemaining())
+			return true;
+		if (window != null) {
+			windowStart += window.capacity();
+			window = null;
+		}
+		if (windowStart >= size)
+			return false;
+		window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowBytes, size - windowStart));
+		return true;
+	}
+}
@@ -0,0 +1,148 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Removes the points of a Location that make no visible difference to its shape before it is saved.
+ * Consecutive duplicate points are dropped, then the ring is simplified with Douglas-Peucker: a point is kept only if
+ * it is more than toleranceMetres from the line between the points kept either side of it.
+ * Distances are measured on an equirectangular projection centred on the location, which is accurate to well
+ * under a metre over the size of a geofence.
+ * 
+ * A ring that was closed (last point the same as the first) stays closed, and a ring is never reduced below
+ * three distinct points, if it would be the points are left as they were after removing the duplicates.
+ * One simplifier is shared by the writer threads of an import, it only keeps totals for the run summary.
+ */
+class PolygonSimplifier {
+	static Logger logger = Logger.getLogger(PolygonSimplifier.class.getSimpleName());
+	
+	private static final double METRES_PER_DEGREE = 6371008.8 * Math.PI / 180;
+	
+	private final double toleranceMetres;
+	private final LongAdder locations = new LongAdder();
+	private final LongAdder pointsBefore = new LongAdder();
+	private final LongAdder pointsAfter = new LongAdder();
+	private final LongAdder bytesBefore = new LongAdder();
+	private final LongAdder bytesAfter = new LongAdder();
+	
+	PolygonSimplifier(double toleranceMetres) {
+		this.toleranceMetres = Math.max(0, toleranceMetres);
+	}
+	void simplify(Location location) {
+		int n = location.getNumberOfPoints();
+		locations.increment();
+		pointsBefore.add(n);
+		bytesBefore.add(location.getComplexPointsLength());
+		boolean[] keep = new boolean[n];
+		int distinct = removeDuplicates(location, keep);
+		int last = n - 1;
+		while (last > 0 && !keep[last])
+			last--;
+		boolean closed = last > 0 && location.latitudes[0] == location.latitudes[last] && location.longitudes[0] == location.longitudes[last];
+		if (distinct > (closed ? 4 : 3) && toleranceMetres > 0) {
+			boolean[] simplified = keep.clone();
+			if (douglasPeucker(location, simplified, closed ? last : -1) >= 3)
+				keep = simplified;
+		}
+		location.retainPoints(keep);
+		pointsAfter.add(location.getNumberOfPoints());
+		bytesAfter.add(location.getComplexPointsLength());
+	}
+	void logSummary(String description) {
+		logger.log(Level.INFO,"Simplified "+locations.sum()+" locations for "+description+" with a tolerance of "+toleranceMetres+"m : "
+				+pointsBefore.sum()+" points reduced to "+pointsAfter.sum()+", complexpoints "+bytesBefore.sum()+" bytes reduced to "+bytesAfter.sum());
+	}
+	/**
+	 * Marks every point that is not the same as the point before it, returns the number marked
+	 */
+	private static int removeDuplicates(Location location, boolean[] keep) {
+		int kept = 0;
+		for (int i = 0; i < keep.length; i++) {
+			if (i == 0 || location.latitudes[i] != location.latitudes[i-1] || location.longitudes[i] != location.longitudes[i-1]) {
+				keep[i] = true;
+				kept++;
+			}
+		}
+		return kept;
+	}
+	/**
+	 * Unmarks the points that are within tolerance of the line between the points kept either side of them.
+	 * The ring is split at its first point and the point furthest from it, both of which are always kept,
+	 * and each half is simplified on its own. An open ring's closing edge back to the first point is part of the second half.
+	 * closingPoint is the index of the point that repeats the first one, or -1 if the ring is open.
+	 * Returns the number of distinct points left.
+	 */
+	private int douglasPeucker(Location location, boolean[] keep, int closingPoint) {
+		int n = keep.length;
+		boolean closed = closingPoint >= 0;
+		double cosLatitude = Math.cos(Math.toRadians(location.getLatitude(0)));
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = location.getLongitude(i) * METRES_PER_DEGREE * cosLatitude;
+			y[i] = location.getLatitude(i) * METRES_PER_DEGREE;
+		}
+		int furthest = 0;
+		double furthestDistance = -1;
+		for (int i = 1; i < (closed ? closingPoint : n); i++) {
+			double d = Math.hypot(x[i] - x[0], y[i] - y[0]);
+			if (keep[i] && d > furthestDistance) {
+				furthest = i;
+				furthestDistance = d;
+			}
+		}
+		// Index n stands for point 0 again when the ring is open
+		int last = closed ? closingPoint : n;
+		int[] stack = new int[2 * n + 4];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = furthest;
+		stack[top++] = furthest;
+		stack[top++] = last;
+		while (top > 0) {
+			int end = stack[--top];
+			int start = stack[--top];
+			int ex = end % n;
+			double maxDistance = -1;
+			int index = -1;
+			for (int i = start + 1; i < end; i++) {
+				if (!keep[i])
+					continue;
+				double d = distanceToSegment(x[i], y[i], x[start], y[start], x[ex], y[ex]);
+				if (d > maxDistance) {
+					maxDistance = d;
+					index = i;
+				}
+			}
+			if (index < 0)
+				continue;
+			if (maxDistance > toleranceMetres) {
+				stack[top++] = start;
+				stack[top++] = index;
+				stack[top++] = index;
+				stack[top++] = end;
+			} else {
+				for (int i = start + 1; i < end; i++)
+					keep[i] = false;
+			}
+		}
+		int kept = 0;
+		for (int i = 0; i < (closed ? closingPoint : n); i++) {
+			if (keep[i])
+				kept++;
+		}
+		return kept;
+	}
+	private static double distanceToSegment(double px, double py, double ax, double ay, double bx, double by) {
+		double dx = bx - ax;
+		double dy = by - ay;
+		double lengthSquared = dx * dx + dy * dy;
+		if (lengthSquared == 0)
+			return Math.hypot(px - ax, py - ay);
+		double t = ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+	}
+}
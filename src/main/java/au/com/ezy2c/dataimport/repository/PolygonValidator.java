@@ -0,0 +1,289 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Checks the geometry of an assembled Location before it is saved, and marks it as a bad record if it is one of
+ * out of range - a latitude beyond +-90 or longitude beyond +-180
+ * too few points - two distinct points, which is neither a point location nor a polygon
+ * zero area - every point on one line
+ * self intersecting - two edges of the ring cross or touch, other than neighbouring edges at the point they share
+ *
+ * The ring is the points in sequence order, closed back to the first point whether or not the last point repeats it.
+ * A location of a single point is only range checked.
+ * Self intersection uses the Shamos-Hoey sweep line, O(n log n) rather than testing every pair of edges.
+ * The geometry is done on the fixed point values exactly, scaling an axis doesn't change whether edges cross,
+ * so latitudes and longitudes of different scales need no converting.
+ *
+ * It keeps no state but its totals, one validator is shared by the writer threads of an import, which validate
+ * their locations in parallel. The edges of a very large ring are sorted with Arrays.parallelSort, which splits
+ * the sort over the fork-join common pool.
+ */
+class PolygonValidator {
+	static Logger logger = Logger.getLogger(PolygonValidator.class.getSimpleName());
+
+	private final LongAdder locations = new LongAdder();
+	private final LongAdder outOfRange = new LongAdder();
+	private final LongAdder tooFewPoints = new LongAdder();
+	private final LongAdder zeroArea = new LongAdder();
+	private final LongAdder selfIntersecting = new LongAdder();
+
+	/**
+	 * Marks the location as bad if its geometry is invalid, returns true if it is valid
+	 */
+	boolean validate(Location location) {
+		locations.increment();
+		String reason = findProblem(location);
+		if (reason == null)
+			return true;
+		location.markAsBad(reason);
+		return false;
+	}
+	void logSummary(String description) {
+		logger.log(Level.INFO,"Validated "+locations.sum()+" locations for "+description+" : "+outOfRange.sum()+" out of range, "
+				+tooFewPoints.sum()+" with too few points, "+zeroArea.sum()+" with zero area, "+selfIntersecting.sum()+" self intersecting");
+	}
+	private String findProblem(Location location) {
+		String reason = checkRange(location);
+		if (reason != null) {
+			outOfRange.increment();
+			return reason;
+		}
+		int[] ring = distinctRing(location);
+		if (ring.length == 1)
+			return null;
+		if (ring.length == 2) {
+			tooFewPoints.increment();
+			return "Only 2 distinct points, a polygon needs at least 3";
+		}
+		if (isZeroArea(location, ring)) {
+			zeroArea.increment();
+			return "Zero area, every point is on one line";
+		}
+		reason = findIntersection(location, ring);
+		if (reason != null)
+			selfIntersecting.increment();
+		return reason;
+	}
+	private static String checkRange(Location location) {
+		long maxLatitude = 90 * pow10(location.latitudeScale);
+		long maxLongitude = 180 * pow10(location.longitudeScale);
+		for (int i = 0; i < location.getNumberOfPoints(); i++) {
+			if (Math.abs(location.latitudes[i]) > maxLatitude || Math.abs(location.longitudes[i]) > maxLongitude)
+				return "Point "+(i + 1)+" is out of range "+location.getLatitude(i)+","+location.getLongitude(i);
+		}
+		return null;
+	}
+	private static long pow10(int scale) {
+		long value = 1;
+		for (int i = 0; i < scale; i++)
+			value *= 10;
+		return value;
+	}
+	/**
+	 * The indexes of the points of the ring without consecutive duplicates or a last point that repeats the first
+	 */
+	private static int[] distinctRing(Location location) {
+		int n = location.getNumberOfPoints();
+		int[] ring = new int[n];
+		int size = 0;
+		for (int i = 0; i < n; i++) {
+			if (size == 0 || !samePoint(location, i, ring[size - 1]))
+				ring[size++] = i;
+		}
+		while (size > 1 && samePoint(location, ring[size - 1], ring[0]))
+			size--;
+		return size == n ? ring : Arrays.copyOf(ring, size);
+	}
+	private static boolean samePoint(Location location, int i, int j) {
+		return location.latitudes[i] == location.latitudes[j] && location.longitudes[i] == location.longitudes[j];
+	}
+	/**
+	 * True if every point is on the line through the first point and some other point
+	 */
+	private static boolean isZeroArea(Location location, int[] ring) {
+		int a = ring[0];
+		int b = ring[1];
+		for (int k = 2; k < ring.length; k++) {
+			if (orientation(x(location, a), y(location, a), x(location, b), y(location, b), x(location, ring[k]), y(location, ring[k])) != 0)
+				return false;
+		}
+		return true;
+	}
+	private static long x(Location location, int i) {
+		return location.longitudes[i];
+	}
+	private static long y(Location location, int i) {
+		return location.latitudes[i];
+	}
+	/**
+	 * The sign of the cross product (b - a) x (c - a): 1 if c is to the left of a->b, -1 if to the right, 0 if on the line.
+	 * The products can need 128 bits, so they are compared as 128 bit numbers.
+	 */
+	static int orientation(long ax, long ay, long bx, long by, long cx, long cy) {
+		long abx = bx - ax;
+		long aby = by - ay;
+		long acx = cx - ax;
+		long acy = cy - ay;
+		return compare128(Math.multiplyHigh(abx, acy), abx * acy, Math.multiplyHigh(aby, acx), aby * acx);
+	}
+	private static int compare128(long high1, long low1, long high2, long low2) {
+		if (high1 != high2)
+			return high1 < high2 ? -1 : 1;
+		return Integer.signum(Long.compareUnsigned(low1, low2));
+	}
+	// Above this many edges the events are sorted with Arrays.parallelSort
+	private static final int PARALLEL_SORT_EDGES = 8192;
+
+	/**
+	 * Shamos-Hoey: sweeps a vertical line from west to east over the edges, keeping the edges it crosses ordered
+	 * from south to north. Two edges can only cross once they are next to each other in that order, so each edge is
+	 * tested against its neighbours when it is added, and its two neighbours against each other when it is removed.
+	 * Returns the reason for the first crossing found, or null if there is none.
+	 */
+	private static String findIntersection(Location location, int[] ring) {
+		int n = ring.length;
+		Edge[] edges = new Edge[n];
+		for (int k = 0; k < n; k++)
+			edges[k] = new Edge(location, k, ring[k], ring[(k + 1) % n]);
+		// Each edge is added at its west end and removed at its east end. Events are in order of x then y, as if the sweep line
+		// were turned very slightly, so a north-south edge is crossed from its south end to its north end like any other.
+		// At the same point edges are added before any are removed, so edges that only touch there are still compared.
+		Event[] events = new Event[2 * n];
+		for (int k = 0; k < n; k++) {
+			events[2 * k] = new Event(edges[k], true);
+			events[2 * k + 1] = new Event(edges[k], false);
+		}
+		Comparator<Event> eventOrder = (e1, e2) -> {
+			if (e1.x != e2.x)
+				return Long.compare(e1.x, e2.x);
+			if (e1.y != e2.y)
+				return Long.compare(e1.y, e2.y);
+			if (e1.add != e2.add)
+				return e1.add ? -1 : 1;
+			return 0;
+		};
+		if (events.length > PARALLEL_SORT_EDGES)
+			Arrays.parallelSort(events, eventOrder);
+		else
+			Arrays.sort(events, eventOrder);
+		TreeSet<Edge> sweep = new TreeSet<>(PolygonValidator::compareEdges);
+		for (Event event : events) {
+			Edge edge = event.edge;
+			if (event.add) {
+				sweep.add(edge);
+				Edge above = sweep.higher(edge);
+				Edge below = sweep.lower(edge);
+				if (above != null && intersects(edge, above, n))
+					return describe(edge, above, location);
+				if (below != null && intersects(edge, below, n))
+					return describe(edge, below, location);
+			} else {
+				Edge above = sweep.higher(edge);
+				Edge below = sweep.lower(edge);
+				sweep.remove(edge);
+				if (above != null && below != null && intersects(above, below, n))
+					return describe(above, below, location);
+			}
+		}
+		return null;
+	}
+	private static String describe(Edge e1, Edge e2, Location location) {
+		Edge first = e1.index < e2.index ? e1 : e2;
+		Edge second = first == e1 ? e2 : e1;
+		return "Edges from point "+(first.from + 1)+" to "+(first.to + 1)+" and point "+(second.from + 1)+" to "+(second.to + 1)+" cross";
+	}
+	/**
+	 * Orders two edges that are both crossed by the sweep line by which is further south where the later starting one starts.
+	 * Edges in the sweep don't cross until the first intersection is found, which ends the sweep, so this stays consistent.
+	 */
+	private static int compareEdges(Edge e1, Edge e2) {
+		if (e1 == e2)
+			return 0;
+		boolean e1First = e1.x1 < e2.x1 || (e1.x1 == e2.x1 && e1.y1 <= e2.y1);
+		Edge earlier = e1First ? e1 : e2;
+		Edge later = e1First ? e2 : e1;
+		int side = orientation(earlier.x1, earlier.y1, earlier.x2, earlier.y2, later.x1, later.y1);
+		if (side == 0)
+			side = orientation(earlier.x1, earlier.y1, earlier.x2, earlier.y2, later.x2, later.y2);
+		if (side == 0)
+			side = Integer.compare(later.index, earlier.index); // Collinear, any fixed order will do
+		// side > 0 means later is north of earlier
+		int laterVsEarlier = side > 0 ? 1 : -1;
+		return e1First ? -laterVsEarlier : laterVsEarlier;
+	}
+	/**
+	 * Whether two edges of a ring of n edges cross or touch.
+	 * Neighbouring edges always share a point, they only count if they also overlap along a line, a spike in the ring.
+	 */
+	private static boolean intersects(Edge e1, Edge e2, int n) {
+		int gap = Math.abs(e1.index - e2.index);
+		if (gap == 1 || gap == n - 1) {
+			Edge first = (e1.index + 1) % n == e2.index ? e1 : e2;
+			Edge second = first == e1 ? e2 : e1;
+			// first ends where second starts, they overlap if the far end of either lies on the other
+			return orientation(first.fromX, first.fromY, first.toX, first.toY, second.toX, second.toY) == 0
+					&& (onSegment(first, second.toX, second.toY) || onSegment(second, first.fromX, first.fromY));
+		}
+		int o1 = orientation(e1.x1, e1.y1, e1.x2, e1.y2, e2.x1, e2.y1);
+		int o2 = orientation(e1.x1, e1.y1, e1.x2, e1.y2, e2.x2, e2.y2);
+		int o3 = orientation(e2.x1, e2.y1, e2.x2, e2.y2, e1.x1, e1.y1);
+		int o4 = orientation(e2.x1, e2.y1, e2.x2, e2.y2, e1.x2, e1.y2);
+		if (o1 != o2 && o3 != o4)
+			return true;
+		return (o1 == 0 && onSegment(e1, e2.x1, e2.y1))
+				|| (o2 == 0 && onSegment(e1, e2.x2, e2.y2))
+				|| (o3 == 0 && onSegment(e2, e1.x1, e1.y1))
+				|| (o4 == 0 && onSegment(e2, e1.x2, e1.y2));
+	}
+	/**
+	 * Whether a point already known to be on the edge's line is within the edge
+	 */
+	private static boolean onSegment(Edge edge, long x, long y) {
+		return Math.min(edge.x1, edge.x2) <= x && x <= Math.max(edge.x1, edge.x2)
+				&& Math.min(edge.y1, edge.y2) <= y && y <= Math.max(edge.y1, edge.y2);
+	}
+	/**
+	 * An edge of the ring from point from to point to, with x1,y1 its west end (or south end if it runs north-south)
+	 */
+	private static class Edge {
+		final int index;
+		final int from;
+		final int to;
+		final long fromX, fromY, toX, toY;
+		final long x1, y1, x2, y2;
+
+		Edge(Location location, int index, int from, int to) {
+			this.index = index;
+			this.from = from;
+			this.to = to;
+			fromX = x(location, from);
+			fromY = y(location, from);
+			toX = x(location, to);
+			toY = y(location, to);
+			if (fromX < toX || (fromX == toX && fromY < toY)) {
+				x1 = fromX; y1 = fromY; x2 = toX; y2 = toY;
+			} else {
+				x1 = toX; y1 = toY; x2 = fromX; y2 = fromY;
+			}
+		}
+	}
+	private static class Event {
+		final Edge edge;
+		final boolean add;
+		final long x;
+		final long y;
+
+		Event(Edge edge, boolean add) {
+			this.edge = edge;
+			this.add = add;
+			this.x = add ? edge.x1 : edge.x2;
+			this.y = add ? edge.y1 : edge.y2;
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * An import whose locations are assembled by the database rather than by LocationAssembler, so the points never
+ * leave the server: the LocationsImport rows are grouped, the bounding box, centre and complexpoints of each location
+ * worked out and the fleet_locations rows inserted with a few set based statements.
+ *
+ * writeGoodLocations() groups the rows into the temporary table GROUPS_TABLE, one row per LocationName and AreaType,
+ * then into NAMES_TABLE, one row per LocationName with the mask of its area types and whether it can be written by SQL.
+ * A location is only written by SQL when the result is sure to be what the Java path writes. The rest, those with a
+ * sequence number out of place, names that differ only by case, a coordinate BigDecimal would write in scientific
+ * notation or points that didn't fit in GROUP_CONCAT, are left for the Java path, which reads their rows with
+ * getRemainingRowsSql() and reports the bad records as it always has.
+ * The same names as the Java path are flagged or inserted, a row of another area type gains the flag for this one.
+ *
+ * The temporary tables belong to the connection, which must be used for every statement of the import and have
+ * autocommit turned off. close() drops them.
+ * Only a plain text import can be done this way, see unsupportedSetting.
+ */
+class SqlImport {
+	static Logger logger = Logger.getLogger(SqlImport.class.getSimpleName());
+
+	static final String GROUPS_TABLE = "location_import_groups";
+	static final String NAMES_TABLE = "location_import_names";
+	// Room for the complexpoints of the largest location, GROUP_CONCAT stops at 1024 characters by default
+	private static final long GROUP_CONCAT_MAX_LEN = 4294967295L;
+
+	private final long fleetId;
+	private final AreaType areaType;
+	private final boolean contentHash;
+	private final ImportMetrics metrics;
+	private final String description;
+
+	SqlImport(long fleetId, AreaType areaType, boolean contentHash, ImportMetrics metrics) {
+		this.fleetId = fleetId;
+		this.areaType = areaType;
+		this.contentHash = contentHash;
+		this.metrics = metrics;
+		this.description = "fleet "+fleetId+" areaType "+LocationRepositoryImpl.describe(areaType);
+	}
+	/**
+	 * The setting that stops an import being done by SQL, or null if it can be.
+	 * The geometry can't be validated or simplified, or the cover worked out, without the points, and the polyline format
+	 * isn't worth writing in SQL. The staged, delta, bulk and checkpointed imports each write in a way of their own.
+	 */
+	static String unsupportedSetting(ImportSettings settings) {
+		if (settings.validate)
+			return "validate";
+		if (settings.simplify)
+			return "simplify";
+		if (settings.polylineComplexPoints())
+			return "complexPointsFormat";
+		if (settings.coverPrecision > 0)
+			return "coverPrecision";
+		if (settings.stagedImport)
+			return "stagedImport";
+		if (settings.deltaImport)
+			return "deltaImport";
+		if (settings.bulkLoadThreshold > 0)
+			return "bulkLoadThreshold";
+		if (settings.checkpoint)
+			return "checkpoint";
+		return null;
+	}
+	/**
+	 * Groups the LocationsImport rows and writes every location that can be written by SQL, then commits.
+	 * The existing imported rows must already have been deleted, as LocationRepositoryImpl.prepareImport does.
+	 */
+	void writeGoodLocations(Connection connection) throws SQLException {
+		long start = System.currentTimeMillis();
+		dropTables(connection);
+		update(connection, "SET SESSION group_concat_max_len = "+GROUP_CONCAT_MAX_LEN, 0, false);
+		int groups = createGroups(connection);
+		int names = update(connection, namesSql(), 0, true);
+		long groupedAt = System.currentTimeMillis();
+		int flagged = 0;
+		if (areaType != null) {
+			flagged = update(connection, "UPDATE fleet_locations f JOIN "+NAMES_TABLE+" n ON n.location_name = f.location_name "
+					+ " SET f."+LocationWriter.flagColumn(areaType)+" = 'Y' "
+					+ " WHERE f.fleet = ? AND f.vigilPlusImported = 'Y' AND n.good = 1", 1, true);
+			metrics.updated(flagged);
+		}
+		int inserted = update(connection, insertSql(), 2, true);
+		metrics.inserted(inserted);
+		long commitStart = System.nanoTime();
+		connection.commit();
+		metrics.committed(System.nanoTime() - commitStart);
+		logger.log(Level.INFO,"Grouped the LocationsImport rows of "+description+" into "+groups+" locations with "+names+" names in "
+				+(groupedAt - start)+"ms and wrote them in "+(System.currentTimeMillis() - groupedAt)+"ms : "+inserted+" inserts, "+flagged+" flag updates");
+	}
+	/**
+	 * The LocationsImport rows of the names left for the Java path, with the columns and in the order LocationAssembler needs.
+	 * Its only parameter, when a single areaType is imported, is the areaType.
+	 */
+	String getRemainingRowsSql() {
+		if (areaType == null)
+			return "SELECT i.id, i.LocationName, i.SpeedLimit, i.IsSafe, i.SequenceNo, i.latitude, i.longitude, i.AreaType "
+					+ " FROM LocationsImport i JOIN "+NAMES_TABLE+" n ON n.location_name = i.LocationName "
+					+ " WHERE n.good = 0 "
+					+ " ORDER BY i.LocationName, i.AreaType, i.SequenceNo ";
+		return "SELECT i.id, i.LocationName, i.SpeedLimit, i.IsSafe, i.SequenceNo, i.latitude, i.longitude "
+				+ " FROM LocationsImport i JOIN "+NAMES_TABLE+" n ON n.location_name = i.LocationName "
+				+ " WHERE i.AreaType = ? AND n.good = 0 "
+				+ " ORDER BY i.LocationName, i.SequenceNo ";
+	}
+	/**
+	 * Drops the temporary tables and puts group_concat_max_len back, so the pooled connection is left as it was found
+	 */
+	void close(Connection connection) {
+		try {
+			dropTables(connection);
+			update(connection, "SET SESSION group_concat_max_len = DEFAULT", 0, false);
+		} catch (Throwable th) {
+		}
+	}
+	@Override
+	public String toString() {
+		return description;
+	}
+	/**
+	 * One row per LocationName and AreaType, with good = 1 if its rows make a location the Java path would write as they are.
+	 * The sequence numbers must run on from the first without a gap or a repeat, the names must be the same to the byte,
+	 * and no coordinate may be under 0.000001 from 0, which BigDecimal.toString() writes as 0E-7 and the like.
+	 * points_length is the length the complexpoints should have, it is shorter if GROUP_CONCAT ran out of room.
+	 */
+	private String groupsSql() {
+		return "CREATE TEMPORARY TABLE "+GROUPS_TABLE+" (INDEX (location_name, area_type)) "
+				+ " SELECT LocationName location_name, AreaType area_type, MIN(SequenceNo) first_sequence_no, "
+				+ " MAX(latitude) max_latitude, MIN(latitude) min_latitude, MIN(longitude) min_longitude, MAX(longitude) max_longitude, "
+				+ " GROUP_CONCAT(latitude, ',', longitude ORDER BY SequenceNo SEPARATOR ';') complexpoints, "
+				+ " SUM(LENGTH(latitude) + LENGTH(longitude) + 2) - 1 points_length, "
+				+ " (COUNT(*) = MAX(SequenceNo) - MIN(SequenceNo) + 1 AND COUNT(DISTINCT SequenceNo) = COUNT(*) "
+				+ "   AND COUNT(DISTINCT CAST(LocationName AS BINARY)) = 1 "
+				+ "   AND SUM(ABS(latitude) < 0.000001 OR ABS(longitude) < 0.000001) = 0) good "
+				+ " FROM LocationsImport "
+				+ " WHERE AreaType IN ("+areaTypeParameters()+") "
+				+ " GROUP BY LocationName, AreaType";
+	}
+	/**
+	 * One row per LocationName. As with AreaTypeMerger, the first of its area types in AreaType order provides the points
+	 * and the rest only add their flag. A name is only written by SQL if every one of its area types can be, and with the
+	 * same bytes, AreaTypeMerger doesn't merge names that differ by case.
+	 */
+	private static String namesSql() {
+		StringBuilder mask = new StringBuilder("CASE area_type");
+		for (AreaType type : AreaType.values())
+			mask.append(" WHEN '").append(type.name).append("' THEN ").append(type.mask());
+		mask.append(" ELSE 0 END");
+		return "CREATE TEMPORARY TABLE "+NAMES_TABLE+" (INDEX (location_name)) "
+				+ " SELECT location_name, MIN(area_type) area_type, SUM("+mask+") area_types, "
+				+ " MIN(good AND LENGTH(complexpoints) = points_length) AND COUNT(DISTINCT CAST(location_name AS BINARY)) = 1 good "
+				+ " FROM "+GROUPS_TABLE
+				+ " GROUP BY location_name";
+	}
+	/**
+	 * Inserts the good locations that aren't already imported, with the values LocationWriter.insert would give them.
+	 * The content hash, written when contentHash is set, is Location.getContentHash, the first 8 bytes of the SHA-256 as a signed number.
+	 * The speed limit and safe flag come from the first row of the location, its id doesn't matter as it isn't a bad record.
+	 */
+	private String insertSql() {
+		StringBuilder areaTypeName = new StringBuilder("CASE n.area_type");
+		for (AreaType type : AreaType.values())
+			areaTypeName.append(" WHEN '").append(type.name).append("' THEN '").append(type.name).append("'");
+		areaTypeName.append(" END");
+		StringBuilder flags = new StringBuilder();
+		for (AreaType type : LocationWriter.FLAG_ORDER)
+			flags.append(", IF(n.area_types & ").append(type.mask()).append(" <> 0, 'Y', 'N')");
+		String hash = ", CAST(CONV(LEFT(SHA2(CONCAT(IFNULL(CAST(r.SpeedLimit AS CHAR), ''), '|', IF(r.IsSafe = 1, 'true', 'false'), '|', "
+				+ areaTypeName+", '|', n.area_types, '|', g.complexpoints), 256), 16), 16, -10) AS SIGNED)";
+		return "INSERT IGNORE INTO fleet_locations(location_name, latitude, longitude, topleft_lat, topleft_long,"
+				+ " bottomright_lat, bottomright_long, complexpoints, fleet, service_loc_flag, corridor_flag, "
+				+ " speed_zone_override, speed_zone_flag, locationcolor, vigilPlusImported, "
+				+ " vigilPlusLocation, vigilPlusSpeedArea, vigilPlusKeepIn, vigilPlusNoGo, vigilPlusAreaCollection"+(contentHash ? ", vigilPlusHash" : "")+") "
+				+ " SELECT g.location_name, (g.min_latitude + g.max_latitude) / 2, (g.min_longitude + g.max_longitude) / 2, "
+				+ " g.max_latitude, g.min_longitude, g.min_latitude, g.max_longitude, g.complexpoints, ?, "
+				+ " IF(r.IsSafe = 1, 'y', 'n'), IF(n.area_type = '"+AreaType.KeepIn.name+"', 'y', 'n'), r.SpeedLimit, 'N', '#008CFF', 'Y'"
+				+ flags+(contentHash ? hash : "")
+				+ " FROM "+NAMES_TABLE+" n "
+				+ " JOIN "+GROUPS_TABLE+" g ON g.location_name = n.location_name AND g.area_type = n.area_type "
+				+ " JOIN LocationsImport r ON r.LocationName = g.location_name AND r.AreaType = g.area_type AND r.SequenceNo = g.first_sequence_no "
+				+ " WHERE n.good = 1 "
+				+ " AND NOT EXISTS (SELECT 1 FROM fleet_locations f "
+				+ "   WHERE f.fleet = ? AND f.vigilPlusImported = 'Y' AND f.location_name = n.location_name)";
+	}
+	private String areaTypeParameters() {
+		int count = areaType == null ? AreaType.values().length : 1;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append("?");
+		}
+		return sb.toString();
+	}
+	/**
+	 * Creates GROUPS_TABLE from the LocationsImport rows of the area types being imported, returns the number of groups
+	 */
+	private int createGroups(Connection connection) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			long start = System.nanoTime();
+			ps = connection.prepareStatement(groupsSql());
+			int i = 1;
+			for (AreaType type : areaType == null ? AreaType.values() : new AreaType[] {areaType})
+				ps.setString(i++,type.name);
+			int rows = ps.executeUpdate();
+			metrics.batchExecuted(System.nanoTime() - start);
+			return rows;
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+	private void dropTables(Connection connection) throws SQLException {
+		update(connection, "DROP TEMPORARY TABLE IF EXISTS "+NAMES_TABLE, 0, false);
+		update(connection, "DROP TEMPORARY TABLE IF EXISTS "+GROUPS_TABLE, 0, false);
+	}
+	/**
+	 * Runs a statement whose parameters, if it has any, are all the fleetId, timing it as a batch if timed
+	 */
+	private int update(Connection connection, String sql, int fleetParameters, boolean timed) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			long start = System.nanoTime();
+			ps = connection.prepareStatement(sql);
+			for (int i = 1; i <= fleetParameters; i++)
+				ps.setLong(i,fleetId);
+			int rows = ps.executeUpdate();
+			if (timed)
+				metrics.batchExecuted(System.nanoTime() - start);
+			return rows;
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+}
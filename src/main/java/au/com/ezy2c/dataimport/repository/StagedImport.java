@@ -0,0 +1,148 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * An import that writes the new locations of the fleet to the staging table fleet_locations_import, with
+ * LocationWriter.stage, and then publishes them to fleet_locations in a single transaction.
+ * Readers of fleet_locations see the old locations of the fleet until the commit and the new ones after it,
+ * and the writers never hold locks on fleet_locations, so the only locks are those of publish().
+ *
+ * publish() merges with a few set based statements rather than deleting and inserting everything: rows that are no
+ * longer imported are deleted, rows whose content hash has changed are overwritten and new rows are inserted.
+ * The statements find the rows through the (fleet, location_name) indexes and only write those that changed,
+ * so the transaction stays short however many locations the fleet has.
+ * When a single areaType is imported, a row that also belongs to other area types keeps its points and only gains or
+ * loses the flag for it, as in the other import modes.
+ *
+ * The staging rows are keyed by fleet and import_area_type, so imports of different fleets or area types can run at
+ * the same time. The table is created by sql/fleet_locations_import.sql.
+ */
+class StagedImport {
+	static Logger logger = Logger.getLogger(StagedImport.class.getSimpleName());
+
+	static final String STAGING_TABLE = "fleet_locations_import";
+
+	private final long fleetId;
+	private final AreaType areaType;
+	private final ImportMetrics metrics;
+	private final String importAreaType;
+	private final String description;
+
+	StagedImport(long fleetId, AreaType areaType, ImportMetrics metrics) {
+		this.fleetId = fleetId;
+		this.areaType = areaType;
+		this.metrics = metrics;
+		this.importAreaType = LocationRepositoryImpl.describe(areaType);
+		this.description = "fleet "+fleetId+" areaType "+importAreaType;
+	}
+	/**
+	 * Deletes the staging rows of this import and commits, before it starts in case an earlier one failed, and once it is published
+	 */
+	void clear(Connection connection) throws SQLException {
+		int deleted = update(connection, "DELETE FROM "+STAGING_TABLE+" WHERE fleet = ? AND import_area_type = ?");
+		connection.commit();
+		if (deleted > 0)
+			logger.log(Level.INFO,"Cleared "+deleted+" staging rows for "+description);
+	}
+	/**
+	 * Merges the staging rows into fleet_locations and commits
+	 */
+	void publish(Connection connection) throws SQLException {
+		long start = System.currentTimeMillis();
+		String imported = " fleet = ? AND vigilPlusImported = 'Y' ";
+		String staged = " EXISTS (SELECT 1 FROM "+STAGING_TABLE+" s "
+				+ " WHERE s.fleet = fleet_locations.fleet AND s.import_area_type = ? AND s.location_name = fleet_locations.location_name) ";
+		int deleted;
+		int flagsRemoved = 0;
+		int replaced;
+		int flagsSet = 0;
+		if (areaType == null) {
+			deleted = update(connection, "DELETE FROM fleet_locations WHERE "+imported+" AND NOT "+staged);
+			replaced = update(connection, replaceSql(""));
+		} else {
+			String flag = LocationWriter.flagColumn(areaType);
+			deleted = update(connection, "DELETE FROM fleet_locations WHERE "+imported+" AND "+onlyAreaType("")+" AND NOT "+staged);
+			// What is left with the flag and not staged also belongs to other area types
+			flagsRemoved = update(connection, "UPDATE fleet_locations SET "+flag+" = 'N' WHERE "+imported+" AND "+flag+" = 'Y' AND NOT "+staged);
+			replaced = update(connection, replaceSql(" AND "+onlyAreaType("f.")));
+			flagsSet = update(connection, "UPDATE fleet_locations SET "+flag+" = 'Y' WHERE "+imported+" AND "+flag+" = 'N' AND "+staged);
+		}
+		int inserted = update(connection, "INSERT INTO fleet_locations("+String.join(", ", LocationBulkWriter.COLUMNS)+", fleet, locationcolor, vigilPlusImported) "
+				+ " SELECT s."+String.join(", s.", LocationBulkWriter.COLUMNS)+", s.fleet, s.locationcolor, s.vigilPlusImported FROM "+STAGING_TABLE+" s "
+				+ " WHERE s.fleet = ? AND s.import_area_type = ? "
+				+ " AND NOT EXISTS (SELECT 1 FROM fleet_locations f "
+				+ "   WHERE f.fleet = s.fleet AND f.vigilPlusImported = 'Y' AND f.location_name = s.location_name)");
+		long commitStart = System.nanoTime();
+		connection.commit();
+		metrics.committed(System.nanoTime() - commitStart);
+		metrics.deleted(deleted);
+		metrics.flagRemoved(flagsRemoved);
+		metrics.replaced(replaced);
+		metrics.updated(flagsSet);
+		metrics.inserted(inserted);
+		logger.log(Level.INFO,"Published the staged locations of "+description+" in "+(System.currentTimeMillis() - start)+"ms : "
+				+inserted+" inserts, "+replaced+" replacements, "+flagsSet+" flag updates, "+flagsRemoved+" flag removals, "+deleted+" deletions");
+	}
+	@Override
+	public String toString() {
+		return description;
+	}
+	/**
+	 * Overwrites the imported rows whose staged row has a different content hash
+	 */
+	private static String replaceSql(String condition) {
+		StringBuilder sql = new StringBuilder("UPDATE fleet_locations f JOIN "+STAGING_TABLE+" s ON s.fleet = f.fleet AND s.location_name = f.location_name SET ");
+		for (int i = 0; i < LocationBulkWriter.COLUMNS.length; i++) {
+			if (i > 0)
+				sql.append(", ");
+			sql.append("f.").append(LocationBulkWriter.COLUMNS[i]).append(" = s.").append(LocationBulkWriter.COLUMNS[i]);
+		}
+		sql.append(" WHERE f.fleet = ? AND s.import_area_type = ? AND f.vigilPlusImported = 'Y' ");
+		sql.append(" AND (f.vigilPlusHash IS NULL OR f.vigilPlusHash <> s.vigilPlusHash) ");
+		sql.append(condition);
+		return sql.toString();
+	}
+	/**
+	 * The condition that a row's only area type is this one
+	 */
+	private String onlyAreaType(String prefix) {
+		StringBuilder sql = new StringBuilder("(");
+		for (AreaType type : AreaType.values()) {
+			if (sql.length() > 1)
+				sql.append(" AND ");
+			sql.append(prefix).append(LocationWriter.flagColumn(type)).append(type == areaType ? " = 'Y'" : " = 'N'");
+		}
+		return sql.append(")").toString();
+	}
+	/**
+	 * Runs a statement whose parameters are the fleet and the import_area_type, timing it as a batch
+	 */
+	private int update(Connection connection, String sql) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			long start = System.nanoTime();
+			ps = connection.prepareStatement(sql);
+			int i = 1;
+			ps.setLong(i++,fleetId);
+			ps.setString(i++,importAreaType);
+			int rows = ps.executeUpdate();
+			metrics.batchExecuted(System.nanoTime() - start);
+			return rows;
+		} finally {
+			if (ps != null) {
+				try {
+					ps.close();
+				} catch (Throwable th) {
+				}
+				ps = null;
+			}
+		}
+	}
+}
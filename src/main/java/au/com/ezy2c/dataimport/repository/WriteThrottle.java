@@ -0,0 +1,242 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Paces the writers of one import so that it doesn't slow down everything else using the database or leave the replicas
+ * behind. Every writer of the import shares the one WriteThrottle.
+ *
+ * The writers report the time of each batch and commit with observe(). Every WINDOW of them the mean is compared with
+ * the target: above it, or with the replication lag above throttleMaxLagSeconds, the throttle slows the import down,
+ * well under it (below half) it speeds it up again, in between it leaves it as it is. Slowing down halves the batch size
+ * until it is throttleMinBatchSize, then takes away a writer until one is left, then makes the writers wait before each
+ * location, doubling the wait up to MAX_DELAY_MILLIS. Speeding up undoes them in the reverse order, halving the wait,
+ * giving back a writer, then growing the batch size a step at a time up to throttleMaxBatchSize, so it backs off quickly
+ * and recovers slowly.
+ * The commit interval is scaled with the batch size, so smaller batches make shorter transactions for the replicas to apply.
+ *
+ * The replication lag is read by throttleLagSql, on the connection of whichever writer has just committed when
+ * throttleLagCheckMillis has gone by, as the query starts its next transaction it reads the lag as it is now.
+ * A lag query that fails is logged and not run again, the import goes on without it.
+ *
+ * The decisions are logged and are visible as the locationImport.throttle meters, see ImportMetrics.
+ */
+class WriteThrottle {
+	static Logger logger = Logger.getLogger(WriteThrottle.class.getSimpleName());
+
+	// Batches and commits looked at for each decision
+	static final int WINDOW = 8;
+	static final long MIN_DELAY_MILLIS = 10;
+	static final long MAX_DELAY_MILLIS = 1000;
+
+	private final String description;
+	private final long targetNanos;
+	private final int minBatchSize;
+	private final int maxBatchSize;
+	private final int batchStep;
+	private final int initialBatchSize;
+	private final int initialCommitInterval;
+	private final int maxWriters;
+	private final String lagSql;
+	private final double maxLagSeconds;
+	private final long lagCheckNanos;
+	private final AtomicLong nextLagCheck = new AtomicLong(System.nanoTime());
+	private volatile boolean lagUnavailable;
+	// Negative until the lag has been read
+	private volatile double lagSeconds = -1;
+	// The rest is guarded by this
+	private int batchSize;
+	private int writers;
+	private long delayMillis;
+	private int active;
+	private long windowNanos;
+	private int windowCount;
+	private long decreases;
+	private long increases;
+
+	WriteThrottle(String description, ImportSettings settings, int maxWriters) {
+		this.description = description;
+		this.targetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, settings.throttleTargetMillis));
+		this.initialBatchSize = Math.max(1, settings.batchSize);
+		this.initialCommitInterval = Math.max(1, settings.commitInterval);
+		this.minBatchSize = Math.max(1, Math.min(settings.throttleMinBatchSize, initialBatchSize));
+		this.maxBatchSize = Math.max(initialBatchSize, settings.throttleMaxBatchSize);
+		this.batchStep = Math.max(1, initialBatchSize / 4);
+		this.maxWriters = Math.max(1, maxWriters);
+		this.lagSql = settings.throttleLagSql == null || settings.throttleLagSql.trim().isEmpty() ? null : settings.throttleLagSql;
+		this.maxLagSeconds = settings.throttleMaxLagSeconds;
+		this.lagCheckNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, settings.throttleLagCheckMillis));
+		this.batchSize = initialBatchSize;
+		this.writers = this.maxWriters;
+	}
+	/**
+	 * The number of statements a writer queues before it sends them
+	 */
+	synchronized int batchSize() {
+		return batchSize;
+	}
+	/**
+	 * The number of rows a writer queues before it commits, commitInterval scaled by how far the batch size has moved
+	 */
+	synchronized int commitInterval() {
+		return (int) Math.max(batchSize, (long) initialCommitInterval * batchSize / initialBatchSize);
+	}
+	/**
+	 * The number of writers allowed to write at once
+	 */
+	synchronized int writers() {
+		return writers;
+	}
+	/**
+	 * The time each writer waits before each location, once the throttle has run out of other ways to slow down
+	 */
+	synchronized long delayMillis() {
+		return delayMillis;
+	}
+	/**
+	 * The replication lag last read, negative if it isn't known
+	 */
+	double lagSeconds() {
+		return lagSeconds;
+	}
+	synchronized long decreases() {
+		return decreases;
+	}
+	synchronized long increases() {
+		return increases;
+	}
+	/**
+	 * Called by a writer before it writes a location, waits until fewer than writers() are writing, then for delayMillis()
+	 */
+	void acquire() throws InterruptedException {
+		long delay;
+		synchronized (this) {
+			while (active >= writers)
+				wait();
+			active++;
+			delay = delayMillis;
+		}
+		if (delay > 0)
+			Thread.sleep(delay);
+	}
+	/**
+	 * Called by a writer once it has written the location it acquired for
+	 */
+	synchronized void release() {
+		active--;
+		notifyAll();
+	}
+	/**
+	 * Records the time of a batch or commit, deciding whether to slow down or speed up every WINDOW of them
+	 */
+	synchronized void observe(long nanos) {
+		windowNanos += nanos;
+		if (++windowCount < WINDOW)
+			return;
+		long meanNanos = windowNanos / windowCount;
+		windowNanos = 0;
+		windowCount = 0;
+		double lag = lagSeconds;
+		if (lag > maxLagSeconds)
+			slowDown("the replication lag of "+lag+"s is over "+maxLagSeconds+"s");
+		else if (meanNanos > targetNanos)
+			slowDown("the mean batch and commit time of "+TimeUnit.NANOSECONDS.toMillis(meanNanos)+"ms is over the "+TimeUnit.NANOSECONDS.toMillis(targetNanos)+"ms target");
+		else if (meanNanos < targetNanos / 2)
+			speedUp("the mean batch and commit time of "+TimeUnit.NANOSECONDS.toMillis(meanNanos)+"ms is under half the "+TimeUnit.NANOSECONDS.toMillis(targetNanos)+"ms target");
+	}
+	/**
+	 * Called by a writer just after it commits, reads the replication lag if it is due, slowing down at once if it is over the limit
+	 */
+	void checkLag(Connection connection) {
+		if (lagSql == null || lagUnavailable)
+			return;
+		long now = System.nanoTime();
+		long next = nextLagCheck.get();
+		if (now - next < 0 || !nextLagCheck.compareAndSet(next, now + lagCheckNanos))
+			return;
+		double lag;
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = connection.createStatement();
+			rs = stmt.executeQuery(lagSql);
+			if (!rs.next())
+				return;
+			lag = rs.getDouble(1);
+			// A NULL lag, like Seconds_Behind_Master when replication isn't running, is left as unknown
+			if (rs.wasNull())
+				return;
+		} catch (SQLException ex) {
+			lagUnavailable = true;
+			logger.log(Level.WARNING,"Unable to read the replication lag with "+lagSql+" for "+description+", going on without it : SQLException "+ex.getMessage(),ex);
+			return;
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (Throwable th) {
+				}
+				rs = null;
+			}
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (Throwable th) {
+				}
+				stmt = null;
+			}
+		}
+		lagSeconds = lag;
+		if (lag > maxLagSeconds) {
+			synchronized (this) {
+				slowDown("the replication lag of "+lag+"s is over "+maxLagSeconds+"s");
+			}
+		}
+	}
+	private void slowDown(String reason) {
+		String change;
+		if (batchSize > minBatchSize) {
+			int was = batchSize;
+			batchSize = Math.max(minBatchSize, batchSize / 2);
+			change = "batch size "+was+" to "+batchSize;
+		} else if (writers > 1) {
+			writers--;
+			change = "writers "+(writers + 1)+" to "+writers;
+		} else if (delayMillis < MAX_DELAY_MILLIS) {
+			long was = delayMillis;
+			delayMillis = Math.min(MAX_DELAY_MILLIS, Math.max(MIN_DELAY_MILLIS, delayMillis * 2));
+			change = "delay "+was+"ms to "+delayMillis+"ms";
+		} else {
+			return;
+		}
+		decreases++;
+		logger.log(Level.INFO,"Slowing down the import for "+description+", "+change+" as "+reason);
+	}
+	private void speedUp(String reason) {
+		String change;
+		if (delayMillis > 0) {
+			long was = delayMillis;
+			delayMillis = delayMillis / 2 < MIN_DELAY_MILLIS ? 0 : delayMillis / 2;
+			change = "delay "+was+"ms to "+delayMillis+"ms";
+		} else if (writers < maxWriters) {
+			writers++;
+			notifyAll();
+			change = "writers "+(writers - 1)+" to "+writers;
+		} else if (batchSize < maxBatchSize) {
+			int was = batchSize;
+			batchSize = Math.min(maxBatchSize, batchSize + batchStep);
+			change = "batch size "+was+" to "+batchSize;
+		} else {
+			return;
+		}
+		increases++;
+		logger.log(Level.INFO,"Speeding up the import for "+description+", "+change+" as "+reason);
+	}
+}
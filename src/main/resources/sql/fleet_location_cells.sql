@@ -0,0 +1,11 @@
+-- Geohash cover of each imported location, written by imports with locationImport.coverPrecision set and read by
+-- LocationRepository.findLocationsContaining. A cell is of the row of fleet_locations with the same fleet, location_name
+-- and vigilPlusHash, see GeohashCover
+CREATE TABLE fleet_location_cells (
+	fleet BIGINT NOT NULL,
+	cell VARCHAR(12) CHARACTER SET ascii COLLATE ascii_bin NOT NULL,
+	location_name VARCHAR(255) NOT NULL,
+	location_hash BIGINT NOT NULL,
+	full_cell CHAR(1) NOT NULL,
+	PRIMARY KEY (fleet, cell, location_name, location_hash)
+);
@@ -0,0 +1,10 @@
+-- The last location committed by an import still running or that failed, written when locationImport.checkpoint is set.
+-- A rerun of the import carries on from location_name if LocationsImport still has import_rows rows, see ImportCheckpoint
+CREATE TABLE fleet_location_import_checkpoints (
+	fleet BIGINT NOT NULL,
+	import_area_type VARCHAR(32) NOT NULL,
+	location_name VARCHAR(255) NOT NULL,
+	import_rows BIGINT NOT NULL,
+	updated DATETIME NOT NULL,
+	PRIMARY KEY (fleet, import_area_type)
+);
@@ -0,0 +1,21 @@
+-- Import jobs for the resident import service, started with the argument service. A job is requested by inserting a
+-- row with the fleet and the AreaType, one of AreaCollection, KeepIn, Location, NoGo, SpeedArea or All:
+--   INSERT INTO fleet_location_import_jobs(fleet, area_type) VALUES (123, 'NoGo');
+-- The service moves it from queued to running to done or failed, see DataImportService. A running job is leased to the
+-- service in claimed_by until lease_expires, a job whose lease runs out is claimed by another service.
+-- A table created before there were leases needs the columns added:
+--   ALTER TABLE fleet_location_import_jobs ADD COLUMN claimed_by VARCHAR(255) NULL, ADD COLUMN lease_expires DATETIME NULL;
+CREATE TABLE fleet_location_import_jobs (
+	id BIGINT AUTO_INCREMENT PRIMARY KEY,
+	fleet BIGINT NOT NULL,
+	area_type VARCHAR(32) NOT NULL,
+	status VARCHAR(16) NOT NULL DEFAULT 'queued',
+	requested DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	started DATETIME NULL,
+	finished DATETIME NULL,
+	duration_millis BIGINT NULL,
+	message VARCHAR(1024) NULL,
+	claimed_by VARCHAR(255) NULL,
+	lease_expires DATETIME NULL,
+	INDEX fleet_location_import_jobs_status (status, id)
+);
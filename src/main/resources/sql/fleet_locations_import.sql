@@ -0,0 +1,6 @@
+-- Staging table of locationImport.stagedImport. An import writes the new locations of its fleet here and then
+-- publishes them to fleet_locations in one transaction, see StagedImport
+CREATE TABLE fleet_locations_import LIKE fleet_locations;
+ALTER TABLE fleet_locations_import
+	ADD COLUMN import_area_type VARCHAR(32) NOT NULL,
+	ADD UNIQUE KEY fleet_locations_import_name (fleet, import_area_type, location_name);
@@ -0,0 +1,4 @@
+-- Unique key of locationImport.upsert, which writes each location with one INSERT ... ON DUPLICATE KEY UPDATE,
+-- see LocationWriter.upsertSql. It can't be added while a fleet has two rows of a name, list them first with
+--   SELECT fleet, location_name, COUNT(*) FROM fleet_locations GROUP BY fleet, location_name HAVING COUNT(*) > 1;
+ALTER TABLE fleet_locations ADD UNIQUE KEY fleet_locations_fleet_name (fleet, location_name);
@@ -0,0 +1,4 @@
+-- Content hash of each imported location, compared by locationImport.deltaImport to skip the locations that have not
+-- changed. Only needed by, and only written by, the delta, staged and upsert imports and those with a geohash cover
+-- (coverPrecision), other imports leave it out. See Location.getContentHash() and ImportSettings.contentHash()
+ALTER TABLE fleet_locations ADD COLUMN vigilPlusHash BIGINT NULL;
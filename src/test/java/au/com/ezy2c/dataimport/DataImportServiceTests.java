@@ -0,0 +1,139 @@
+package au.com.ezy2c.dataimport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.repository.FleetBusyException;
+import au.com.ezy2c.dataimport.repository.ImportJob;
+import au.com.ezy2c.dataimport.repository.ImportSettings;
+import au.com.ezy2c.dataimport.repository.LocationRepository;
+
+class DataImportServiceTests {
+
+	@Test
+	void runsEveryJobWithoutOverlappingAFleet() throws Exception {
+		LinkedList<ImportJob> queue = new LinkedList<>();
+		queue.add(new ImportJob(1, 10, AreaType.NoGo));
+		queue.add(new ImportJob(2, 10, AreaType.KeepIn));
+		queue.add(new ImportJob(3, 20, null));
+		queue.add(new ImportJob(4, 30, AreaType.Location));
+		List<String> finished = Collections.synchronizedList(new ArrayList<>());
+		Set<Long> importing = Collections.synchronizedSet(new HashSet<>());
+		List<String> overlaps = Collections.synchronizedList(new ArrayList<>());
+		DataImportService service = new DataImportService();
+		service.importSettings = new ImportSettings();
+		service.fleetConcurrency = 4;
+		service.pollMillis = 5;
+		service.locationRepository = (LocationRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {LocationRepository.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "renewImportJobLease":
+						return true;
+					case "claimImportJobs":
+						return claim(queue, (Integer) args[0], (Set<?>) args[1]);
+					case "storeLocations":
+					case "storeAllLocations":
+						if (!importing.add((Long) args[0]))
+							overlaps.add("fleet "+args[0]);
+						Thread.sleep(20);
+						importing.remove(args[0]);
+						return null;
+					case "finishImportJob":
+						finished.add(((ImportJob) args[0]).getId()+(args[2] == null ? " done" : " failed"));
+						return true;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		Thread runner = new Thread(() -> {
+			try {
+				service.run();
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+		runner.start();
+		for (int i = 0; i < 200 && finished.size() < 4; i++)
+			Thread.sleep(10);
+		service.stop();
+		runner.join(5000);
+		assertTrue(!runner.isAlive());
+		Collections.sort(finished);
+		assertEquals(List.of("1 done", "2 done", "3 done", "4 done"), finished);
+		assertTrue(overlaps.isEmpty(), overlaps.toString());
+	}
+	@Test
+	void leavesTheJobOfALockedFleetToItsLease() throws Exception {
+		LinkedList<ImportJob> queue = new LinkedList<>();
+		queue.add(new ImportJob(1, 10, AreaType.NoGo));
+		queue.add(new ImportJob(2, 20, AreaType.NoGo));
+		List<String> finished = Collections.synchronizedList(new ArrayList<>());
+		List<Long> attempted = Collections.synchronizedList(new ArrayList<>());
+		DataImportService service = new DataImportService();
+		service.importSettings = new ImportSettings();
+		service.fleetConcurrency = 2;
+		service.pollMillis = 5;
+		service.locationRepository = (LocationRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {LocationRepository.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "renewImportJobLease":
+						return true;
+					case "claimImportJobs":
+						return claim(queue, (Integer) args[0], (Set<?>) args[1]);
+					case "storeLocations":
+						attempted.add((Long) args[0]);
+						if ((Long) args[0] == 10)
+							throw new FleetBusyException("Fleet 10 is locked", null);
+						return null;
+					case "finishImportJob":
+						finished.add(((ImportJob) args[0]).getId()+(args[2] == null ? " done" : " failed"));
+						return true;
+					default:
+						throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		Thread runner = new Thread(() -> {
+			try {
+				service.run();
+			} catch (Exception ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+		runner.start();
+		for (int i = 0; i < 200 && (finished.isEmpty() || attempted.size() < 2); i++)
+			Thread.sleep(10);
+		service.stop();
+		runner.join(5000);
+		assertTrue(!runner.isAlive());
+		assertEquals(List.of("2 done"), finished);
+		assertTrue(attempted.contains(10L), attempted.toString());
+	}
+	/**
+	 * Claims as LocationRepositoryImpl does, skipping the fleets that are busy or already claimed
+	 */
+	private static List<ImportJob> claim(LinkedList<ImportJob> queue, int max, Set<?> busyFleets) {
+		List<ImportJob> claimed = new ArrayList<>();
+		Set<Long> claimedFleets = new HashSet<>();
+		synchronized (queue) {
+			for (Iterator<ImportJob> it = queue.iterator(); it.hasNext() && claimed.size() < max;) {
+				ImportJob job = it.next();
+				if (busyFleets.contains(job.getFleetId()) || !claimedFleets.add(job.getFleetId()))
+					continue;
+				claimed.add(job);
+				it.remove();
+			}
+		}
+		return claimed;
+	}
+}
@@ -0,0 +1,132 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class ComplexPointsTests {
+	static Logger logger = Logger.getLogger(ComplexPointsTests.class.getSimpleName());
+	
+	/**
+	 * A location with points random points within about 1km of lat,long, each with 7 decimal places
+	 */
+	static Location randomLocation(Random random, int points, double latitude, double longitude) {
+		return randomLocation(random, "Random", points, latitude, longitude);
+	}
+	static Location randomLocation(Random random, String locationName, int points, double latitude, double longitude) {
+		Location location = null;
+		for (int i = 0; i < points; i++) {
+			BigDecimal pointLatitude = BigDecimal.valueOf(Math.round((latitude + random.nextDouble() * 0.01) * 1e7), 7);
+			BigDecimal pointLongitude = BigDecimal.valueOf(Math.round((longitude + random.nextDouble() * 0.01) * 1e7), 7);
+			if (location == null)
+				location = new Location(1, AreaType.NoGo, locationName, 1, new BigDecimal("60.00"), false, pointLatitude, pointLongitude);
+			else
+				location.add(i + 1, pointLatitude, pointLongitude);
+		}
+		return location;
+	}
+	
+	@Test
+	void polylineRoundTripsToTheSameText() {
+		Random random = new Random(42);
+		for (int n = 0; n < 1000; n++) {
+			double latitude = random.nextDouble() * 179 - 89.5;
+			double longitude = random.nextDouble() * 359 - 179.5;
+			Location location = randomLocation(random, 1 + random.nextInt(200), latitude, longitude);
+			String text = location.getComplexPoints();
+			String polyline = ComplexPoints.encodePolyline(location);
+			assertTrue(polyline.startsWith(ComplexPoints.POLYLINE_PREFIX));
+			assertEquals(text, ComplexPoints.parse(polyline).toText());
+			assertEquals(text, ComplexPoints.parse(text).toText());
+			assertEquals(polyline, ComplexPoints.parse(text).toPolyline());
+		}
+	}
+	
+	@Test
+	void decodesTheExtremesAndZero() {
+		String text = "-90.0000000,-180.0000000;90.0000000,180.0000000;0E-7,0E-7;-0.0000001,0.0000001";
+		ComplexPoints points = ComplexPoints.parse(text);
+		assertEquals(4, points.size());
+		assertEquals(-900000000L, points.getLatitudeE7(0));
+		assertEquals(1800000000L, points.getLongitudeE7(1));
+		assertEquals(0L, points.getLatitudeE7(2));
+		assertEquals(-1L, points.getLatitudeE7(3));
+		assertEquals(-0.0000001, points.getLatitude(3), 0.0);
+		ComplexPoints decoded = ComplexPoints.parse(points.toPolyline());
+		for (int i = 0; i < points.size(); i++) {
+			assertEquals(points.getLatitudeE7(i), decoded.getLatitudeE7(i));
+			assertEquals(points.getLongitudeE7(i), decoded.getLongitudeE7(i));
+		}
+	}
+	
+	@Test
+	void readsTextWithFewerOrMorePlaces() {
+		ComplexPoints points = ComplexPoints.parse("-33.8688,151.2093;1,2;-33.86880005,151.20930004");
+		assertEquals(-338688000L, points.getLatitudeE7(0));
+		assertEquals(1512093000L, points.getLongitudeE7(0));
+		assertEquals(10000000L, points.getLatitudeE7(1));
+		assertEquals(-338688001L, points.getLatitudeE7(2)); // rounded half up, away from zero
+		assertEquals(1512093000L, points.getLongitudeE7(2));
+	}
+	
+	@Test
+	void emptyAndInvalidValues() {
+		assertEquals(0, ComplexPoints.parse("").size());
+		assertEquals(0, ComplexPoints.parse(null).size());
+		assertEquals(0, ComplexPoints.parse(ComplexPoints.POLYLINE_PREFIX).size());
+		assertThrows(IllegalArgumentException.class, () -> ComplexPoints.parse("1.0;2.0"));
+		assertThrows(IllegalArgumentException.class, () -> ComplexPoints.parse("1.0,abc"));
+		assertThrows(IllegalArgumentException.class, () -> ComplexPoints.parse(ComplexPoints.POLYLINE_PREFIX+"_"));
+	}
+	
+	@Test
+	void moreThanSevenPlacesIsLeftAsText() {
+		Location location = new Location(1, AreaType.NoGo, "Precise", 1, new BigDecimal("60.00"), false, new BigDecimal("-33.86880001"), new BigDecimal("151.2093"));
+		assertNull(ComplexPoints.encodePolyline(location));
+		ImportSettings settings = new ImportSettings();
+		settings.complexPointsFormat = ComplexPoints.FORMAT_POLYLINE;
+		LocationWriter writer = new LocationWriter(null, 1, AreaType.NoGo, settings, ImportMetrics.unregistered(1, AreaType.NoGo));
+		assertEquals(location.getComplexPoints(), writer.complexPoints(location));
+	}
+	
+	@Test
+	void contentHashDependsOnTheFormat() {
+		Location location = randomLocation(new Random(7), 50, -33.8, 151.2);
+		ImportSettings settings = new ImportSettings();
+		long textHash = new LocationWriter(null, 1, AreaType.NoGo, settings, ImportMetrics.unregistered(1, AreaType.NoGo)).contentHash(location);
+		assertEquals(location.getContentHash(), textHash);
+		settings.complexPointsFormat = ComplexPoints.FORMAT_POLYLINE;
+		long polylineHash = new LocationWriter(null, 1, AreaType.NoGo, settings, ImportMetrics.unregistered(1, AreaType.NoGo)).contentHash(location);
+		assertTrue(textHash != polylineHash);
+	}
+	
+	/**
+	 * Compares the size of the two formats for polygons of a few hundred points.
+	 * The encode and decode times are compared by ComplexPointsBenchmarks.
+	 */
+	@Test
+	void polylineIsSmaller() {
+		Random random = new Random(1);
+		int count = 2000;
+		long textChars = 0;
+		long polylineChars = 0;
+		for (int n = 0; n < count; n++) {
+			Location location = randomLocation(random, 300, -33.8, 151.2);
+			textChars += location.getComplexPoints().length();
+			polylineChars += ComplexPoints.encodePolyline(location).length();
+		}
+		logger.log(Level.INFO,"complexpoints of "+count+" locations of 300 points: text "+textChars+" chars, polyline "+polylineChars+" chars ("
+				+(polylineChars * 100 / textChars)+"% of text)");
+		assertTrue(polylineChars * 2 < textChars, "polyline should be less than half the size of text");
+	}
+}
@@ -0,0 +1,85 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class GeohashCoverTests {
+	
+	@Test
+	void encodesAndDecodesGeohashes() {
+		assertEquals("u4pruydqqvj", GeohashCover.encode(57.64911, 10.40744, 11));
+		assertEquals("r3gx2f", GeohashCover.encode(-33.8688, 151.2093, 6));
+		double[] bounds = GeohashCover.bounds("r3gx2f");
+		assertTrue(bounds[0] <= -33.8688 && -33.8688 <= bounds[2]);
+		assertTrue(bounds[1] <= 151.2093 && 151.2093 <= bounds[3]);
+		List<String> prefixes = GeohashCover.prefixes(-33.8688, 151.2093);
+		assertEquals(GeohashCover.MAX_PRECISION, prefixes.size());
+		assertEquals("r", prefixes.get(0));
+		assertEquals("r3gx2f", prefixes.get(5));
+	}
+	
+	/**
+	 * Every point of the polygon is in exactly one cell, every point of a full cell is in the polygon
+	 * and no point outside the cells is in it
+	 */
+	@Test
+	void coversEveryPointOfThePolygon() {
+		Random random = new Random(16);
+		GeohashCover cover = new GeohashCover(8, 64);
+		for (int n = 0; n < 50; n++) {
+			Location location = new SyntheticPolygon(random, 3 + random.nextInt(200)).toLocation(1, AreaType.NoGo, "Polygon "+n);
+			double[] lats = new double[location.getNumberOfPoints()];
+			double[] lons = new double[location.getNumberOfPoints()];
+			for (int i = 0; i < lats.length; i++) {
+				lats[i] = location.getLatitude(i);
+				lons[i] = location.getLongitude(i);
+			}
+			List<GeohashCover.Cell> cells = cover.cover(location);
+			assertTrue(cells.size() <= 64 + 31, location.getLocationName()+" has "+cells.size()+" cells");
+			double minLat = location.minLatitude / 1e7, maxLat = location.maxLatitude / 1e7;
+			double minLon = location.minLongitude / 1e7, maxLon = location.maxLongitude / 1e7;
+			for (int k = 0; k < 2000; k++) {
+				double lat = minLat + (maxLat - minLat) * random.nextDouble();
+				double lon = minLon + (maxLon - minLon) * random.nextDouble();
+				boolean inside = GeohashCover.contains(lats, lons, lats.length, lat, lon);
+				GeohashCover.Cell holding = null;
+				for (GeohashCover.Cell cell : cells) {
+					double[] bounds = GeohashCover.bounds(cell.geohash);
+					if (bounds[0] <= lat && lat < bounds[2] && bounds[1] <= lon && lon < bounds[3]) {
+						assertEquals(null, holding, lat+","+lon+" is in "+holding+" and "+cell);
+						holding = cell;
+					}
+				}
+				if (inside)
+					assertTrue(holding != null, location.getLocationName()+" "+lat+","+lon+" is in no cell");
+				if (holding != null && holding.full)
+					assertTrue(inside, location.getLocationName()+" "+lat+","+lon+" is in full cell "+holding);
+			}
+		}
+	}
+	
+	@Test
+	void coversASinglePointWithOneCell() {
+		Location location = PolygonValidatorTests.location("-33.8688000,151.2093000");
+		List<GeohashCover.Cell> cells = new GeohashCover(7, 64).cover(location);
+		assertEquals(1, cells.size());
+		assertEquals(GeohashCover.encode(-33.8688, 151.2093, 7), cells.get(0).geohash);
+		assertFalse(cells.get(0).full);
+	}
+	
+	@Test
+	void usesLargerCellsForLargePolygons() {
+		Location location = PolygonValidatorTests.location("-30,140;-30,150;-40,150;-40,140");
+		List<GeohashCover.Cell> cells = new GeohashCover(12, 200).cover(location);
+		assertTrue(cells.size() <= 200);
+		assertTrue(cells.stream().anyMatch(cell -> cell.full && cell.geohash.length() <= 3));
+	}
+}
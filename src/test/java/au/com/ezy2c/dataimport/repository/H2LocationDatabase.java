@@ -0,0 +1,132 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * An H2 database in MySQL mode holding the LocationsImport and fleet_locations tables,
+ * so that the import can be run end to end without a MySQL server.
+ * One in memory lasts until the JVM exits or drop() is called. One in a file keeps its rows out of the heap,
+ * for the load tests that measure it.
+ */
+class H2LocationDatabase {
+	static final String SCHEMA = "classpath:sql/h2-locations.sql";
+	static final String MYSQL_MODE = ";MODE=MySQL;IGNORECASE=TRUE";
+	
+	private final JdbcDataSource dataSource;
+	
+	private H2LocationDatabase(String url) throws SQLException {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL(url);
+		execute("RUNSCRIPT FROM '"+SCHEMA+"'");
+	}
+	static H2LocationDatabase inMemory(String name) throws SQLException {
+		return new H2LocationDatabase("jdbc:h2:mem:"+name+MYSQL_MODE+";DB_CLOSE_DELAY=-1");
+	}
+	/**
+	 * A database in the file with the given path, without the .mv.db H2 adds
+	 */
+	static H2LocationDatabase inFile(Path file) throws SQLException {
+		return new H2LocationDatabase("jdbc:h2:file:"+file.toAbsolutePath()+MYSQL_MODE);
+	}
+	DataSource getDataSource() {
+		return dataSource;
+	}
+	/**
+	 * Settings that work with H2, which has no streaming result sets
+	 */
+	static ImportSettings settings() {
+		ImportSettings settings = new ImportSettings();
+		settings.readMode = ImportSettings.READ_MODE_BUFFERED;
+		settings.reportDirectory = "";
+		return settings;
+	}
+	void execute(String sql) throws SQLException {
+		try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement()) {
+			st.execute(sql);
+		}
+	}
+	long count(String sql) throws SQLException {
+		try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+			rs.next();
+			return rs.getLong(1);
+		}
+	}
+	void clear() throws SQLException {
+		execute("DELETE FROM LocationsImport");
+		execute("DELETE FROM fleet_locations");
+		execute("DELETE FROM fleet_location_cells");
+	}
+	void drop() throws SQLException {
+		execute("DROP ALL OBJECTS");
+	}
+	/**
+	 * Adds LocationsImport rows in batches, call close() to send the last of them
+	 */
+	LocationsImportInserter inserter() throws SQLException {
+		return new LocationsImportInserter(dataSource.getConnection());
+	}
+	static class LocationsImportInserter implements LocationsImportGenerator.Rows, AutoCloseable {
+		private static final int BATCH_SIZE = 1000;
+		private final Connection connection;
+		private final PreparedStatement ps;
+		private int pending;
+		private long rows;
+		
+		LocationsImportInserter(Connection connection) throws SQLException {
+			this.connection = connection;
+			connection.setAutoCommit(false);
+			ps = connection.prepareStatement("INSERT INTO LocationsImport(AreaType, LocationName, SpeedLimit, IsSafe, SequenceNo, latitude, longitude) "
+					+ " VALUES (?, ?, ?, ?, ?, ?, ?)");
+		}
+		/**
+		 * Adds the points of a polygon with the sequence numbers 1 to n
+		 */
+		void add(AreaType areaType, String locationName, BigDecimal speedLimit, boolean isSafe, SyntheticPolygon polygon) throws SQLException {
+			for (int i = 0; i < polygon.size(); i++)
+				add(areaType, locationName, speedLimit, isSafe, i + 1, polygon.latitudes[i], polygon.longitudes[i]);
+		}
+		@Override
+		public void add(AreaType areaType, String locationName, BigDecimal speedLimit, boolean isSafe, int sequenceNo, BigDecimal latitude, BigDecimal longitude) throws SQLException {
+			int i = 1;
+			ps.setString(i++,areaType.name);
+			ps.setString(i++,locationName);
+			ps.setBigDecimal(i++,speedLimit);
+			ps.setInt(i++,isSafe?1:0);
+			ps.setInt(i++,sequenceNo);
+			ps.setBigDecimal(i++,latitude);
+			ps.setBigDecimal(i++,longitude);
+			ps.addBatch();
+			rows++;
+			if (++pending >= BATCH_SIZE) {
+				ps.executeBatch();
+				pending = 0;
+			}
+		}
+		long getRows() {
+			return rows;
+		}
+		@Override
+		public void close() throws SQLException {
+			try {
+				if (pending > 0)
+					ps.executeBatch();
+				connection.commit();
+			} finally {
+				ps.close();
+				connection.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class ImportCheckpointTests {
+	
+	/**
+	 * A Connection like StagedImportTests.recordingConnection whose queries return the given row, or no row if it is null
+	 */
+	static Connection connection(List<String> recorded, Object[] row) {
+		Connection recording = StagedImportTests.recordingConnection(recorded);
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (connection, method, args) -> {
+			if (!method.getName().equals("prepareStatement"))
+				return method.invoke(recording, args);
+			PreparedStatement statement = (PreparedStatement) method.invoke(recording, args);
+			return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, (ps, m, a) -> {
+				if (!m.getName().equals("executeQuery"))
+					return m.invoke(statement, a);
+				boolean[] read = {row == null};
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {ResultSet.class}, (rs, rm, ra) -> {
+					switch (rm.getName()) {
+					case "next":
+						boolean next = !read[0];
+						read[0] = true;
+						return next;
+					case "getString":
+						return row[(Integer) ra[0] - 1];
+					case "getLong":
+						return row[(Integer) ra[0] - 1];
+					default:
+						return null;
+					}
+				});
+			});
+		});
+	}
+	private static Location read(ImportCheckpoint checkpoint, String locationName) {
+		Location location = PolygonValidatorTests.location("-33.1,151.1;-33.1,151.2;-33.2,151.2");
+		location.locationName = locationName;
+		checkpoint.read(location);
+		return location;
+	}
+	
+	@Test
+	void savesTheLastNameCommittedWithEveryNameBeforeIt() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		Connection connection = connection(recorded, null);
+		ImportCheckpoint checkpoint = ImportCheckpoint.start(connection, 7, AreaType.NoGo, 100);
+		assertFalse(checkpoint.isResuming());
+		assertTrue(recorded.get(0).startsWith("DELETE FROM fleet_location_import_checkpoints"));
+		recorded.clear();
+		Location a = read(checkpoint, "A");
+		Location b = read(checkpoint, "B");
+		Location c = read(checkpoint, "C");
+		Location d = read(checkpoint, "D");
+		// One writer commits B and D, A is still being written by another
+		checkpoint.committed(Arrays.asList(b.ordinal, d.ordinal));
+		checkpoint.save(connection);
+		assertEquals(0, recorded.size());
+		checkpoint.committed(Arrays.asList(a.ordinal));
+		checkpoint.save(connection);
+		assertEquals(2, recorded.size());
+		assertTrue(recorded.get(0).endsWith(" [7] [NoGo] [B] [100]"), recorded.get(0));
+		assertEquals("COMMIT", recorded.get(1));
+		checkpoint.save(connection);
+		assertEquals(2, recorded.size(), "nothing new to save");
+		checkpoint.committed(Arrays.asList(c.ordinal));
+		checkpoint.save(connection);
+		assertTrue(recorded.get(2).endsWith(" [7] [NoGo] [D] [100]"), recorded.get(2));
+	}
+	
+	/**
+	 * An import of every area type merges the good locations of a name, a bad record of a later name must not be numbered
+	 * ahead of them or a commit of the bad record alone would save a checkpoint past a location that was never written
+	 */
+	@Test
+	void resumesAfterAFailureWithBadRecordsOfEveryAreaType() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		Connection connection = connection(recorded, null);
+		ImportCheckpoint checkpoint = ImportCheckpoint.start(connection, 7, null, 100);
+		recorded.clear();
+		List<Location> read = new ArrayList<>();
+		AreaTypeMerger merger = new AreaTypeMerger(location -> {
+			checkpoint.read(location);
+			read.add(location);
+		});
+		merger.accept(location(AreaType.AreaCollection, "A", false));
+		merger.accept(location(AreaType.KeepIn, "A", true));
+		merger.accept(location(AreaType.NoGo, "A", false));
+		merger.accept(location(AreaType.Location, "B", true));
+		merger.accept(location(AreaType.AreaCollection, "C", false));
+		merger.accept(location(AreaType.NoGo, "D", true));
+		merger.finish();
+		assertEquals(5, read.size());
+		for (int i = 1; i < read.size(); i++)
+			assertTrue(read.get(i - 1).getLocationName().compareTo(read.get(i).getLocationName()) <= 0, "handed on out of order at "+i);
+		Location badA = read.get(0);
+		Location a = read.get(1);
+		Location b = read.get(2);
+		assertTrue(badA.isBadRecord() && !a.isBadRecord() && a.hasAreaType(AreaType.AreaCollection) && a.hasAreaType(AreaType.NoGo));
+		assertEquals("B", b.getLocationName());
+		// One writer commits the bad records of A and B, then the import fails before the good A is committed by another
+		checkpoint.committed(Arrays.asList(badA.ordinal, b.ordinal));
+		checkpoint.save(connection);
+		assertTrue(recorded.get(0).endsWith(" [7] [All] [A] [100]"), recorded.get(0));
+		// The rerun reads from A, so the good A is written
+		ImportCheckpoint resumed = ImportCheckpoint.start(connection(recorded, new Object[] {"A", 100L}), 7, null, 100);
+		assertTrue(resumed.isResuming());
+		assertEquals("A", resumed.getResumeFrom());
+	}
+	private static Location location(AreaType areaType, String locationName, boolean bad) {
+		Location location = new Location(1, areaType, locationName, 1, null, false, new BigDecimal("-33.1"), new BigDecimal("151.1"));
+		location.add(2, new BigDecimal("-33.1"), new BigDecimal("151.2"));
+		location.add(3, new BigDecimal("-33.2"), new BigDecimal("151.2"));
+		if (bad)
+			location.markAsBad("Test");
+		return location;
+	}
+	
+	@Test
+	void resumesOnlyWithTheSameNumberOfRows() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		ImportCheckpoint checkpoint = ImportCheckpoint.start(connection(recorded, new Object[] {"Depot 42", 100L}), 7, null, 100);
+		assertTrue(checkpoint.isResuming());
+		assertEquals("Depot 42", checkpoint.getResumeFrom());
+		assertEquals(0, recorded.size());
+		checkpoint = ImportCheckpoint.start(connection(recorded, new Object[] {"Depot 42", 99L}), 7, null, 100);
+		assertFalse(checkpoint.isResuming());
+		assertNull(checkpoint.getResumeFrom());
+		assertTrue(recorded.get(0).startsWith("DELETE FROM fleet_location_import_checkpoints") && recorded.get(0).endsWith(" [7] [All]"));
+	}
+}
@@ -0,0 +1,98 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class ImportJobLeaseTests {
+
+	private static LocationRepositoryImpl importer(H2LocationDatabase database, String name) {
+		ImportSettings settings = H2LocationDatabase.settings();
+		settings.instanceName = name;
+		return new LocationRepositoryImpl(database.getDataSource(), settings);
+	}
+
+	/**
+	 * Two importers claim disjoint jobs, never two of one fleet, and the job of one that stops renewing its lease is
+	 * taken over by the other
+	 */
+	@Test
+	void importersClaimDisjointJobsAndTakeOverExpiredLeases() throws Exception {
+		H2LocationDatabase database = H2LocationDatabase.inMemory("leases");
+		try {
+			database.execute("INSERT INTO fleet_location_import_jobs(fleet, area_type) VALUES (10, 'NoGo'), (10, 'KeepIn'), (20, 'All'), (30, 'Nowhere')");
+			LocationRepositoryImpl first = importer(database, "first");
+			LocationRepositoryImpl second = importer(database, "second");
+
+			List<ImportJob> firstJobs = first.claimImportJobs(1, Collections.emptySet());
+			assertEquals(1, firstJobs.size());
+			assertEquals(10, firstJobs.get(0).getFleetId());
+			assertEquals(AreaType.NoGo, firstJobs.get(0).getAreaType());
+			// Fleet 10 is leased to the first, its other job waits
+			List<ImportJob> secondJobs = second.claimImportJobs(5, Collections.emptySet());
+			assertEquals(1, secondJobs.size(), secondJobs.toString());
+			assertEquals(20, secondJobs.get(0).getFleetId());
+			assertEquals(1, database.count("SELECT COUNT(*) FROM fleet_location_import_jobs WHERE status = 'failed' AND fleet = 30"));
+			assertTrue(second.claimImportJobs(5, Collections.emptySet()).isEmpty());
+			assertTrue(first.renewImportJobLease(firstJobs.get(0)));
+			assertFalse(second.renewImportJobLease(firstJobs.get(0)));
+
+			// The first stops renewing
+			database.execute("UPDATE fleet_location_import_jobs SET lease_expires = TIMESTAMPADD(SECOND, -1, NOW()) WHERE claimed_by = 'first'");
+			List<ImportJob> takenOver = second.claimImportJobs(5, Collections.singleton(20L));
+			assertEquals(1, takenOver.size(), takenOver.toString());
+			assertEquals(firstJobs.get(0).getId(), takenOver.get(0).getId());
+			assertFalse(first.renewImportJobLease(firstJobs.get(0)));
+			assertFalse(first.finishImportJob(firstJobs.get(0), 10, null));
+			assertTrue(second.finishImportJob(takenOver.get(0), 10, null));
+			assertTrue(second.finishImportJob(secondJobs.get(0), 10, new IllegalStateException("failed")));
+			assertEquals(1, database.count("SELECT COUNT(*) FROM fleet_location_import_jobs WHERE status = 'done'"));
+			assertEquals(1, database.count("SELECT COUNT(*) FROM fleet_location_import_jobs WHERE status = 'failed' AND fleet = 20"));
+
+			List<ImportJob> last = first.claimImportJobs(5, Collections.emptySet());
+			assertEquals(1, last.size());
+			assertEquals(AreaType.KeepIn, last.get(0).getAreaType());
+		} finally {
+			database.drop();
+		}
+	}
+
+	/**
+	 * An importer that read the queue before another claimed a job of a fleet, and lost the race for it, can't go on to
+	 * claim another job of the fleet while the other's lease holds, fleet locks or not
+	 */
+	@Test
+	void importersNeverClaimTwoJobsOfOneFleet() throws Exception {
+		H2LocationDatabase database = H2LocationDatabase.inMemory("fleetClaims");
+		try {
+			database.execute("INSERT INTO fleet_location_import_jobs(fleet, area_type) VALUES (10, 'NoGo'), (10, 'KeepIn'), (20, 'NoGo')");
+			long noGo = database.count("SELECT id FROM fleet_location_import_jobs WHERE fleet = 10 AND area_type = 'NoGo'");
+			long keepIn = database.count("SELECT id FROM fleet_location_import_jobs WHERE fleet = 10 AND area_type = 'KeepIn'");
+			long other = database.count("SELECT id FROM fleet_location_import_jobs WHERE fleet = 20");
+			LocationRepositoryImpl first = importer(database, "first");
+			LocationRepositoryImpl second = importer(database, "second");
+			try (Connection connection = database.getDataSource().getConnection()) {
+				assertEquals(1, first.claimJob(connection, noGo, 10));
+				assertEquals(0, second.claimJob(connection, noGo, 10));
+				assertEquals(0, second.claimJob(connection, keepIn, 10));
+				assertEquals(1, second.claimJob(connection, other, 20));
+				assertEquals(1, database.count("SELECT COUNT(*) FROM fleet_location_import_jobs WHERE fleet = 10 AND status = 'running'"));
+				assertEquals(1, database.count("SELECT COUNT(*) FROM fleet_location_import_jobs WHERE fleet = 10 AND status = 'running' AND claimed_by = 'first'"));
+				// Once the first's lease has run out the fleet's jobs can be claimed again
+				database.execute("UPDATE fleet_location_import_jobs SET lease_expires = TIMESTAMPADD(SECOND, -1, NOW()) WHERE claimed_by = 'first'");
+				assertEquals(1, second.claimJob(connection, keepIn, 10));
+				assertEquals(0, first.claimJob(connection, noGo, 10));
+			}
+		} finally {
+			database.drop();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class LocationAssemblerTests {
+	
+	/**
+	 * A ResultSet that makes up its rows as they are read, so the test data itself takes no memory.
+	 * Each location has pointsPerLocation rows with sequence numbers 1..pointsPerLocation
+	 */
+	static ResultSet syntheticLocationsImport(long locations, int pointsPerLocation) {
+		long rows = locations * pointsPerLocation;
+		long[] row = {0};
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class}, (proxy, method, args) -> {
+			long location = (row[0] - 1) / pointsPerLocation;
+			int point = (int) ((row[0] - 1) % pointsPerLocation);
+			switch (method.getName()) {
+			case "next":
+				return ++row[0] <= rows;
+			case "getLong":
+				return row[0];
+			case "getString":
+				return String.format("Location %09d", location);
+			case "getInt":
+				return (Integer) args[0] == 4 ? 0 : point + 1; // IsSafe, SequenceNo
+			case "getBigDecimal":
+				switch ((Integer) args[0]) {
+				case 3:
+					return new BigDecimal("60.00");
+				case 6:
+					return BigDecimal.valueOf(-338688000L + point, 7);
+				default:
+					return BigDecimal.valueOf(1512093000L + location, 7);
+				}
+			case "close":
+				return null;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+	
+	@Test
+	void groupsRowsIntoLocations() throws Exception {
+		long[] points = {0};
+		long[] locations = {0};
+		LocationAssembler assembler = new LocationAssembler(AreaType.NoGo, location -> {
+			locations[0]++;
+			points[0] += location.getNumberOfPoints();
+			assertEquals(5, location.getNumberOfPoints());
+			assertTrue(!location.isBadRecord());
+		});
+		assembler.readAll(syntheticLocationsImport(20, 5));
+		assertEquals(20, locations[0]);
+		assertEquals(100, points[0]);
+		assertEquals(100, assembler.getRowsRead());
+	}
+	
+	@Test
+	void heapStaysFlatWhileStreaming() throws Exception {
+		LocationAssembler.logger.setLevel(Level.WARNING);
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long locations = 4000;
+		int pointsPerLocation = 1000;
+		long[] heapAfterQuarter = {0};
+		long[] maxHeap = {0};
+		long[] seen = {0};
+		// 4 million rows, which would take several hundred megabytes if they were all held at once
+		LocationAssembler assembler = new LocationAssembler(AreaType.SpeedArea, location -> {
+			seen[0]++;
+			if (seen[0] % (locations / 8) == 0) {
+				System.gc();
+				long used = memory.getHeapMemoryUsage().getUsed();
+				if (seen[0] == locations / 4)
+					heapAfterQuarter[0] = used;
+				else if (seen[0] > locations / 4)
+					maxHeap[0] = Math.max(maxHeap[0], used);
+			}
+		});
+		assembler.readAll(syntheticLocationsImport(locations, pointsPerLocation));
+		assertEquals(locations, seen[0]);
+		assertEquals(locations * pointsPerLocation, assembler.getRowsRead());
+		long growth = maxHeap[0] - heapAfterQuarter[0];
+		assertTrue(growth < 32L * 1024 * 1024, "Heap grew by "+growth+" bytes while streaming");
+	}
+}
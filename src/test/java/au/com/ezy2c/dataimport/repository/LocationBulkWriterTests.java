@@ -0,0 +1,187 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class LocationBulkWriterTests {
+	static Logger logger = Logger.getLogger(LocationBulkWriterTests.class.getSimpleName());
+	
+	/**
+	 * A Connection that records the SQL it is given and, for LOAD DATA, the lines of the file
+	 */
+	static Connection recordingConnection(List<String> sql, List<String> loaded) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (connection, method, args) -> {
+			switch (method.getName()) {
+			case "createStatement":
+			case "prepareStatement":
+				if (args != null)
+					sql.add((String) args[0]);
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, (statement, m, a) -> {
+					switch (m.getName()) {
+					case "execute":
+					case "executeLargeUpdate":
+						String s = (String) a[0];
+						sql.add(s);
+						if (s.startsWith("LOAD DATA")) {
+							String fileName = s.substring(s.indexOf('\'') + 1, s.indexOf('\'', s.indexOf('\'') + 1));
+							loaded.addAll(Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8));
+							return (long) loaded.size();
+						}
+						return m.getName().equals("execute") ? (Object) false : (Object) 0L;
+					case "executeUpdate":
+						return 0;
+					default:
+						return null;
+					}
+				});
+			default:
+				return null;
+			}
+		});
+	}
+	
+	@Test
+	void writesEscapedTabSeparatedLines() throws Exception {
+		List<String> sql = new ArrayList<>();
+		List<String> loaded = new ArrayList<>();
+		Location location = new Location(1, AreaType.NoGo, "Depot\tNo.1 \\ North", 1, null, true, new BigDecimal("-33.8688000"), new BigDecimal("151.2093000"));
+		location.add(2, new BigDecimal("-33.8690000"), new BigDecimal("151.2095000"));
+		location.add(3, new BigDecimal("-33.8689000"), new BigDecimal("151.2099000"));
+		ImportSettings settings = new ImportSettings();
+		settings.upsert = true;
+		LocationBulkWriter writer = new LocationBulkWriter(recordingConnection(sql, loaded), 7, AreaType.NoGo, settings, ImportMetrics.unregistered(7, AreaType.NoGo));
+		try {
+			writer.add(location);
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+		assertEquals(1, loaded.size());
+		String[] fields = loaded.get(0).split("\t", -1);
+		assertEquals(LocationBulkWriter.COLUMNS.length + 1, fields.length);
+		assertEquals("Depot\\tNo.1 \\\\ North", fields[0]);
+		assertEquals(location.getComplexPoints(), fields[7]);
+		assertEquals("y", fields[8]);
+		assertEquals("\\N", fields[10]);
+		assertEquals("N", fields[12]);
+		assertEquals("Y", fields[15]);
+		assertEquals(Long.toString(location.getContentHash()), fields[17]);
+		assertTrue(sql.stream().anyMatch(s -> s.startsWith("UPDATE fleet_locations f JOIN") && s.contains("vigilPlusNoGo")));
+		assertTrue(sql.stream().anyMatch(s -> s.startsWith("INSERT IGNORE INTO fleet_locations")));
+		assertTrue(sql.get(sql.size() - 1).startsWith("DROP TEMPORARY TABLE"));
+	}
+	
+	@Test
+	void leavesOutTheHashUnlessTheImportComparesIt() throws Exception {
+		List<String> sql = new ArrayList<>();
+		List<String> loaded = new ArrayList<>();
+		Location location = new Location(1, AreaType.NoGo, "Depot", 1, null, true, new BigDecimal("-33.8688000"), new BigDecimal("151.2093000"));
+		location.add(2, new BigDecimal("-33.8690000"), new BigDecimal("151.2095000"));
+		location.add(3, new BigDecimal("-33.8689000"), new BigDecimal("151.2099000"));
+		LocationBulkWriter writer = new LocationBulkWriter(recordingConnection(sql, loaded), 7, AreaType.NoGo, new ImportSettings(), ImportMetrics.unregistered(7, AreaType.NoGo));
+		try {
+			writer.add(location);
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+		String[] fields = loaded.get(0).split("\t", -1);
+		assertEquals(LocationBulkWriter.COLUMNS.length, fields.length);
+		assertEquals("N", fields[16]);
+		assertTrue(sql.stream().noneMatch(s -> s.contains("vigilPlusHash")), sql.toString());
+	}
+	
+	/**
+	 * Writes the same locations with LocationWriter's batches and with LOAD DATA and checks that both leave the same rows,
+	 * the times are compared by BulkLoadBenchmarks.
+	 * Only runs when -DlocationImport.benchmarkUrl gives the JDBC url of a MySQL schema with fleet_locations
+	 * and local_infile=ON, the rows are written to fleet -1 and deleted afterwards.
+	 */
+	@Test
+	void bulkLoadWritesTheSameRowsAsBatches() throws Exception {
+		String url = System.getProperty("locationImport.benchmarkUrl");
+		assumeTrue(url != null, "locationImport.benchmarkUrl is not set");
+		int count = Integer.getInteger("locationImport.benchmarkLocations", 2000);
+		long fleetId = -1;
+		List<Location> locations = new ArrayList<>();
+		Random random = new Random(3);
+		for (int n = 0; n < count; n++) {
+			locations.add(ComplexPointsTests.randomLocation(random, "Benchmark "+n, 50, -33.8, 151.2));
+		}
+		ImportSettings settings = new ImportSettings();
+		Connection connection = DriverManager.getConnection(url + (url.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true&allowLoadLocalInfile=true");
+		try {
+			connection.setAutoCommit(false);
+			deleteFleet(connection, fleetId);
+			LocationWriter writer = new LocationWriter(connection, fleetId, AreaType.NoGo, settings, ImportMetrics.unregistered(fleetId, AreaType.NoGo));
+			try {
+				for (Location location : locations)
+					writer.insert(location);
+				writer.finish();
+			} finally {
+				writer.close();
+			}
+			List<String> batchRows = fleetRows(connection, fleetId);
+			assertEquals(count, batchRows.size());
+			deleteFleet(connection, fleetId);
+			LocationBulkWriter bulkWriter = new LocationBulkWriter(connection, fleetId, AreaType.NoGo, settings, ImportMetrics.unregistered(fleetId, AreaType.NoGo));
+			try {
+				for (Location location : locations)
+					bulkWriter.add(location);
+				bulkWriter.finish();
+			} finally {
+				bulkWriter.close();
+			}
+			assertEquals(batchRows, fleetRows(connection, fleetId));
+		} finally {
+			deleteFleet(connection, fleetId);
+			connection.close();
+		}
+	}
+	private static void deleteFleet(Connection connection, long fleetId) throws Exception {
+		try (Statement st = connection.createStatement()) {
+			st.executeUpdate("DELETE FROM fleet_locations WHERE fleet = "+fleetId);
+		}
+		connection.commit();
+	}
+	/**
+	 * Every column but loc_id of the fleet's rows
+	 */
+	private static List<String> fleetRows(Connection connection, long fleetId) throws Exception {
+		List<String> rows = new ArrayList<>();
+		try (Statement st = connection.createStatement();
+				ResultSet rs = st.executeQuery("SELECT * FROM fleet_locations WHERE fleet = "+fleetId+" ORDER BY location_name")) {
+			ResultSetMetaData meta = rs.getMetaData();
+			while (rs.next()) {
+				StringBuilder row = new StringBuilder();
+				for (int i = 1; i <= meta.getColumnCount(); i++) {
+					if (!meta.getColumnName(i).equalsIgnoreCase("loc_id"))
+						row.append(rs.getString(i)).append('|');
+				}
+				rows.add(row.toString());
+			}
+		}
+		return rows;
+	}
+}
@@ -0,0 +1,253 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class LocationFileSourceTests {
+	static Logger logger = Logger.getLogger(LocationFileSourceTests.class.getSimpleName());
+
+	static final String CSV_HEADER = "LocationName,AreaType,SequenceNo,latitude,longitude,SpeedLimit,IsSafe";
+
+	/**
+	 * Writes the generated rows to a CSV file in LocationsImport order, the name quoted
+	 */
+	static LocationsImportGenerator.Summary writeCsv(Path file, LocationsImportGenerator generator) throws Exception {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			writer.write(CSV_HEADER);
+			writer.newLine();
+			return generator.generate((areaType, locationName, speedLimit, isSafe, sequenceNo, latitude, longitude) -> {
+				writer.write("\""+locationName.replace("\"", "\"\"")+"\","+areaType.name+","+sequenceNo+","+latitude+","+longitude+","+speedLimit+","+(isSafe ? 1 : 0));
+				writer.newLine();
+			});
+		}
+	}
+	private static List<String> read(LocationFileSource source) throws Exception {
+		List<String> locations = new ArrayList<>();
+		source.read(location -> locations.add(describe(location)));
+		return locations;
+	}
+	private static String describe(Location location) {
+		StringBuilder sb = new StringBuilder(location.toString());
+		for (AreaType areaType : AreaType.values()) {
+			if (location.hasAreaType(areaType))
+				sb.append(' ').append(areaType);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	void csvMakesTheLocationsLocationsImportWould() throws Exception {
+		Path directory = Files.createTempDirectory("locations");
+		Path file = directory.resolve("locations.csv");
+		try {
+			LocationsImportGenerator generator = new LocationsImportGenerator().locations(300).vertices(3, 40).badSequenceFraction(0.05);
+			writeCsv(file, generator);
+			// Read through windows much smaller than the file
+			try (MappedFileInputStream in = new MappedFileInputStream(file, 4096)) {
+				assertTrue(Arrays.equals(Files.readAllBytes(file), in.readAllBytes()));
+			}
+			// The same rows through LocationAssembler, with the line numbers as ids
+			List<String> expected = new ArrayList<>();
+			AreaTypeMerger merger = new AreaTypeMerger(location -> expected.add(describe(location)));
+			LocationAssembler assembler = new LocationAssembler(null, merger);
+			long[] line = {1};
+			generator.generate((areaType, locationName, speedLimit, isSafe, sequenceNo, latitude, longitude) ->
+					assembler.add(areaType, ++line[0], locationName, speedLimit, isSafe, sequenceNo, latitude, longitude));
+			assembler.finish();
+			merger.finish();
+			assertTrue(expected.stream().anyMatch(location -> location.contains("Incorrect sequence number")));
+			assertEquals(expected, read(LocationFileSource.open(file, null, null)));
+			List<String> noGo = read(LocationFileSource.open(file, AreaType.NoGo, null));
+			assertTrue(!noGo.isEmpty() && noGo.stream().allMatch(location -> location.endsWith(" NoGo")), noGo.toString());
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void geoJsonFeaturesBecomeLocations() throws Exception {
+		Path directory = Files.createTempDirectory("locations");
+		Path file = directory.resolve("locations.geojson");
+		try {
+			Files.write(file, ("{\"type\": \"FeatureCollection\", \"name\": \"export\", \"features\": [\n"
+					+ " {\"type\": \"Feature\", \"properties\": {\"Name\": \"Depot\", \"areatype\": \"NoGo\", \"SpeedLimit\": 40, \"IsSafe\": true},\n"
+					+ "  \"geometry\": {\"type\": \"Polygon\", \"coordinates\": [[[151.2093000, -33.8688000], [151.2100, -33.8688], [151.2100, -33.8700], [151.2093000, -33.8688000]],\n"
+					+ "   [[151.2095, -33.8690], [151.2096, -33.8690], [151.2096, -33.8691]]]}},\n"
+					+ " {\"type\": \"Feature\", \"properties\": {\"name\": \"Corridor\", \"AreaType\": \"Keep-In\"},\n"
+					+ "  \"geometry\": {\"type\": \"LineString\", \"coordinates\": [[151.1, -33.1], [151.2, -33.2]]}},\n"
+					+ " {\"type\": \"Feature\", \"properties\": {\"name\": \"Gate\"}, \"geometry\": {\"type\": \"Point\", \"coordinates\": [151.3, -33.3]}},\n"
+					+ " {\"type\": \"Feature\", \"properties\": {\"name\": \"Islands\"}, \"geometry\": {\"type\": \"MultiPolygon\", \"coordinates\": []}}\n"
+					+ "]}").getBytes(StandardCharsets.UTF_8));
+			List<String> locations = read(LocationFileSource.open(file, AreaType.NoGo, null));
+			assertEquals(2, locations.size(), locations.toString());
+			assertTrue(locations.get(0).startsWith("[Location: id=1 locationName=Depot speedLimit=40 isSafe=true"), locations.get(0));
+			// The outer ring with its digits as they were, without the hole
+			assertTrue(locations.get(0).contains("latLongs={(-33.8688000,151.2093000),(-33.8688000,151.2100000),(-33.8700000,151.2100000),(-33.8688000,151.2093000)}"),
+					locations.get(0));
+			assertTrue(locations.get(1).startsWith("[Location: id=3 locationName=Gate") && locations.get(1).contains("latLongs={(-33.3,151.3)}"), locations.get(1));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void kmlPlacemarksBecomeLocations() throws Exception {
+		Path directory = Files.createTempDirectory("locations");
+		Path file = directory.resolve("locations.kml");
+		try {
+			Files.write(file, ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+					+ "<kml xmlns=\"http://www.opengis.net/kml/2.2\"><Document><name>Export</name>\n"
+					+ " <Placemark><name>Depot</name>\n"
+					+ "  <ExtendedData><Data name=\"AreaType\"><value>speedArea</value></Data><SimpleData name=\"SpeedLimit\">60.00</SimpleData></ExtendedData>\n"
+					+ "  <Polygon><outerBoundaryIs><LinearRing><coordinates>151.2093,-33.8688,0 151.2100,-33.8688,0\n 151.2100,-33.8700,0</coordinates></LinearRing></outerBoundaryIs>\n"
+					+ "   <innerBoundaryIs><LinearRing><coordinates>151.2095,-33.8690 151.2096,-33.8690 151.2096,-33.8691</coordinates></LinearRing></innerBoundaryIs></Polygon>\n"
+					+ " </Placemark>\n"
+					+ " <Placemark><name>Two shapes</name><ExtendedData><Data name=\"AreaType\"><value>speedArea</value></Data></ExtendedData>\n"
+					+ "  <MultiGeometry><Point><coordinates>151.1,-33.1</coordinates></Point><Point><coordinates>151.2,-33.2</coordinates></Point></MultiGeometry>\n"
+					+ " </Placemark>\n"
+					+ " <Placemark><name>Gate</name><ExtendedData><Data name=\"AreaType\"><value>NoGo</value></Data></ExtendedData>\n"
+					+ "  <Point><coordinates>151.3,-33.3</coordinates></Point></Placemark>\n"
+					+ "</Document></kml>").getBytes(StandardCharsets.UTF_8));
+			List<String> locations = read(LocationFileSource.open(file, null, null));
+			assertEquals(2, locations.size(), locations.toString());
+			assertEquals("[Location: id=1 locationName=Depot speedLimit=60.00 isSafe=false sequenceNo=3 badRecord=false badRecordReason=null "
+					+ "latLongs={(-33.8688,151.2093),(-33.8688,151.2100),(-33.8700,151.2100)} ] SpeedArea", locations.get(0));
+			assertTrue(locations.get(1).startsWith("[Location: id=3 locationName=Gate") && locations.get(1).endsWith(" NoGo"), locations.get(1));
+		} finally {
+			Files.deleteIfExists(file);
+			Files.delete(directory);
+		}
+	}
+
+	@Test
+	void coordinatesAreHeldAtAScaleLocationCanHold() throws Exception {
+		assertEquals(new BigDecimal("100"), LocationFileSource.coordinate(new BigDecimal("1E+2")));
+		assertEquals(new BigDecimal("-33.123456789012346"), LocationFileSource.coordinate(new BigDecimal("-33.12345678901234567890")));
+		assertEquals(new BigDecimal("-33.1"), LocationFileSource.coordinate(new BigDecimal("-33.1000000000000000000")));
+		assertEquals(new BigDecimal("151.2093000"), LocationFileSource.coordinate(new BigDecimal("151.2093000")));
+		assertThrows(ArithmeticException.class, () -> LocationFileSource.coordinate(new BigDecimal("1E+30")));
+		Path directory = Files.createTempDirectory("locations");
+		Path csv = directory.resolve("locations.csv");
+		Path geoJson = directory.resolve("locations.geojson");
+		try {
+			Files.write(csv, (CSV_HEADER+"\n"
+					+ "Hundred,NoGo,1,-3E+1,1.5E+2,,0\n"
+					+ "Hundred,NoGo,2,-33.12345678901234567890,151.2,,0\n"
+					+ "Huge,NoGo,1,1E+30,151,,0\n"
+					+ "Zeros,NoGo,1,-33.1000000000000000000,151.1,,0\n").getBytes(StandardCharsets.UTF_8));
+			List<String> locations = read(LocationFileSource.open(csv, AreaType.NoGo, null));
+			assertEquals(2, locations.size(), locations.toString());
+			assertTrue(locations.get(0).contains("latLongs={(-30.000000000000000,150.0),(-33.123456789012346,151.2)}"), locations.get(0));
+			assertTrue(locations.get(1).contains("locationName=Zeros") && locations.get(1).contains("latLongs={(-33.1,151.1)}"), locations.get(1));
+
+			Files.write(geoJson, ("[{\"type\": \"Feature\", \"properties\": {\"name\": \"Hundred\"}, \"geometry\": {\"type\": \"LineString\", \"coordinates\": [[1.5E+2, -3E+1], [151.2, -33.12345678901234567890]]}},\n"
+					+ " {\"type\": \"Feature\", \"properties\": {\"name\": \"Huge\"}, \"geometry\": {\"type\": \"Point\", \"coordinates\": [1E+400, -33.1]}}]").getBytes(StandardCharsets.UTF_8));
+			locations = read(LocationFileSource.open(geoJson, AreaType.NoGo, null));
+			assertEquals(1, locations.size(), locations.toString());
+			assertTrue(locations.get(0).contains("latLongs={(-30.000000000000000,150.0),(-33.123456789012346,151.2)}"), locations.get(0));
+		} finally {
+			Files.deleteIfExists(csv);
+			Files.deleteIfExists(geoJson);
+			Files.delete(directory);
+		}
+	}
+
+	/**
+	 * Imports generated locations of every AreaType the way they are imported now, by loading a CSV file of them into
+	 * LocationsImport and importing from there, and then straight from the file, checking that both leave the same
+	 * fleet_locations rows, for -DlocationImport.benchmarkLocations location names (default 1000).
+	 * The times of the two are compared by FileImportBenchmarks.
+	 * Only runs when -DlocationImport.benchmarkUrl gives the JDBC url of a MySQL schema made for it: its LocationsImport
+	 * is emptied and filled with the generated rows, the locations are imported to fleet -1 and deleted afterwards.
+	 */
+	@Test
+	void fileAndStagingTableWriteTheSameRows() throws Exception {
+		String url = System.getProperty("locationImport.benchmarkUrl");
+		assumeTrue(url != null, "locationImport.benchmarkUrl is not set");
+		long fleetId = -1;
+		HikariDataSource dataSource = new HikariDataSource();
+		dataSource.setJdbcUrl(url + (url.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true");
+		Path file = Files.createTempFile("locations", ".csv");
+		try {
+			writeCsv(file, new LocationsImportGenerator().locations(Integer.getInteger("locationImport.benchmarkLocations", 1000)));
+			LocationRepositoryImpl repository = new LocationRepositoryImpl(dataSource, new ImportSettings());
+			// Through the staging table: load the file into LocationsImport, then import from it
+			execute(dataSource, "DELETE FROM LocationsImport");
+			loadLocationsImport(dataSource, file);
+			repository.storeAllLocations(fleetId);
+			List<String> stagingRows = fleetLocations(dataSource, fleetId);
+			// Straight from the file
+			repository.storeLocationsFromFile(fleetId, null, file);
+			assertEquals(stagingRows, fleetLocations(dataSource, fleetId));
+		} finally {
+			execute(dataSource, "DELETE FROM fleet_locations WHERE fleet = "+fleetId);
+			dataSource.close();
+			Files.delete(file);
+		}
+	}
+	/**
+	 * Loads a CSV file written by writeCsv into LocationsImport
+	 */
+	static void loadLocationsImport(HikariDataSource dataSource, Path file) throws Exception {
+		try (H2LocationDatabase.LocationsImportInserter inserter = new H2LocationDatabase.LocationsImportInserter(dataSource.getConnection());
+				BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			reader.readLine();
+			List<String> fields = new ArrayList<>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				CsvLocationFile.split(line, fields);
+				inserter.add(AreaType.fromName(fields.get(1)), fields.get(0), new BigDecimal(fields.get(5)), "1".equals(fields.get(6)),
+						Integer.parseInt(fields.get(2)), new BigDecimal(fields.get(3)), new BigDecimal(fields.get(4)));
+			}
+		}
+	}
+	/**
+	 * Every column but loc_id of the fleet's rows
+	 */
+	private static List<String> fleetLocations(HikariDataSource dataSource, long fleetId) throws Exception {
+		List<String> rows = new ArrayList<>();
+		try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement();
+				ResultSet rs = st.executeQuery("SELECT * FROM fleet_locations WHERE fleet = "+fleetId+" ORDER BY location_name")) {
+			ResultSetMetaData meta = rs.getMetaData();
+			while (rs.next()) {
+				StringBuilder row = new StringBuilder();
+				for (int i = 1; i <= meta.getColumnCount(); i++) {
+					if (!meta.getColumnName(i).equalsIgnoreCase("loc_id"))
+						row.append(rs.getString(i)).append('|');
+				}
+				rows.add(row.toString());
+			}
+		}
+		return rows;
+	}
+	private static void execute(HikariDataSource dataSource, String sql) throws Exception {
+		try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement()) {
+			st.executeUpdate(sql);
+		}
+	}
+}
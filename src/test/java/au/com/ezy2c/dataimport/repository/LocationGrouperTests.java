@@ -0,0 +1,132 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class LocationGrouperTests {
+
+	/**
+	 * A LocationsImport row
+	 */
+	private static class ImportRow {
+		final AreaType areaType;
+		final long id;
+		final String locationName;
+		final int sequenceNo;
+		final BigDecimal latitude;
+		final BigDecimal longitude;
+
+		ImportRow(AreaType areaType, long id, String locationName, int sequenceNo, BigDecimal latitude, BigDecimal longitude) {
+			this.areaType = areaType;
+			this.id = id;
+			this.locationName = locationName;
+			this.sequenceNo = sequenceNo;
+			this.latitude = latitude;
+			this.longitude = longitude;
+		}
+	}
+
+	/**
+	 * Rows of 300 names, some of them in more than one area type, with a gap in the sequence of every 7th location
+	 * and a repeated sequence number in every 11th
+	 */
+	private static List<ImportRow> rows() {
+		List<ImportRow> rows = new ArrayList<>();
+		long id = 0;
+		AreaType[] types = AreaType.values();
+		for (int n = 0; n < 300; n++) {
+			for (int t = 0; t <= n % 3; t++) {
+				AreaType areaType = types[(n + t) % types.length];
+				int points = 3 + n % 5;
+				for (int s = 1; s <= points; s++) {
+					int sequenceNo = s;
+					if (n % 7 == 0 && s == points)
+						sequenceNo = s + 1;
+					else if (n % 11 == 0 && s == 2)
+						sequenceNo = 1;
+					rows.add(new ImportRow(areaType, ++id, "Location "+n, sequenceNo,
+							BigDecimal.valueOf(-338688000L - n * 100 - s, 7), BigDecimal.valueOf(1512093000L + n * 100 + s, 7 + s % 2)));
+				}
+			}
+		}
+		return rows;
+	}
+	/**
+	 * The locations made from the rows in the order of the ordered query, merged across area types
+	 */
+	private static List<String> ordered(List<ImportRow> rows) throws Exception {
+		List<ImportRow> sorted = new ArrayList<>(rows);
+		sorted.sort(Comparator.<ImportRow, String>comparing(row -> row.locationName)
+				.thenComparing(row -> row.areaType.name, String.CASE_INSENSITIVE_ORDER)
+				.thenComparingInt(row -> row.sequenceNo));
+		List<String> locations = new ArrayList<>();
+		AreaTypeMerger merger = new AreaTypeMerger(location -> locations.add(describe(location)));
+		LocationAssembler assembler = new LocationAssembler(null, merger);
+		for (ImportRow row : sorted)
+			assembler.add(row.areaType, row.id, row.locationName, new BigDecimal("60.00"), false, row.sequenceNo, row.latitude, row.longitude);
+		assembler.finish();
+		merger.finish();
+		Collections.sort(locations);
+		return locations;
+	}
+	private static List<String> grouped(List<ImportRow> rows, long memoryBytes, File spillDirectory) throws Exception {
+		List<ImportRow> shuffled = new ArrayList<>(rows);
+		Collections.shuffle(shuffled, new Random(42));
+		List<String> locations = new ArrayList<>();
+		AreaTypeMerger merger = new AreaTypeMerger(location -> locations.add(describe(location)));
+		LocationGrouper grouper = new LocationGrouper(null, merger, null, memoryBytes, spillDirectory);
+		for (ImportRow row : shuffled)
+			grouper.add(row.areaType, row.id, row.locationName, new BigDecimal("60.00"), false, row.sequenceNo, row.latitude, row.longitude);
+		grouper.finish();
+		merger.finish();
+		assertEquals(rows.size(), grouper.getRowsRead());
+		if (memoryBytes < rows.size() * LocationGrouper.ROW_BYTES)
+			assertTrue(grouper.getSpilledRows() > 0);
+		Collections.sort(locations);
+		return locations;
+	}
+	private static String describe(Location location) {
+		StringBuilder sb = new StringBuilder(location.toString());
+		for (AreaType areaType : AreaType.values()) {
+			if (location.hasAreaType(areaType))
+				sb.append(' ').append(areaType);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	void matchesTheOrderedRead() throws Exception {
+		List<ImportRow> rows = rows();
+		List<String> expected = ordered(rows);
+		assertTrue(expected.stream().anyMatch(location -> location.contains("Incorrect sequence number")));
+		assertEquals(expected, grouped(rows, Long.MAX_VALUE, null));
+	}
+
+	@Test
+	void matchesTheOrderedReadWhenSpilling() throws Exception {
+		LocationGrouper.logger.setLevel(Level.WARNING);
+		List<ImportRow> rows = rows();
+		File spillDirectory = Files.createTempDirectory("grouper").toFile();
+		try {
+			// Small enough for the partitions to spill again
+			assertEquals(ordered(rows), grouped(rows, 20000, spillDirectory));
+			assertEquals(0, spillDirectory.list().length);
+		} finally {
+			spillDirectory.delete();
+		}
+	}
+}
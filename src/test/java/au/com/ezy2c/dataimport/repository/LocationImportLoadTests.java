@@ -0,0 +1,121 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Imports generated LocationsImport data of every AreaType into an H2 database in MySQL mode and records the
+ * throughput, the peak heap and the GC time of each import. It runs offline, nothing but the JVM is needed.
+ * 
+ * Excluded from the normal build, run it with
+ *     mvn -Ploadtest test -Dloadtest.locations=10000,100000,1000000
+ * -Dloadtest.locations is the list of sizes to import, -Dloadtest.minVertices, -Dloadtest.maxVertices, -Dloadtest.badSequenceFraction
+ * and -Dloadtest.seed change the data. The results are written to target/loadtest/results.json, with the run report of each import.
+ * 
+ * The database is kept in a file under target/loadtest so its rows are not counted in the heap.
+ * H2 runs in the same JVM though, so its page cache is, and its SQL is not MySQL's: the figures are for comparing runs.
+ */
+@Tag("loadtest")
+class LocationImportLoadTests {
+	static Logger logger = Logger.getLogger(LocationImportLoadTests.class.getSimpleName());
+	static final Path DIRECTORY = Paths.get("target", "loadtest");
+	static final long FLEET_ID = 1;
+	
+	@Test
+	void importGeneratedLocations() throws Exception {
+		List<Map<String,Object>> results = new ArrayList<>();
+		for (String size : System.getProperty("loadtest.locations", "10000,100000,1000000").split(","))
+			results.add(importLocations(Integer.parseInt(size.trim())));
+		Files.createDirectories(DIRECTORY);
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(DIRECTORY.resolve("results.json").toFile(), results);
+	}
+	private Map<String,Object> importLocations(int locations) throws Exception {
+		Path file = DIRECTORY.resolve("locations-"+locations);
+		Files.deleteIfExists(DIRECTORY.resolve("locations-"+locations+".mv.db"));
+		H2LocationDatabase database = H2LocationDatabase.inFile(file);
+		try {
+			long start = System.currentTimeMillis();
+			LocationsImportGenerator.Summary summary;
+			try (H2LocationDatabase.LocationsImportInserter inserter = database.inserter()) {
+				summary = new LocationsImportGenerator()
+						.locations(locations)
+						.seed(Long.getLong("loadtest.seed", 1))
+						.vertices(Integer.getInteger("loadtest.minVertices", 4), Integer.getInteger("loadtest.maxVertices", 200))
+						.badSequenceFraction(Double.parseDouble(System.getProperty("loadtest.badSequenceFraction", "0.01")))
+						.generate(inserter);
+			}
+			long generateMillis = System.currentTimeMillis() - start;
+			logger.log(Level.INFO,"Generated "+summary+" in "+generateMillis+"ms");
+			
+			ImportSettings settings = H2LocationDatabase.settings();
+			settings.reportDirectory = DIRECTORY.toString();
+			LocationRepositoryImpl repository = new LocationRepositoryImpl(database.getDataSource(), settings);
+			System.gc();
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+				pool.resetPeakUsage();
+			long gcMillis = gcMillis();
+			long gcCount = gcCount();
+			start = System.currentTimeMillis();
+			repository.storeAllLocations(FLEET_ID);
+			long importMillis = Math.max(1, System.currentTimeMillis() - start);
+			gcMillis = gcMillis() - gcMillis;
+			gcCount = gcCount() - gcCount;
+			long heapPeak = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP)
+					heapPeak += pool.getPeakUsage().getUsed();
+			}
+			
+			Map<String,Object> result = new LinkedHashMap<>();
+			result.put("locations", summary.locations);
+			result.put("rows", summary.rows);
+			result.put("badLocations", summary.badLocations);
+			result.put("generateMillis", generateMillis);
+			result.put("importMillis", importMillis);
+			result.put("rowsPerSecond", summary.rows * 1000 / importMillis);
+			result.put("locationsPerSecond", summary.locations * 1000 / importMillis);
+			result.put("heapPeakBytes", heapPeak);
+			result.put("maxHeapBytes", Runtime.getRuntime().maxMemory());
+			result.put("gcMillis", gcMillis);
+			result.put("gcCount", gcCount);
+			logger.log(Level.INFO,"Load test "+result);
+			
+			assertEquals(summary.namesWithGoodLocation, database.count("SELECT COUNT(*) FROM fleet_locations WHERE fleet = "+FLEET_ID));
+			assertEquals(summary.badLocations, database.count("SELECT COUNT(*) FROM LocationsImport WHERE badRecord = 'Y'"));
+			return result;
+		} finally {
+			database.drop();
+		}
+	}
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+}
@@ -0,0 +1,39 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class LocationWriterTests {
+	
+	@Test
+	void upsertOnlyFlagsTheRowOfAnotherAreaType() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		Location location = PolygonValidatorTests.location("-33.1,151.1;-33.1,151.2;-33.2,151.2");
+		location.locationName = "Depot";
+		LocationWriter writer = new LocationWriter(StagedImportTests.recordingConnection(recorded), 7, AreaType.NoGo, new ImportSettings(), ImportMetrics.unregistered(7, AreaType.NoGo));
+		writer.upsert(location);
+		writer.finish();
+		assertEquals(2, recorded.size(), recorded.toString());
+		String sql = recorded.get(0);
+		assertTrue(sql.startsWith("INSERT INTO fleet_locations("), sql);
+		assertTrue(sql.contains(" ON DUPLICATE KEY UPDATE vigilPlusNoGo = IF(vigilPlusImported = 'Y', 'Y', vigilPlusNoGo) ["), sql);
+		// The flags in FLAG_ORDER then the hash
+		assertTrue(sql.endsWith(" [N] [N] [N] [Y] [N] ["+location.getContentHash()+"]"), sql);
+		assertEquals("COMMIT", recorded.get(1));
+	}
+	
+	@Test
+	void upsertOfEveryAreaTypeOverwritesTheImportedRow() {
+		String sql = LocationWriter.upsertSql(null);
+		assertTrue(sql.contains("complexpoints = IF(vigilPlusImported = 'Y', VALUES(complexpoints), complexpoints)"), sql);
+		assertTrue(sql.endsWith("vigilPlusHash = IF(vigilPlusImported = 'Y', VALUES(vigilPlusHash), vigilPlusHash)"), sql);
+		assertTrue(!sql.contains("location_name = IF") && !sql.contains("locationcolor = IF"), sql);
+	}
+}
@@ -0,0 +1,167 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * Makes up LocationsImport rows for load tests. The same settings and seed always give the same rows.
+ * 
+ * Each location is a SyntheticPolygon whose number of vertices is spread log-uniformly between minVertices and maxVertices,
+ * so most are small and a few are large, like real zones. Its AreaType is picked using the weights, and sharedNameFraction
+ * of the names are used by a second AreaType with the same points, which is what an import of every AreaType merges.
+ * badSequenceFraction of the locations skip a sequence number part way through, which makes them bad records.
+ * 
+ * The rows are generated in LocationName order, then AreaType, then SequenceNo, the order the import reads them in.
+ */
+class LocationsImportGenerator {
+	/**
+	 * Where the rows go, H2LocationDatabase.LocationsImportInserter for a database
+	 */
+	interface Rows {
+		void add(AreaType areaType, String locationName, BigDecimal speedLimit, boolean isSafe, int sequenceNo, BigDecimal latitude, BigDecimal longitude) throws Exception;
+	}
+	
+	private long seed = 1;
+	private int locations = 10000;
+	private int minVertices = 4;
+	private int maxVertices = 200;
+	private double badSequenceFraction = 0.01;
+	private double sharedNameFraction = 0.05;
+	private final Map<AreaType,Integer> weights = new EnumMap<>(AreaType.class);
+	
+	LocationsImportGenerator() {
+		weights.put(AreaType.Location, 40);
+		weights.put(AreaType.SpeedArea, 25);
+		weights.put(AreaType.NoGo, 15);
+		weights.put(AreaType.KeepIn, 15);
+		weights.put(AreaType.AreaCollection, 5);
+	}
+	LocationsImportGenerator seed(long seed) {
+		this.seed = seed;
+		return this;
+	}
+	/**
+	 * The number of location names, each is one location or two if it is shared
+	 */
+	LocationsImportGenerator locations(int locations) {
+		this.locations = locations;
+		return this;
+	}
+	LocationsImportGenerator vertices(int minVertices, int maxVertices) {
+		if (minVertices < 1 || maxVertices < minVertices)
+			throw new IllegalArgumentException("Invalid vertex range "+minVertices+" to "+maxVertices);
+		this.minVertices = minVertices;
+		this.maxVertices = maxVertices;
+		return this;
+	}
+	LocationsImportGenerator badSequenceFraction(double badSequenceFraction) {
+		this.badSequenceFraction = badSequenceFraction;
+		return this;
+	}
+	LocationsImportGenerator sharedNameFraction(double sharedNameFraction) {
+		this.sharedNameFraction = sharedNameFraction;
+		return this;
+	}
+	/**
+	 * The relative number of locations of the AreaType, 0 for none
+	 */
+	LocationsImportGenerator weight(AreaType areaType, int weight) {
+		weights.put(areaType, weight);
+		return this;
+	}
+	Summary generate(Rows rows) throws Exception {
+		Random random = new Random(seed);
+		Summary summary = new Summary();
+		int totalWeight = 0;
+		int areaTypes = 0;
+		for (int weight : weights.values()) {
+			totalWeight += weight;
+			if (weight > 0)
+				areaTypes++;
+		}
+		if (totalWeight <= 0)
+			throw new IllegalStateException("Every AreaType has a weight of 0");
+		double logRange = Math.log((double) maxVertices / minVertices);
+		for (int n = 0; n < locations; n++) {
+			String locationName = String.format("Location %09d", n);
+			int vertices = (int) Math.round(minVertices * Math.exp(random.nextDouble() * logRange));
+			SyntheticPolygon polygon = new SyntheticPolygon(random, Math.max(minVertices, Math.min(maxVertices, vertices)));
+			BigDecimal speedLimit = BigDecimal.valueOf(40 + 10 * random.nextInt(7)).setScale(2);
+			boolean isSafe = random.nextInt(10) == 0;
+			AreaType first = pick(random, totalWeight, null);
+			AreaType second = null;
+			if (random.nextDouble() < sharedNameFraction && areaTypes > 1)
+				second = pick(random, totalWeight, first);
+			boolean good = false;
+			// AreaType order is the order of the LocationsImport names, the same as ORDER BY AreaType
+			if (second != null && second.name.compareToIgnoreCase(first.name) < 0) {
+				AreaType swap = first;
+				first = second;
+				second = swap;
+			}
+			good |= add(rows, random, summary, first, locationName, speedLimit, isSafe, polygon);
+			if (second != null)
+				good |= add(rows, random, summary, second, locationName, speedLimit, isSafe, polygon);
+			summary.names++;
+			if (good)
+				summary.namesWithGoodLocation++;
+		}
+		return summary;
+	}
+	/**
+	 * Returns true if the location is good
+	 */
+	private boolean add(Rows rows, Random random, Summary summary, AreaType areaType, String locationName, BigDecimal speedLimit, boolean isSafe, SyntheticPolygon polygon) throws Exception {
+		// A bad location skips a sequence number after its first point
+		int skipAt = polygon.size() > 1 && random.nextDouble() < badSequenceFraction ? 1 + random.nextInt(polygon.size() - 1) : Integer.MAX_VALUE;
+		for (int i = 0; i < polygon.size(); i++) {
+			int sequenceNo = i < skipAt ? i + 1 : i + 2;
+			rows.add(areaType, locationName, speedLimit, isSafe, sequenceNo, polygon.latitudes[i], polygon.longitudes[i]);
+		}
+		summary.rows += polygon.size();
+		summary.locations++;
+		summary.locationsByAreaType.merge(areaType, 1L, Long::sum);
+		if (skipAt != Integer.MAX_VALUE) {
+			summary.badLocations++;
+			return false;
+		}
+		return true;
+	}
+	/**
+	 * Picks an AreaType by weight, other than except
+	 */
+	private AreaType pick(Random random, int totalWeight, AreaType except) {
+		while (true) {
+			int r = random.nextInt(totalWeight);
+			for (Map.Entry<AreaType,Integer> weight : weights.entrySet()) {
+				r -= weight.getValue();
+				if (r < 0) {
+					if (weight.getKey() != except)
+						return weight.getKey();
+					break;
+				}
+			}
+		}
+	}
+	/**
+	 * What was generated, to check the import against
+	 */
+	static class Summary {
+		long rows;
+		long names;
+		long locations;
+		long badLocations;
+		// Names with at least one good location, what an import of every AreaType leaves in fleet_locations
+		long namesWithGoodLocation;
+		final Map<AreaType,Long> locationsByAreaType = new EnumMap<>(AreaType.class);
+		
+		@Override
+		public String toString() {
+			return rows+" rows, "+names+" names, "+locations+" locations ("+badLocations+" bad) "+locationsByAreaType;
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class LocationsImportGeneratorTests {
+	
+	@Test
+	void sameSeedGivesSameRows() throws Exception {
+		List<String> first = new ArrayList<>();
+		List<String> second = new ArrayList<>();
+		List<String> other = new ArrayList<>();
+		new LocationsImportGenerator().locations(200).seed(5).generate((areaType, name, speedLimit, isSafe, sequenceNo, latitude, longitude) -> 
+			first.add(areaType+" "+name+" "+speedLimit+" "+isSafe+" "+sequenceNo+" "+latitude+" "+longitude));
+		new LocationsImportGenerator().locations(200).seed(5).generate((areaType, name, speedLimit, isSafe, sequenceNo, latitude, longitude) -> 
+			second.add(areaType+" "+name+" "+speedLimit+" "+isSafe+" "+sequenceNo+" "+latitude+" "+longitude));
+		new LocationsImportGenerator().locations(200).seed(6).generate((areaType, name, speedLimit, isSafe, sequenceNo, latitude, longitude) -> 
+			other.add(areaType+" "+name+" "+speedLimit+" "+isSafe+" "+sequenceNo+" "+latitude+" "+longitude));
+		assertEquals(first, second);
+		assertTrue(!first.equals(other));
+	}
+	
+	/**
+	 * Feeds the rows straight into the assembler and merger the way an import of every AreaType reads them
+	 */
+	@Test
+	void assemblesIntoWhatTheSummarySays() throws Exception {
+		long[] good = {0};
+		long[] bad = {0};
+		AreaTypeMerger merger = new AreaTypeMerger(location -> {
+			if (location.isBadRecord())
+				bad[0]++;
+			else
+				good[0]++;
+		});
+		LocationAssembler assembler = new LocationAssembler(null, merger);
+		long[] id = {0};
+		LocationsImportGenerator.Summary summary = new LocationsImportGenerator()
+				.locations(2000).vertices(3, 300).badSequenceFraction(0.05).sharedNameFraction(0.2).weight(AreaType.AreaCollection, 0)
+				.generate((areaType, name, speedLimit, isSafe, sequenceNo, latitude, longitude) -> 
+					assembler.add(areaType, ++id[0], name, speedLimit, isSafe, sequenceNo, latitude, longitude));
+		assembler.finish();
+		merger.finish();
+		assertEquals(summary.rows, assembler.getRowsRead());
+		assertEquals(summary.locations, assembler.getLocationsAssembled());
+		assertEquals(summary.badLocations, bad[0]);
+		assertEquals(summary.namesWithGoodLocation, good[0]);
+		assertTrue(summary.badLocations > 50 && summary.locations > 2200, summary.toString());
+		assertEquals(null, summary.locationsByAreaType.get(AreaType.AreaCollection));
+	}
+}
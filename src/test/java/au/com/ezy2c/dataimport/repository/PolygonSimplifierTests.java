@@ -0,0 +1,80 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static au.com.ezy2c.dataimport.repository.PolygonValidatorTests.location;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PolygonSimplifierTests {
+
+	private static String simplify(String points, double toleranceMetres) {
+		Location location = location(points);
+		new PolygonSimplifier(toleranceMetres).simplify(location);
+		return location.getComplexPoints();
+	}
+
+	@Test
+	void removesConsecutiveDuplicates() {
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000",
+				simplify("-33.100000,151.100000;-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.200000;-33.200000,151.200000;-33.200000,151.100000", 0));
+		// Only consecutive points are duplicates, a ring may come back to a point it has been through
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.100000,151.100000;-33.200000,151.100000",
+				simplify("-33.100000,151.100000;-33.100000,151.200000;-33.100000,151.100000;-33.200000,151.100000", 0));
+	}
+
+	@Test
+	void dropsPointsWithinTheTolerance() {
+		// On the edge, and about half a metre off it
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000",
+				simplify("-33.100000,151.100000;-33.100000,151.150000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000", 1.0));
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000",
+				simplify("-33.100000,151.100000;-33.100005,151.150000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000", 1.0));
+		// About two metres off it
+		assertEquals("-33.100000,151.100000;-33.100020,151.150000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000",
+				simplify("-33.100000,151.100000;-33.100020,151.150000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000", 1.0));
+		// The closing edge of an open ring is simplified too
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000",
+				simplify("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000;-33.150000,151.100000", 1.0));
+	}
+
+	@Test
+	void keepsARingClosedOrOpen() {
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000;-33.100000,151.100000",
+				simplify("-33.100000,151.100000;-33.100000,151.150000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000;-33.150000,151.100000;-33.100000,151.100000", 1.0));
+		// A duplicate of the closing point is removed, the ring stays closed
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000;-33.100000,151.100000",
+				simplify("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000;-33.100000,151.100000;-33.100000,151.100000", 1.0));
+		// An open ring isn't closed
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000",
+				simplify("-33.100000,151.100000;-33.100000,151.150000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000", 1.0));
+	}
+
+	@Test
+	void neverLeavesFewerThanThreePoints() {
+		// A sliver about a tenth of a metre wide would be two points, it is left as it was
+		String sliver = "-33.100000,151.100000;-33.100000,151.200000;-33.100001,151.200000;-33.100001,151.100000";
+		assertEquals(sliver, simplify(sliver, 1.0));
+		assertEquals(sliver+";-33.100000,151.100000", simplify(sliver+";-33.100000,151.100000", 1.0));
+		// A triangle is already as simple as it can be
+		String triangle = "-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000";
+		assertEquals(triangle, simplify(triangle, 100000));
+		// The duplicates of a sliver are still removed
+		assertEquals(sliver, simplify("-33.100000,151.100000;-33.100000,151.200000;-33.100000,151.200000;-33.100001,151.200000;-33.100001,151.100000", 1.0));
+	}
+
+	@Test
+	void retainPointsRecomputesTheBoundingBox() {
+		Location location = location("-33.100000,151.100000;-33.100000,151.200000;-33.500000,151.900000;-33.200000,151.200000;-33.200000,151.100000");
+		location.retainPoints(new boolean[] {true, true, false, true, true});
+		assertEquals(4, location.getNumberOfPoints());
+		assertEquals("-33.100000,151.100000;-33.100000,151.200000;-33.200000,151.200000;-33.200000,151.100000", location.getComplexPoints());
+		List<LatLong> cornersAndCentre = location.findCornersAndCentre();
+		assertEquals(new BigDecimal("-33.100000"), cornersAndCentre.get(Location.TOP_LEFT).latitude);
+		assertEquals(new BigDecimal("151.100000"), cornersAndCentre.get(Location.TOP_LEFT).longitude);
+		assertEquals(new BigDecimal("-33.200000"), cornersAndCentre.get(Location.BOTTOM_RIGHT).latitude);
+		assertEquals(new BigDecimal("151.200000"), cornersAndCentre.get(Location.BOTTOM_RIGHT).longitude);
+	}
+}
@@ -0,0 +1,156 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class PolygonValidatorTests {
+	
+	/**
+	 * A location from "lat,long;lat,long;..."
+	 */
+	static Location location(String points) {
+		Location location = null;
+		int sequenceNo = 1;
+		for (String point : points.split(";")) {
+			String[] latLong = point.split(",");
+			BigDecimal latitude = new BigDecimal(latLong[0]);
+			BigDecimal longitude = new BigDecimal(latLong[1]);
+			if (location == null)
+				location = new Location(1, AreaType.NoGo, "Test", sequenceNo, null, false, latitude, longitude);
+			else
+				location.add(sequenceNo, latitude, longitude);
+			sequenceNo++;
+		}
+		return location;
+	}
+	private static boolean valid(String points) {
+		return new PolygonValidator().validate(location(points));
+	}
+	
+	@Test
+	void acceptsSimplePolygons() {
+		assertTrue(valid("-33.1,151.1;-33.1,151.2;-33.2,151.2;-33.2,151.1"));
+		assertTrue(valid("-33.1,151.1;-33.1,151.2;-33.2,151.2;-33.2,151.1;-33.1,151.1")); // closed
+		assertTrue(valid("-33.1,151.1;-33.1,151.1;-33.1,151.2;-33.2,151.2")); // a duplicate point
+		assertTrue(valid("-33.1,151.1;-33.1,151.2;-33.15,151.15;-33.2,151.2;-33.2,151.1")); // concave
+		assertTrue(valid("-33.1234567,151.1234567")); // a single point
+	}
+	
+	@Test
+	void rejectsInvalidPolygons() {
+		Location bowtie = location("-33.1,151.1;-33.2,151.2;-33.1,151.2;-33.2,151.1");
+		assertFalse(new PolygonValidator().validate(bowtie));
+		assertTrue(bowtie.isBadRecord());
+		assertEquals("Edges from point 1 to 2 and point 3 to 4 cross", bowtie.getBadRecordReason());
+		assertFalse(valid("-33.1,151.1;-33.1,151.2"));
+		assertFalse(valid("-33.1,151.1;-33.1,151.2;-33.1,151.3"));
+		assertFalse(valid("-93.1,151.1;-33.1,151.2;-33.2,151.2"));
+		assertFalse(valid("-33.1,181.1;-33.1,151.2;-33.2,151.2"));
+		assertFalse(valid("-33.1,151.1;-33.1,151.3;-33.1,151.2;-33.2,151.2")); // goes back along an edge
+		assertFalse(valid("-33.1,151.1;-33.1,151.3;-33.2,151.2;-33.1,151.2;-33.3,151.2")); // touches an edge
+	}
+	
+	/**
+	 * Compares the sweep line with testing every pair of edges, on small random rings on a small grid
+	 * so that there are plenty of collinear and touching edges
+	 */
+	@Test
+	void agreesWithTestingEveryPair() {
+		Random random = new Random(11);
+		PolygonValidator validator = new PolygonValidator();
+		int invalid = 0;
+		for (int n = 0; n < 20000; n++) {
+			int points = 3 + random.nextInt(8);
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < points; i++) {
+				if (i > 0)
+					sb.append(";");
+				sb.append(-33 - random.nextInt(6) / 10.0).append(",").append(151 + random.nextInt(6) / 10.0);
+			}
+			Location location = location(sb.toString());
+			boolean expected = bruteForceValid(location);
+			boolean actual = validator.validate(location);
+			assertEquals(expected, actual, sb+" "+location.getBadRecordReason());
+			if (!actual)
+				invalid++;
+		}
+		assertTrue(invalid > 1000 && invalid < 19000, "invalid "+invalid);
+	}
+	
+	@Test
+	void largeRingsAreValidatedQuickly() {
+		SyntheticPolygon polygon = new SyntheticPolygon(new Random(2), 200000);
+		Location location = polygon.toLocation(1, AreaType.NoGo, "Large");
+		long start = System.nanoTime();
+		assertTrue(new PolygonValidator().validate(location), location.getBadRecordReason());
+		assertTrue(System.nanoTime() - start < 5_000_000_000L);
+	}
+	
+	private static boolean bruteForceValid(Location location) {
+		int count = location.getNumberOfPoints();
+		long[] xs = new long[count];
+		long[] ys = new long[count];
+		int n = 0;
+		for (int i = 0; i < count; i++) {
+			long x = Math.round(location.getLongitude(i) * 10);
+			long y = Math.round(location.getLatitude(i) * 10);
+			if (n == 0 || x != xs[n-1] || y != ys[n-1]) {
+				xs[n] = x;
+				ys[n] = y;
+				n++;
+			}
+		}
+		while (n > 1 && xs[n-1] == xs[0] && ys[n-1] == ys[0])
+			n--;
+		if (n < 3)
+			return n == 1;
+		boolean collinear = true;
+		for (int k = 2; k < n; k++)
+			collinear &= cross(xs[0], ys[0], xs[1], ys[1], xs[k], ys[k]) == 0;
+		if (collinear)
+			return false;
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				long ax = xs[i], ay = ys[i], bx = xs[(i+1)%n], by = ys[(i+1)%n];
+				long cx = xs[j], cy = ys[j], dx = xs[(j+1)%n], dy = ys[(j+1)%n];
+				boolean neighbours = j == i + 1 || (i == 0 && j == n - 1);
+				if (neighbours) {
+					// shared point p, the far ends q and r: they overlap if q, p and r are on a line and q or r lies within the other edge
+					long px, py, qx, qy, rx, ry;
+					if (j == i + 1) { px = bx; py = by; qx = ax; qy = ay; rx = dx; ry = dy; }
+					else { px = ax; py = ay; qx = bx; qy = by; rx = cx; ry = cy; }
+					if (cross(px, py, qx, qy, rx, ry) == 0 && (within(px, py, qx, qy, rx, ry) || within(px, py, rx, ry, qx, qy)))
+						return false;
+				} else if (segmentsMeet(ax, ay, bx, by, cx, cy, dx, dy)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	private static long cross(long ax, long ay, long bx, long by, long cx, long cy) {
+		return Long.signum((bx - ax) * (cy - ay) - (by - ay) * (cx - ax));
+	}
+	// Whether c is within the box of a-b
+	private static boolean within(long ax, long ay, long bx, long by, long cx, long cy) {
+		return Math.min(ax, bx) <= cx && cx <= Math.max(ax, bx) && Math.min(ay, by) <= cy && cy <= Math.max(ay, by);
+	}
+	private static boolean segmentsMeet(long ax, long ay, long bx, long by, long cx, long cy, long dx, long dy) {
+		long o1 = cross(ax, ay, bx, by, cx, cy);
+		long o2 = cross(ax, ay, bx, by, dx, dy);
+		long o3 = cross(cx, cy, dx, dy, ax, ay);
+		long o4 = cross(cx, cy, dx, dy, bx, by);
+		if (o1 != o2 && o3 != o4)
+			return true;
+		return (o1 == 0 && within(ax, ay, bx, by, cx, cy)) || (o2 == 0 && within(ax, ay, bx, by, dx, dy))
+				|| (o3 == 0 && within(cx, cy, dx, dy, ax, ay)) || (o4 == 0 && within(cx, cy, dx, dy, bx, by));
+	}
+}
@@ -0,0 +1,129 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class SqlImportTests {
+	static Logger logger = Logger.getLogger(SqlImportTests.class.getSimpleName());
+
+	@Test
+	void onlyPlainTextImportsAreDoneBySql() {
+		ImportSettings settings = new ImportSettings();
+		assertNull(SqlImport.unsupportedSetting(settings));
+		settings.validate = true;
+		assertEquals("validate", SqlImport.unsupportedSetting(settings));
+		settings.validate = false;
+		settings.complexPointsFormat = ComplexPoints.FORMAT_POLYLINE;
+		assertEquals("complexPointsFormat", SqlImport.unsupportedSetting(settings));
+		settings.complexPointsFormat = ComplexPoints.FORMAT_TEXT;
+		settings.coverPrecision = 8;
+		assertEquals("coverPrecision", SqlImport.unsupportedSetting(settings));
+	}
+
+	@Test
+	void writesTheGoodLocationsInOneTransaction() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		SqlImport sqlImport = new SqlImport(7, AreaType.KeepIn, false, ImportMetrics.unregistered(7, AreaType.KeepIn));
+		sqlImport.writeGoodLocations(StagedImportTests.recordingConnection(recorded));
+		assertEquals(8, recorded.size(), recorded.toString());
+		assertTrue(recorded.get(2).startsWith("SET SESSION group_concat_max_len"));
+		assertTrue(recorded.get(3).startsWith("CREATE TEMPORARY TABLE "+SqlImport.GROUPS_TABLE) && recorded.get(3).endsWith(" [Keep-In]"), recorded.get(3));
+		assertTrue(recorded.get(4).startsWith("CREATE TEMPORARY TABLE "+SqlImport.NAMES_TABLE));
+		assertTrue(recorded.get(5).startsWith("UPDATE fleet_locations f JOIN") && recorded.get(5).contains("SET f.vigilPlusKeepIn = 'Y'")
+				&& recorded.get(5).endsWith(" [7]"), recorded.get(5));
+		assertTrue(recorded.get(6).startsWith("INSERT IGNORE INTO fleet_locations(") && recorded.get(6).endsWith(" [7] [7]")
+				&& !recorded.get(6).contains("vigilPlusHash"), recorded.get(6));
+		assertEquals("COMMIT", recorded.get(7));
+		assertTrue(sqlImport.getRemainingRowsSql().contains("i.AreaType = ?"));
+	}
+
+	@Test
+	void mergesEveryAreaTypeOfAName() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		SqlImport sqlImport = new SqlImport(7, null, true, ImportMetrics.unregistered(7, null));
+		sqlImport.writeGoodLocations(StagedImportTests.recordingConnection(recorded));
+		assertEquals(7, recorded.size(), recorded.toString());
+		assertTrue(recorded.get(3).endsWith(" [AreaCollection] [Keep-In] [Location] [NoGo] [speedArea]"), recorded.get(3));
+		assertTrue(recorded.get(5).startsWith("INSERT IGNORE INTO fleet_locations(") && recorded.get(5).contains("vigilPlusHash) "), recorded.get(5));
+		assertTrue(sqlImport.getRemainingRowsSql().contains("ORDER BY i.LocationName, i.AreaType, i.SequenceNo"));
+	}
+
+	/**
+	 * Imports generated locations of every AreaType with the java engine and then the sql engine, checking that both leave
+	 * the same fleet_locations rows and bad records, for -DlocationImport.benchmarkLocations location names (default 1000).
+	 * The times of the two engines are compared by SqlEngineBenchmarks.
+	 * Only runs when -DlocationImport.benchmarkUrl gives the JDBC url of a MySQL schema made for it: its LocationsImport
+	 * is emptied and filled with the generated rows, the locations are imported to fleet -1 and deleted afterwards.
+	 */
+	@Test
+	void sqlAndJavaWriteTheSameRows() throws Exception {
+		String url = System.getProperty("locationImport.benchmarkUrl");
+		assumeTrue(url != null, "locationImport.benchmarkUrl is not set");
+		long fleetId = -1;
+		HikariDataSource dataSource = new HikariDataSource();
+		dataSource.setJdbcUrl(url + (url.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true");
+		try {
+			execute(dataSource, "DELETE FROM LocationsImport");
+			try (H2LocationDatabase.LocationsImportInserter inserter = new H2LocationDatabase.LocationsImportInserter(dataSource.getConnection())) {
+				new LocationsImportGenerator().locations(Integer.getInteger("locationImport.benchmarkLocations", 1000)).generate(inserter);
+			}
+			importLocations(dataSource, fleetId, ImportSettings.ENGINE_JAVA);
+			List<String> javaRows = rows(dataSource, fleetId);
+			execute(dataSource, "UPDATE LocationsImport SET badRecord = 'N', badRecordReason = NULL");
+			importLocations(dataSource, fleetId, ImportSettings.ENGINE_SQL);
+			assertEquals(javaRows, rows(dataSource, fleetId));
+		} finally {
+			execute(dataSource, "DELETE FROM fleet_locations WHERE fleet = "+fleetId);
+			dataSource.close();
+		}
+	}
+	private static void importLocations(HikariDataSource dataSource, long fleetId, String engine) throws Exception {
+		ImportSettings settings = new ImportSettings();
+		settings.engine = engine;
+		new LocationRepositoryImpl(dataSource, settings).storeAllLocations(fleetId);
+	}
+	/**
+	 * Every column but loc_id of the fleet's rows, then the bad records, in an order that doesn't depend on how they were written
+	 */
+	private static List<String> rows(HikariDataSource dataSource, long fleetId) throws Exception {
+		List<String> rows = new ArrayList<>();
+		try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement()) {
+			for (String sql : new String[] {"SELECT * FROM fleet_locations WHERE fleet = "+fleetId+" ORDER BY location_name",
+					"SELECT id, badRecordReason FROM LocationsImport WHERE badRecord = 'Y' ORDER BY id"}) {
+				try (ResultSet rs = st.executeQuery(sql)) {
+					ResultSetMetaData meta = rs.getMetaData();
+					while (rs.next()) {
+						StringBuilder row = new StringBuilder();
+						for (int i = 1; i <= meta.getColumnCount(); i++) {
+							if (!meta.getColumnName(i).equalsIgnoreCase("loc_id"))
+								row.append(rs.getString(i)).append('|');
+						}
+						rows.add(row.toString());
+					}
+				}
+			}
+		}
+		return rows;
+	}
+	private static void execute(HikariDataSource dataSource, String sql) throws Exception {
+		try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement()) {
+			st.executeUpdate(sql);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+class StagedImportTests {
+	
+	/**
+	 * A Connection that records the SQL of each statement or batched row with its parameters, and each commit
+	 */
+	static Connection recordingConnection(List<String> recorded) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class}, (connection, method, args) -> {
+			switch (method.getName()) {
+			case "prepareStatement":
+				String sql = (String) args[0];
+				StringBuilder sb = new StringBuilder(sql);
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, (statement, m, a) -> {
+					switch (m.getName()) {
+					case "setLong":
+					case "setString":
+					case "setBigDecimal":
+						sb.append(" [").append(a[1]).append("]");
+						return null;
+					case "addBatch":
+						recorded.add(sb.toString());
+						sb.setLength(sql.length());
+						return null;
+					case "executeBatch":
+						return new int[0];
+					case "executeUpdate":
+						recorded.add(sb.toString());
+						return 1;
+					default:
+						return null;
+					}
+				});
+			case "commit":
+				recorded.add("COMMIT");
+				return null;
+			default:
+				return null;
+			}
+		});
+	}
+	
+	@Test
+	void publishesASingleAreaTypeInOneTransaction() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		new StagedImport(7, AreaType.NoGo, ImportMetrics.unregistered(7, AreaType.NoGo)).publish(recordingConnection(recorded));
+		assertEquals(6, recorded.size(), recorded.toString());
+		assertTrue(recorded.get(0).startsWith("DELETE FROM fleet_locations ") && recorded.get(0).contains("vigilPlusNoGo = 'Y'")
+				&& recorded.get(0).contains("vigilPlusKeepIn = 'N'"));
+		assertTrue(recorded.get(1).startsWith("UPDATE fleet_locations SET vigilPlusNoGo = 'N'"));
+		assertTrue(recorded.get(2).startsWith("UPDATE fleet_locations f JOIN fleet_locations_import s"));
+		assertTrue(recorded.get(3).startsWith("UPDATE fleet_locations SET vigilPlusNoGo = 'Y'"));
+		assertTrue(recorded.get(4).startsWith("INSERT INTO fleet_locations("));
+		for (int i = 0; i < 5; i++)
+			assertTrue(recorded.get(i).endsWith(" [7] [NoGo]"), recorded.get(i));
+		assertEquals("COMMIT", recorded.get(5));
+	}
+	
+	@Test
+	void publishesEveryAreaTypeByContentHash() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		new StagedImport(7, null, ImportMetrics.unregistered(7, null)).publish(recordingConnection(recorded));
+		assertEquals(4, recorded.size(), recorded.toString());
+		assertTrue(recorded.get(0).startsWith("DELETE FROM fleet_locations ") && !recorded.get(0).contains("vigilPlusNoGo"));
+		assertTrue(recorded.get(1).contains("f.vigilPlusHash <> s.vigilPlusHash") && recorded.get(1).contains("f.vigilPlusNoGo = s.vigilPlusNoGo"));
+		assertTrue(recorded.get(2).endsWith(" [7] [All]"));
+		assertEquals("COMMIT", recorded.get(3));
+	}
+	
+	@Test
+	void stagesRowsForTheImport() throws Exception {
+		List<String> recorded = new ArrayList<>();
+		Location location = PolygonValidatorTests.location("-33.1,151.1;-33.1,151.2;-33.2,151.2");
+		ImportSettings settings = new ImportSettings();
+		settings.batchSize = 1;
+		LocationWriter writer = new LocationWriter(recordingConnection(recorded), 7, AreaType.NoGo, settings, ImportMetrics.unregistered(7, AreaType.NoGo));
+		writer.stage(location);
+		writer.finish();
+		writer.close();
+		assertEquals(2, recorded.size(), recorded.toString());
+		assertTrue(recorded.get(0).startsWith(LocationWriter.STAGE_SQL+" [Test] "), recorded.get(0));
+		assertTrue(recorded.get(0).endsWith(" ["+location.getContentHash()+"] [NoGo]"), recorded.get(0));
+		assertEquals("COMMIT", recorded.get(1));
+	}
+}
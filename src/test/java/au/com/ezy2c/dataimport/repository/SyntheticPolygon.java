@@ -0,0 +1,42 @@
+package au.com.ezy2c.dataimport.repository;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import au.com.ezy2c.dataimport.AreaType;
+
+/**
+ * A made up polygon with 7 decimal places, like those in LocationsImport.
+ * Its points go once around a centre in Australia at a radius of 50m to 5km, with some jitter so no two are alike.
+ * The same Random seed always gives the same polygons.
+ */
+class SyntheticPolygon {
+	final BigDecimal[] latitudes;
+	final BigDecimal[] longitudes;
+	
+	SyntheticPolygon(Random random, int vertices) {
+		latitudes = new BigDecimal[vertices];
+		longitudes = new BigDecimal[vertices];
+		double centreLatitude = -38 + random.nextDouble() * 26;
+		double centreLongitude = 114 + random.nextDouble() * 39;
+		double radiusDegrees = (50 + random.nextDouble() * 4950) / 111320.0;
+		for (int i = 0; i < vertices; i++) {
+			double angle = 2 * Math.PI * i / vertices;
+			double radius = radiusDegrees * (0.8 + random.nextDouble() * 0.2);
+			latitudes[i] = BigDecimal.valueOf(Math.round((centreLatitude + radius * Math.sin(angle)) * 1e7), 7);
+			longitudes[i] = BigDecimal.valueOf(Math.round((centreLongitude + radius * Math.cos(angle) / Math.cos(Math.toRadians(centreLatitude))) * 1e7), 7);
+		}
+	}
+	int size() {
+		return latitudes.length;
+	}
+	/**
+	 * The polygon as a Location read from LocationsImport
+	 */
+	Location toLocation(long id, AreaType areaType, String locationName) {
+		Location location = new Location(id, areaType, locationName, 1, new BigDecimal("60.00"), false, latitudes[0], longitudes[0]);
+		for (int i = 1; i < size(); i++)
+			location.add(i + 1, latitudes[i], longitudes[i]);
+		return location;
+	}
+}
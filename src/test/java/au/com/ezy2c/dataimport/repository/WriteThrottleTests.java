@@ -0,0 +1,124 @@
+package au.com.ezy2c.dataimport.repository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class WriteThrottleTests {
+
+	private static ImportSettings settings() {
+		ImportSettings settings = H2LocationDatabase.settings();
+		settings.batchSize = 400;
+		settings.commitInterval = 4000;
+		settings.throttleMinBatchSize = 50;
+		settings.throttleMaxBatchSize = 800;
+		settings.throttleTargetMillis = 100;
+		return settings;
+	}
+	private static void observe(WriteThrottle throttle, long millis) {
+		for (int i = 0; i < WriteThrottle.WINDOW; i++)
+			throttle.observe(TimeUnit.MILLISECONDS.toNanos(millis));
+	}
+
+	/**
+	 * Slow batches halve the batch size, then take away writers, then add a delay, fast ones undo them in the reverse order
+	 */
+	@Test
+	void slowsDownAndRecovers() {
+		WriteThrottle throttle = new WriteThrottle("test", settings(), 3);
+		observe(throttle, 150);
+		assertEquals(200, throttle.batchSize());
+		assertEquals(2000, throttle.commitInterval());
+		observe(throttle, 150);
+		observe(throttle, 150);
+		assertEquals(50, throttle.batchSize());
+		assertEquals(3, throttle.writers());
+		observe(throttle, 150);
+		observe(throttle, 150);
+		assertEquals(1, throttle.writers());
+		assertEquals(0, throttle.delayMillis());
+		observe(throttle, 150);
+		observe(throttle, 150);
+		assertEquals(20, throttle.delayMillis());
+		assertEquals(7, throttle.decreases());
+		// Between half the target and the target nothing changes
+		observe(throttle, 80);
+		assertEquals(20, throttle.delayMillis());
+		observe(throttle, 10);
+		assertEquals(10, throttle.delayMillis());
+		observe(throttle, 10);
+		assertEquals(0, throttle.delayMillis());
+		observe(throttle, 10);
+		observe(throttle, 10);
+		assertEquals(3, throttle.writers());
+		assertEquals(50, throttle.batchSize());
+		observe(throttle, 10);
+		assertEquals(150, throttle.batchSize());
+		for (int i = 0; i < 10; i++)
+			observe(throttle, 10);
+		assertEquals(800, throttle.batchSize());
+		assertEquals(8000, throttle.commitInterval());
+		assertEquals(12, throttle.increases());
+	}
+
+	/**
+	 * A lag over the limit slows the import down however fast the batches are, and a lag query that fails is given up on
+	 */
+	@Test
+	void slowsDownForReplicationLag() throws Exception {
+		H2LocationDatabase database = H2LocationDatabase.inMemory("throttle");
+		try (Connection connection = database.getDataSource().getConnection()) {
+			ImportSettings settings = settings();
+			settings.throttleLagSql = "SELECT 30";
+			settings.throttleLagCheckMillis = 0;
+			WriteThrottle throttle = new WriteThrottle("test", settings, 2);
+			throttle.checkLag(connection);
+			assertEquals(30.0, throttle.lagSeconds());
+			assertEquals(200, throttle.batchSize());
+			observe(throttle, 1);
+			assertEquals(100, throttle.batchSize());
+			assertEquals(0, throttle.increases());
+
+			settings.throttleLagSql = "SELECT lag FROM no_such_table";
+			throttle = new WriteThrottle("test", settings, 2);
+			throttle.checkLag(connection);
+			assertTrue(throttle.lagSeconds() < 0);
+			observe(throttle, 1);
+			assertEquals(500, throttle.batchSize());
+		} finally {
+			database.drop();
+		}
+	}
+
+	/**
+	 * A writer waits while as many as are allowed are writing
+	 */
+	@Test
+	void limitsTheWriters() throws Exception {
+		WriteThrottle throttle = new WriteThrottle("test", settings(), 2);
+		for (int i = 0; i < 4; i++)
+			observe(throttle, 150);
+		assertEquals(1, throttle.writers());
+		throttle.acquire();
+		CountDownLatch acquired = new CountDownLatch(1);
+		Thread writer = new Thread(() -> {
+			try {
+				throttle.acquire();
+				acquired.countDown();
+				throttle.release();
+			} catch (InterruptedException ex) {
+			}
+		});
+		writer.start();
+		assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+		throttle.release();
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		writer.join();
+	}
+}
@@ -0,0 +1,72 @@
+-- The tables the import uses, for an in-memory H2 database in MySQL mode. See H2LocationDatabase
+CREATE TABLE IF NOT EXISTS LocationsImport (
+	id BIGINT AUTO_INCREMENT PRIMARY KEY,
+	AreaType VARCHAR(32) NOT NULL,
+	LocationName VARCHAR(255) NOT NULL,
+	SpeedLimit DECIMAL(6,2),
+	IsSafe INT NOT NULL DEFAULT 0,
+	SequenceNo INT NOT NULL,
+	latitude DECIMAL(10,7) NOT NULL,
+	longitude DECIMAL(10,7) NOT NULL,
+	badRecord CHAR(1) DEFAULT 'N',
+	badRecordReason VARCHAR(255)
+);
+CREATE INDEX IF NOT EXISTS LocationsImport_AreaType ON LocationsImport(AreaType, LocationName, SequenceNo);
+
+CREATE TABLE IF NOT EXISTS fleet_locations (
+	loc_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+	location_name VARCHAR(255) NOT NULL,
+	latitude DECIMAL(11,8),
+	longitude DECIMAL(11,8),
+	topleft_lat DECIMAL(10,7),
+	topleft_long DECIMAL(10,7),
+	bottomright_lat DECIMAL(10,7),
+	bottomright_long DECIMAL(10,7),
+	complexpoints LONGTEXT,
+	fleet BIGINT NOT NULL,
+	service_loc_flag CHAR(1),
+	corridor_flag CHAR(1),
+	speed_zone_override DECIMAL(6,2),
+	speed_zone_flag CHAR(1),
+	locationcolor VARCHAR(16),
+	vigilPlusImported CHAR(1) DEFAULT 'N',
+	vigilPlusLocation CHAR(1) DEFAULT 'N',
+	vigilPlusSpeedArea CHAR(1) DEFAULT 'N',
+	vigilPlusKeepIn CHAR(1) DEFAULT 'N',
+	vigilPlusNoGo CHAR(1) DEFAULT 'N',
+	vigilPlusAreaCollection CHAR(1) DEFAULT 'N',
+	vigilPlusHash BIGINT
+);
+CREATE UNIQUE INDEX IF NOT EXISTS fleet_locations_fleet ON fleet_locations(fleet, location_name);
+
+CREATE TABLE IF NOT EXISTS fleet_location_cells (
+	fleet BIGINT NOT NULL,
+	cell VARCHAR(12) NOT NULL,
+	location_name VARCHAR(255) NOT NULL,
+	location_hash BIGINT NOT NULL,
+	full_cell CHAR(1) NOT NULL,
+	PRIMARY KEY (fleet, cell, location_name, location_hash)
+);
+
+CREATE TABLE IF NOT EXISTS fleet_location_import_checkpoints (
+	fleet BIGINT NOT NULL,
+	import_area_type VARCHAR(32) NOT NULL,
+	location_name VARCHAR(255) NOT NULL,
+	import_rows BIGINT NOT NULL,
+	updated DATETIME NOT NULL,
+	PRIMARY KEY (fleet, import_area_type)
+);
+
+CREATE TABLE IF NOT EXISTS fleet_location_import_jobs (
+	id BIGINT AUTO_INCREMENT PRIMARY KEY,
+	fleet BIGINT NOT NULL,
+	area_type VARCHAR(32) NOT NULL,
+	status VARCHAR(16) NOT NULL DEFAULT 'queued',
+	requested DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
+	started DATETIME NULL,
+	finished DATETIME NULL,
+	duration_millis BIGINT NULL,
+	message VARCHAR(1024) NULL,
+	claimed_by VARCHAR(255) NULL,
+	lease_expires DATETIME NULL
+);